@@ -0,0 +1,656 @@
+package wavltree;
+
+import java.util.Arrays;
+
+import memory.MemoryFootprint;
+
+/**
+ * A B+ tree with distinct integer keys and string info, with the same public
+ * API as WAVLTree. The keys sit in contiguous int[] blocks of up to B keys,
+ * so a search takes one cache miss per level (about 5 levels for 100M keys)
+ * rather than one per binary level. Every inner node keeps the size of each
+ * child's subtree, which keeps select at O(log(n)).
+ *
+ * Blocks are searched with a branch-free binary search: its loop runs a fixed
+ * number of times for a given block length, and the comparison only selects
+ * the next base (a conditional move), so there is nothing to mispredict.
+ */
+public class BPlusTree {
+
+    static final int B = 64; // the maximum number of keys (children) in a leaf (inner node)
+    static final int MIN = B / 4; // below which a non-root node is fixed
+
+    private Node root;
+    private int size;
+    private int leaves; // the number of leaves, for memoryFootprint()
+    private int inners; // the number of inner nodes
+    private long valueBytes; // the estimated bytes of the values
+
+    // the bytes of a leaf and of an inner node, with their arrays
+    private static final long LEAF_BYTES = MemoryFootprint.objectBytes(4 + 3 * MemoryFootprint.REFERENCE)
+            + MemoryFootprint.arrayBytes(B, 4) + MemoryFootprint.arrayBytes(B, MemoryFootprint.REFERENCE);
+    private static final long INNER_BYTES = MemoryFootprint.objectBytes(4 + 3 * MemoryFootprint.REFERENCE)
+            + 2 * MemoryFootprint.arrayBytes(B, 4) + MemoryFootprint.arrayBytes(B, MemoryFootprint.REFERENCE);
+
+    /**
+     * Initialize an empty tree.
+     */
+    public BPlusTree() {
+        root = new Leaf();
+        size = 0;
+        leaves = 1;
+    }
+
+    /**
+     * @return true if the tree is empty
+     * @complexity O(1)
+     */
+    public boolean empty() {
+        return size == 0;
+    }
+
+    /**
+     * @return the number of keys in the tree
+     * @complexity O(1)
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the value associated with the given key.
+     *
+     * @param k
+     *            the key
+     * @return the value associated with the given key if the key is in the
+     *         tree, else null
+     * @complexity O(log(n)) where n is the size of the tree
+     */
+    public String search(int k) {
+        Node x = root;
+        while (x instanceof Inner) {
+            Inner y = (Inner) x;
+            x = y.children[y.childIndex(k)];
+        }
+        Leaf leaf = (Leaf) x;
+        int p = leaf.lowerBound(k);
+        return p < leaf.n && leaf.keys[p] == k ? leaf.values[p] : null;
+    }
+
+    /**
+     * Inserts the specified key-value pair into the tree. Does not change the
+     * tree if the key already exists.
+     *
+     * @param k
+     *            the key
+     * @param i
+     *            the value
+     * @return the number of node splits, -1 if an item with key k already
+     *         exists in the tree
+     * @complexity O(B * log_B(n)) where n is the size of the tree
+     */
+    public int insert(int k, String i) {
+        Result r = new Result();
+        Node sibling = insert(root, k, i, r);
+        if (r.splits == -1) {
+            return -1;
+        }
+        size++;
+        valueBytes += MemoryFootprint.stringBytes(i);
+        if (sibling != null) { // the root was split: grow a level
+            inners++;
+            Inner y = new Inner();
+            y.children[0] = root;
+            y.sizes[0] = size - sibling.size();
+            y.children[1] = sibling;
+            y.sizes[1] = sibling.size();
+            y.keys[0] = r.splitKey;
+            y.n = 2;
+            root = y;
+        }
+        return r.splits;
+    }
+
+    /**
+     * @param x
+     *            the subtree
+     * @param k
+     *            the key
+     * @param i
+     *            the value
+     * @param r
+     *            where to count splits (-1 if k exists) and to return the
+     *            separator of a new sibling
+     * @return the new right sibling of x if x was split, else null
+     * @complexity O(B * h) where h is the height of the subtree
+     */
+    private Node insert(Node x, int k, String i, Result r) {
+        if (x instanceof Leaf) {
+            Leaf leaf = (Leaf) x;
+            int p = leaf.lowerBound(k);
+            if (p < leaf.n && leaf.keys[p] == k) {
+                r.splits = -1;
+                return null;
+            }
+            leaf.insertAt(p, k, i);
+            if (leaf.n < B) {
+                return null;
+            }
+            r.splits++;
+            leaves++;
+            Leaf right = leaf.split();
+            r.splitKey = right.keys[0];
+            return right;
+        }
+        Inner y = (Inner) x;
+        int c = y.childIndex(k);
+        Node sibling = insert(y.children[c], k, i, r);
+        if (r.splits == -1) {
+            return null;
+        }
+        y.sizes[c]++;
+        if (sibling == null) {
+            return null;
+        }
+        int siblingSize = sibling.size();
+        y.sizes[c] -= siblingSize;
+        y.insertAt(c + 1, r.splitKey, sibling, siblingSize);
+        if (y.n < B) {
+            return null;
+        }
+        r.splits++;
+        inners++;
+        return y.split(r); // sets r.splitKey
+    }
+
+    /**
+     * Removes the specified key and its value from the tree, if it is there.
+     *
+     * @param k
+     *            the key
+     * @return the number of node merges and redistributions, -1 if a key k was
+     *         not found in the tree
+     * @complexity O(B * log_B(n)) where n is the size of the tree
+     */
+    public int delete(int k) {
+        Result r = new Result();
+        if (!delete(root, k, r)) {
+            return -1;
+        }
+        size--;
+        valueBytes -= MemoryFootprint.stringBytes(r.value);
+        if (root instanceof Inner && root.n == 1) { // shrink a level
+            inners--;
+            root = ((Inner) root).children[0];
+        }
+        return r.splits;
+    }
+
+    /**
+     * @param x
+     *            the subtree
+     * @param k
+     *            the key
+     * @param r
+     *            where to count merges and redistributions
+     * @return true if k was found and removed, false otherwise
+     * @complexity O(B * h) where h is the height of the subtree
+     */
+    private boolean delete(Node x, int k, Result r) {
+        if (x instanceof Leaf) {
+            Leaf leaf = (Leaf) x;
+            int p = leaf.lowerBound(k);
+            if (p == leaf.n || leaf.keys[p] != k) {
+                return false;
+            }
+            r.value = leaf.values[p];
+            leaf.removeAt(p);
+            return true;
+        }
+        Inner y = (Inner) x;
+        int c = y.childIndex(k);
+        if (!delete(y.children[c], k, r)) {
+            return false;
+        }
+        y.sizes[c]--;
+        if (y.children[c].n < MIN) {
+            r.splits++;
+            int n = y.n;
+            y.fixChild(c);
+            if (y.n < n) { // two children were merged
+                if (y.children[0] instanceof Leaf) {
+                    leaves--;
+                } else {
+                    inners--;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Report the memory the tree uses: its nodes and keys (structural), the
+     * values (payload), and the unused slots of the nodes (slack).
+     *
+     * @return the report
+     * @complexity O(1), from counters kept by every update
+     */
+    public MemoryFootprint memoryFootprint() {
+        // every node but the root is the child of an inner node
+        long slack = ((long) leaves * B - size) * (4 + MemoryFootprint.REFERENCE)
+                + ((long) inners * B - (leaves + inners - 1)) * (4 + 4 + MemoryFootprint.REFERENCE);
+        long structural = MemoryFootprint.objectBytes(4 * 4 + 8 + MemoryFootprint.REFERENCE)
+                + leaves * LEAF_BYTES + inners * INNER_BYTES - slack;
+        return new MemoryFootprint("BPlusTree", size, structural, valueBytes, slack, 0);
+    }
+
+    /**
+     * @param i
+     *            the rank, starting from 1
+     * @return the value of the i'th smallest key, null if the tree has less
+     *         than i keys (or i < 1)
+     * @complexity O(B * log_B(n)) where n is the size of the tree
+     */
+    public String select(int i) {
+        if (i < 1 || i > size) {
+            return null;
+        }
+        Node x = root;
+        while (x instanceof Inner) {
+            Inner y = (Inner) x;
+            int j = 0;
+            while (i > y.sizes[j]) {
+                i -= y.sizes[j++];
+            }
+            x = y.children[j];
+        }
+        return ((Leaf) x).values[i - 1];
+    }
+
+    /**
+     * @return the info string of the item with the smallest key in the tree,
+     *         null if the tree is empty
+     * @complexity O(log_B(n)) where n is the size of the tree
+     */
+    public String min() {
+        Leaf leaf = first();
+        return leaf.n == 0 ? null : leaf.values[0];
+    }
+
+    /**
+     * @return the info string of the item with the greatest key in the tree,
+     *         null if the tree is empty
+     * @complexity O(log_B(n)) where n is the size of the tree
+     */
+    public String max() {
+        Node x = root;
+        while (x instanceof Inner) {
+            x = ((Inner) x).children[x.n - 1];
+        }
+        return x.n == 0 ? null : ((Leaf) x).values[x.n - 1];
+    }
+
+    /**
+     * @return the leftmost leaf
+     * @complexity O(log_B(n)) where n is the size of the tree
+     */
+    private Leaf first() {
+        Node x = root;
+        while (x instanceof Inner) {
+            x = ((Inner) x).children[0];
+        }
+        return (Leaf) x;
+    }
+
+    /**
+     * @return a sorted array which contains all keys in the tree
+     * @complexity O(n) where n is the size of the tree, copying block by block
+     */
+    public int[] keysToArray() {
+        int[] keys = new int[size];
+        int i = 0;
+        for (Leaf leaf = first(); leaf != null; leaf = leaf.next) {
+            System.arraycopy(leaf.keys, 0, keys, i, leaf.n);
+            i += leaf.n;
+        }
+        return keys;
+    }
+
+    /**
+     * @return a sorted array which contains all the info of the nodes, sorted
+     *         by the respective keys in the tree
+     * @complexity O(n) where n is the size of the tree, copying block by block
+     */
+    public String[] infoToArray() {
+        String[] infos = new String[size];
+        int i = 0;
+        for (Leaf leaf = first(); leaf != null; leaf = leaf.next) {
+            System.arraycopy(leaf.values, 0, infos, i, leaf.n);
+            i += leaf.n;
+        }
+        return infos;
+    }
+
+    /**
+     * @return true if every node is sorted, within its separators, holds
+     *         between MIN and B - 1 entries (but the root), and every subtree
+     *         size and the node counts are right
+     * @complexity O(n) where n is the size of the tree
+     */
+    boolean isValid() {
+        return count(root, Long.MIN_VALUE, Long.MAX_VALUE, true) == size && countNodes(root, true) == leaves
+                && countNodes(root, false) == inners;
+    }
+
+    /**
+     * @return the number of leaves in the subtree if leaf, else the number of
+     *         inner nodes
+     */
+    private int countNodes(Node x, boolean leaf) {
+        if (x instanceof Leaf) {
+            return leaf ? 1 : 0;
+        }
+        Inner y = (Inner) x;
+        int total = leaf ? 0 : 1;
+        for (int j = 0; j < y.n; j++) {
+            total += countNodes(y.children[j], leaf);
+        }
+        return total;
+    }
+
+    /**
+     * @return the number of keys in the subtree, -1 if it is not valid
+     */
+    private int count(Node x, long lo, long hi, boolean isRoot) {
+        if (x.n >= B || (!isRoot && x.n < MIN)) {
+            return -1;
+        }
+        if (x instanceof Leaf) {
+            Leaf leaf = (Leaf) x;
+            for (int j = 0; j < leaf.n; j++) {
+                if (leaf.keys[j] < lo || leaf.keys[j] >= hi || (j > 0 && leaf.keys[j - 1] >= leaf.keys[j])) {
+                    return -1;
+                }
+            }
+            return leaf.n;
+        }
+        Inner y = (Inner) x;
+        int total = 0;
+        for (int j = 0; j < y.n; j++) {
+            long childLo = j == 0 ? lo : y.keys[j - 1];
+            long childHi = j == y.n - 1 ? hi : y.keys[j];
+            int c = count(y.children[j], childLo, childHi, false);
+            if (c == -1 || c != y.sizes[j]) {
+                return -1;
+            }
+            total += c;
+        }
+        return total;
+    }
+
+    /**
+     * The outcome of a recursive insertion or deletion.
+     */
+    private static class Result {
+
+        int splits; // or merges, -1 if an insertion found its key
+        int splitKey; // the smallest key of a new right sibling
+        String value; // the value of a deleted key
+
+    }
+
+    private abstract static class Node {
+
+        int n; // the number of keys (children) in a leaf (inner node)
+
+        /**
+         * @return the number of keys in the subtree
+         * @complexity O(B)
+         */
+        abstract int size();
+
+    }
+
+    private static class Leaf extends Node {
+
+        final int[] keys = new int[B];
+        final String[] values = new String[B];
+        Leaf next; // the leaf to the right, null for the last one
+
+        @Override
+        int size() {
+            return n;
+        }
+
+        /**
+         * @return the number of keys smaller than k
+         * @complexity O(log(B)), branch-free
+         */
+        int lowerBound(int k) {
+            int base = 0;
+            int len = n;
+            while (len > 1) { // the answer is in [base, base + len]
+                int half = len >>> 1;
+                base += keys[base + half - 1] < k ? half : 0;
+                len -= half;
+            }
+            return base + (len == 1 && keys[base] < k ? 1 : 0);
+        }
+
+        void insertAt(int p, int k, String i) {
+            System.arraycopy(keys, p, keys, p + 1, n - p);
+            System.arraycopy(values, p, values, p + 1, n - p);
+            keys[p] = k;
+            values[p] = i;
+            n++;
+        }
+
+        void removeAt(int p) {
+            System.arraycopy(keys, p + 1, keys, p, n - p - 1);
+            System.arraycopy(values, p + 1, values, p, n - p - 1);
+            values[--n] = null;
+        }
+
+        /**
+         * Move the upper half of the keys into a new leaf.
+         *
+         * @return the new leaf, to the right of this one
+         */
+        Leaf split() {
+            Leaf right = new Leaf();
+            int h = n / 2;
+            right.n = n - h;
+            System.arraycopy(keys, h, right.keys, 0, right.n);
+            System.arraycopy(values, h, right.values, 0, right.n);
+            Arrays.fill(values, h, n, null);
+            n = h;
+            right.next = next;
+            next = right;
+            return right;
+        }
+
+    }
+
+    private static class Inner extends Node {
+
+        final int[] keys = new int[B]; // keys[j] is the smallest key under children[j + 1]
+        final Node[] children = new Node[B];
+        final int[] sizes = new int[B]; // the number of keys under each child
+
+        @Override
+        int size() {
+            int total = 0;
+            for (int j = 0; j < n; j++) {
+                total += sizes[j];
+            }
+            return total;
+        }
+
+        /**
+         * @return the index of the child whose subtree may hold k: the number
+         *         of separators which are not greater than k
+         * @complexity O(log(B)), branch-free
+         */
+        int childIndex(int k) {
+            int base = 0;
+            int len = n - 1;
+            while (len > 1) { // the answer is in [base, base + len]
+                int half = len >>> 1;
+                base += keys[base + half - 1] <= k ? half : 0;
+                len -= half;
+            }
+            return base + (len == 1 && keys[base] <= k ? 1 : 0);
+        }
+
+        /**
+         * Insert a child at index c, whose smallest key is key.
+         */
+        void insertAt(int c, int key, Node child, int childSize) {
+            System.arraycopy(keys, c - 1, keys, c, n - c);
+            System.arraycopy(children, c, children, c + 1, n - c);
+            System.arraycopy(sizes, c, sizes, c + 1, n - c);
+            keys[c - 1] = key;
+            children[c] = child;
+            sizes[c] = childSize;
+            n++;
+        }
+
+        /**
+         * Remove the child at index c >= 1 and the separator before it.
+         */
+        void removeAt(int c) {
+            System.arraycopy(keys, c, keys, c - 1, n - c - 1);
+            System.arraycopy(children, c + 1, children, c, n - c - 1);
+            System.arraycopy(sizes, c + 1, sizes, c, n - c - 1);
+            children[--n] = null;
+        }
+
+        /**
+         * Move the upper half of the children into a new inner node.
+         *
+         * @param r
+         *            where to return the smallest key of the new node
+         * @return the new node, to the right of this one
+         */
+        Inner split(Result r) {
+            Inner right = new Inner();
+            int h = n / 2;
+            right.n = n - h;
+            System.arraycopy(children, h, right.children, 0, right.n);
+            System.arraycopy(sizes, h, right.sizes, 0, right.n);
+            System.arraycopy(keys, h, right.keys, 0, right.n - 1);
+            r.splitKey = keys[h - 1];
+            Arrays.fill(children, h, n, null);
+            n = h;
+            return right;
+        }
+
+        /**
+         * Fix the child at index c, which has less than MIN entries, by merging
+         * it with a sibling if they fit in one node, and else by moving entries
+         * from the sibling so both have the same number.
+         *
+         * @precondition n >= 2
+         * @complexity O(B)
+         */
+        void fixChild(int c) {
+            if (c == n - 1) { // pair with the left sibling
+                c--;
+            }
+            Node left = children[c];
+            Node right = children[c + 1];
+            if (left.n + right.n < B) {
+                merge(c);
+            } else if (left instanceof Leaf) {
+                redistributeLeaves(c, (Leaf) left, (Leaf) right);
+            } else {
+                redistributeInners(c, (Inner) left, (Inner) right);
+            }
+        }
+
+        /**
+         * Append the child at c + 1 to the child at c.
+         */
+        private void merge(int c) {
+            Node left = children[c];
+            Node right = children[c + 1];
+            if (left instanceof Leaf) {
+                Leaf l = (Leaf) left;
+                Leaf r = (Leaf) right;
+                System.arraycopy(r.keys, 0, l.keys, l.n, r.n);
+                System.arraycopy(r.values, 0, l.values, l.n, r.n);
+                l.n += r.n;
+                l.next = r.next;
+            } else {
+                Inner l = (Inner) left;
+                Inner r = (Inner) right;
+                l.keys[l.n - 1] = keys[c];
+                System.arraycopy(r.keys, 0, l.keys, l.n, r.n - 1);
+                System.arraycopy(r.children, 0, l.children, l.n, r.n);
+                System.arraycopy(r.sizes, 0, l.sizes, l.n, r.n);
+                l.n += r.n;
+            }
+            sizes[c] += sizes[c + 1];
+            removeAt(c + 1);
+        }
+
+        private void redistributeLeaves(int c, Leaf l, Leaf r) {
+            int total = l.n + r.n;
+            int h = total / 2;
+            if (l.n < h) { // move the first h - l.n keys of r to l
+                int m = h - l.n;
+                System.arraycopy(r.keys, 0, l.keys, l.n, m);
+                System.arraycopy(r.values, 0, l.values, l.n, m);
+                System.arraycopy(r.keys, m, r.keys, 0, r.n - m);
+                System.arraycopy(r.values, m, r.values, 0, r.n - m);
+                Arrays.fill(r.values, r.n - m, r.n, null);
+            } else { // move the last l.n - h keys of l to r
+                int m = l.n - h;
+                System.arraycopy(r.keys, 0, r.keys, m, r.n);
+                System.arraycopy(r.values, 0, r.values, m, r.n);
+                System.arraycopy(l.keys, h, r.keys, 0, m);
+                System.arraycopy(l.values, h, r.values, 0, m);
+                Arrays.fill(l.values, h, l.n, null);
+            }
+            l.n = h;
+            r.n = total - h;
+            keys[c] = r.keys[0];
+            sizes[c] = l.n;
+            sizes[c + 1] = r.n;
+        }
+
+        private void redistributeInners(int c, Inner l, Inner r) {
+            int total = l.n + r.n;
+            int h = total / 2;
+            if (l.n < h) { // move the first h - l.n children of r to l
+                int m = h - l.n;
+                l.keys[l.n - 1] = keys[c];
+                System.arraycopy(r.keys, 0, l.keys, l.n, m - 1);
+                System.arraycopy(r.children, 0, l.children, l.n, m);
+                System.arraycopy(r.sizes, 0, l.sizes, l.n, m);
+                keys[c] = r.keys[m - 1];
+                System.arraycopy(r.keys, m, r.keys, 0, r.n - m - 1);
+                System.arraycopy(r.children, m, r.children, 0, r.n - m);
+                System.arraycopy(r.sizes, m, r.sizes, 0, r.n - m);
+                Arrays.fill(r.children, r.n - m, r.n, null);
+            } else { // move the last l.n - h children of l to r
+                int m = l.n - h;
+                System.arraycopy(r.keys, 0, r.keys, m, r.n - 1);
+                System.arraycopy(r.children, 0, r.children, m, r.n);
+                System.arraycopy(r.sizes, 0, r.sizes, m, r.n);
+                r.keys[m - 1] = keys[c];
+                System.arraycopy(l.keys, h, r.keys, 0, m - 1);
+                System.arraycopy(l.children, h, r.children, 0, m);
+                System.arraycopy(l.sizes, h, r.sizes, 0, m);
+                keys[c] = l.keys[h - 1];
+                Arrays.fill(l.children, h, l.n, null);
+            }
+            l.n = h;
+            r.n = total - h;
+            sizes[c] = l.size();
+            sizes[c + 1] = r.size();
+        }
+
+    }
+
+}
@@ -0,0 +1,96 @@
+package wavltree;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+/**
+ * Head to head timings of BPlusTree against WAVLTree, on the same shuffled
+ * keys.
+ */
+public class BPlusTreeMeasurements {
+
+    public static int[] N = { 100000, 1000000 };
+    public static int ROUNDS = 5;
+
+    public static void main(String[] args) {
+        for (int n : N) {
+            ArrayList<Integer> list = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                list.add(i);
+            }
+            Collections.shuffle(list);
+            int[] keys = new int[n];
+            for (int i = 0; i < n; i++) {
+                keys[i] = list.get(i);
+            }
+            long[] wavl = new long[4];
+            long[] bplus = new long[4];
+            for (int round = 0; round < ROUNDS; round++) { // the first rounds warm up the JIT
+                measureWAVLTree(keys, wavl);
+                measureBPlusTree(keys, bplus);
+            }
+            System.out.println("n = " + n + " (ns/op)   WAVLTree   BPlusTree");
+            String[] ops = { "insert", "search", "select", "delete" };
+            for (int j = 0; j < ops.length; j++) {
+                System.out.println(String.format("  %-8s %17d %11d", ops[j], wavl[j] / n, bplus[j] / n));
+            }
+        }
+    }
+
+    private static void measureWAVLTree(int[] keys, long[] times) {
+        WAVLTree t = new WAVLTree();
+        long sink = 0;
+        long start = System.nanoTime();
+        for (int k : keys) {
+            t.insert(k, "");
+        }
+        times[0] = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int k : keys) {
+            sink += t.search(k) != null ? 1 : 0;
+        }
+        times[1] = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int k : keys) {
+            sink += t.select(k + 1) != null ? 1 : 0;
+        }
+        times[2] = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int k : keys) {
+            t.delete(k);
+        }
+        times[3] = System.nanoTime() - start;
+        if (sink == 42) {
+            System.out.println(); // keeps the loops from being eliminated
+        }
+    }
+
+    private static void measureBPlusTree(int[] keys, long[] times) {
+        BPlusTree t = new BPlusTree();
+        long sink = 0;
+        long start = System.nanoTime();
+        for (int k : keys) {
+            t.insert(k, "");
+        }
+        times[0] = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int k : keys) {
+            sink += t.search(k) != null ? 1 : 0;
+        }
+        times[1] = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int k : keys) {
+            sink += t.select(k + 1) != null ? 1 : 0;
+        }
+        times[2] = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int k : keys) {
+            t.delete(k);
+        }
+        times[3] = System.nanoTime() - start;
+        if (sink == 42) {
+            System.out.println(); // keeps the loops from being eliminated
+        }
+    }
+
+}
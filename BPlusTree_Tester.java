@@ -0,0 +1,68 @@
+package wavltree;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TreeMap;
+
+import memory.MemoryFootprint;
+
+public class BPlusTree_Tester {
+
+    public static int NUM_OF_OPERATIONS = 100000;
+    public static int MAX_KEY = 20000;
+
+    public static void main(String[] args) {
+        BPlusTree t = new BPlusTree();
+        TreeMap<Integer, String> expected = new TreeMap<>();
+        Random rand = new Random();
+        for (int i = 0; i < NUM_OF_OPERATIONS; i++) {
+            int k = rand.nextInt(MAX_KEY);
+            // grow for the first half, then shrink
+            if (rand.nextInt(NUM_OF_OPERATIONS) < NUM_OF_OPERATIONS - i) {
+                boolean inserted = t.insert(k, Integer.toString(i)) != -1;
+                if (inserted != !expected.containsKey(k)) {
+                    System.out.println("insert(" + k + "): \t" + inserted);
+                }
+                expected.putIfAbsent(k, Integer.toString(i));
+            } else {
+                boolean deleted = t.delete(k) != -1;
+                if (deleted != (expected.remove(k) != null)) {
+                    System.out.println("delete(" + k + "): \t" + deleted);
+                }
+            }
+            if (i % 1000 == 0) {
+                check(t, expected);
+            }
+        }
+        check(t, expected);
+    }
+
+    private static void check(BPlusTree t, TreeMap<Integer, String> expected) {
+        int[] keys = new int[expected.size()];
+        String[] infos = new String[expected.size()];
+        int i = 0;
+        for (Integer k : expected.keySet()) {
+            keys[i] = k;
+            infos[i++] = expected.get(k);
+        }
+        boolean ok = t.isValid() && t.size() == expected.size() && Arrays.equals(t.keysToArray(), keys)
+                && Arrays.equals(t.infoToArray(), infos);
+        for (i = 0; i < keys.length; i++) {
+            ok &= infos[i].equals(t.select(i + 1)) && infos[i].equals(t.search(keys[i]));
+        }
+        ok &= t.select(0) == null && t.select(keys.length + 1) == null;
+        long payload = 0;
+        for (String info : infos) {
+            payload += MemoryFootprint.stringBytes(info);
+        }
+        MemoryFootprint footprint = t.memoryFootprint();
+        ok &= footprint.getPayloadBytes() == payload && footprint.getSlackBytes() >= 0
+                && footprint.getEntries() == keys.length;
+        ok &= keys.length == 0 ? t.min() == null && t.max() == null
+                : infos[0].equals(t.min()) && infos[keys.length - 1].equals(t.max());
+        if (!ok) {
+            System.out.println("check: \t\t\tfalse (size " + expected.size() + ")");
+        }
+    }
+
+}
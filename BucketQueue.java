@@ -0,0 +1,168 @@
+package dheap;
+
+/**
+ * A bucket queue (Dial's algorithm): a priority queue for monotone keys which
+ * are within a fixed span above the last minimum found by Get_Min() or
+ * Delete_Min(). There is a bucket for every key of the span, used cyclically,
+ * and the minimum is found by advancing a cursor to the next nonempty bucket,
+ * so no keys are compared.
+ * 
+ * The preconditions on the keys are checked by assertions (run with -ea).
+ */
+public class BucketQueue {
+
+    private final DHeap_Bucket[] buckets;
+    private int last; // the last minimum found, or the first key
+    private int size;
+
+    /**
+     * @param span
+     *            the maximum difference between a key and the last
+     *            minimum
+     * @param first
+     *            a lower bound for the keys until the first extraction
+     * @precondition span >= 0
+     */
+    public BucketQueue(int span, int first) {
+        buckets = new DHeap_Bucket[span + 1];
+        for (int b = 0; b <= span; b++) {
+            buckets[b] = new DHeap_Bucket();
+        }
+        last = first;
+    }
+
+    /**
+     * A queue for the keys from 0 on.
+     * 
+     * @param span
+     *            the maximum difference between a key and the last
+     *            minimum
+     * @precondition span >= 0
+     */
+    public BucketQueue(int span) {
+        this(span, 0);
+    }
+
+    /**
+     * @return the number of elements in the queue.
+     * @complexity O(1)
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @param key
+     *            a key
+     * @return the bucket of the key
+     * @complexity O(1)
+     */
+    private DHeap_Bucket bucket(int key) {
+        return buckets[Math.floorMod(key, buckets.length)];
+    }
+
+    /**
+     * @param key
+     *            a key
+     * @return true if the key is within the span above the last minimum
+     * @complexity O(1)
+     */
+    private boolean inSpan(int key) {
+        return key >= last && (long) key - last < buckets.length;
+    }
+
+    /**
+     * Insert the given item to the queue.
+     * 
+     * @param item
+     *            the item to insert
+     * @return the number of comparisons along the function run
+     * @precondition item != null
+     * @precondition last <= item.getKey() <= last + span, where last is the
+     *               last minimum
+     * @complexity O(1) amortized
+     */
+    public int Insert(DHeap_Item item) {
+        assert inSpan(item.getKey()) : "key " + item.getKey() + " is out of the span of " + last;
+        bucket(item.getKey()).add(item);
+        size++;
+        return 0;
+    }
+
+    /**
+     * Advance the cursor to the bucket of the minimum.
+     * 
+     * @return the bucket of the minimum
+     * @precondition size > 0
+     * @complexity O(span), and O(1) amortized over a sequence of extractions
+     *             whose keys grow as fast as the cursor
+     */
+    private DHeap_Bucket advance() {
+        DHeap_Bucket bucket = bucket(last);
+        while (bucket.size() == 0) {
+            last++;
+            bucket = bucket(last);
+        }
+        return bucket;
+    }
+
+    /**
+     * Delete the minimum item in the queue.
+     * 
+     * @return the number of comparisons along the function run
+     * @precondition size > 0
+     * @complexity O(span), O(1) amortized (see advance())
+     */
+    public int Delete_Min() {
+        DHeap_Bucket bucket = advance();
+        bucket.remove(bucket.get(bucket.size() - 1));
+        size--;
+        return 0;
+    }
+
+    /**
+     * @return the minimum item in the queue (the one Delete_Min() deletes)
+     * @precondition size > 0
+     * @complexity O(span), O(1) amortized (see advance())
+     */
+    public DHeap_Item Get_Min() {
+        DHeap_Bucket bucket = advance();
+        return bucket.get(bucket.size() - 1);
+    }
+
+    /**
+     * Decrease the key of the given item by delta.
+     * 
+     * @param item
+     *            the item to decrease
+     * @param delta
+     *            the factor to decrease in
+     * @return the number of comparisons along the function run
+     * @precondition the item is in the queue
+     * @precondition item.getKey() - delta >= the last minimum
+     * @complexity O(1)
+     */
+    public int Decrease_Key(DHeap_Item item, int delta) {
+        assert inSpan(item.getKey() - delta) : "key " + (item.getKey() - delta) + " is out of the span of " + last;
+        bucket(item.getKey()).remove(item);
+        item.setKey(item.getKey() - delta);
+        bucket(item.getKey()).add(item);
+        return 0;
+    }
+
+    /**
+     * Delete the given item from the queue.
+     * 
+     * @param item
+     *            the item to delete
+     * @return the number of comparisons along the function run
+     * @precondition the item is in the queue
+     * @complexity O(1)
+     */
+    public int Delete(DHeap_Item item) {
+        bucket(item.getKey()).remove(item);
+        size--;
+        return 0;
+    }
+
+}
@@ -1,5 +1,9 @@
 package dheap;
 
+import java.util.Arrays;
+
+import memory.MemoryFootprint;
+
 /**
  * An implementation of a D-Heap with distinct items
  * 
@@ -12,20 +16,187 @@ public class DHeap {
     private int max_size;
     private int d;
     private DHeap_Item[] array;
+    private long[] keys; // the order of array[i] (see order()), so sifts read no items
+    private boolean stable;
+    private int seq; // the sequence number of the next item, in the stable mode
+    private boolean lazyDeletion;
+    private int tombstones; // deleted items which are still in the array
+    private long nameBytes; // the estimated bytes of the names of the items in the array
+    private long tombstoneBytes; // the part of nameBytes which belongs to tombstones
+    private boolean adaptive;
+    private int epochOps; // the operations since d was last chosen
+    private long upOps; // sifts up in the epoch, and their comparisons
+    private long upComparisons;
+    private long downOps; // sifts down in the epoch, and their comparisons
+    private long downComparisons;
+    private int rebuilds; // by the adaptive mode
+    private int candidate; // the factor which was the best in the last epochs
+    private double savings; // the comparisons candidate would have saved over them
+
+    // the heap is rebuilt once this fraction of the array are tombstones
+    private static final double MAX_TOMBSTONE_RATIO = 0.5;
+
+    // the adaptive mode chooses d among 2..MAX_ADAPTIVE_D, after an epoch of
+    // at least MIN_EPOCH operations
+    public static final int MAX_ADAPTIVE_D = 32;
+    private static final int MIN_EPOCH = 1024;
+
+    // a name reference, a key, a position and a deleted flag
+    private static final int ITEM_BYTES = MemoryFootprint.objectBytes(MemoryFootprint.REFERENCE + 4 + 4 + 1);
+    // an item reference in the array and an order in keys
+    private static final int SLOT_BYTES = MemoryFootprint.REFERENCE + 8;
+
+    public DHeap(int m_d, int m_size) {
+        this(m_d, m_size, false);
+    }
 
-    DHeap(int m_d, int m_size) {
+    /**
+     * @param m_d
+     *            the heap factor
+     * @param m_size
+     *            the maximum number of items
+     * @param m_stable
+     *            true if items with equal keys should leave the heap in the
+     *            order they entered it (FIFO), false if in any order
+     */
+    public DHeap(int m_d, int m_size, boolean m_stable) {
         max_size = m_size;
         d = m_d;
+        stable = m_stable;
         array = new DHeap_Item[max_size];
+        keys = new long[max_size];
         size = 0;
     }
 
     /**
-     * @return the number of elements in the heap.
+     * @return the maximum number of elements in the heap.
+     * @complexity O(1)
+     */
+    public int getCapacity() {
+        return max_size;
+    }
+
+    /**
+     * Report the memory the heap uses: the array slots and the items in them
+     * (structural), the names of the items (payload), and the unused slots
+     * and the tombstones (slack). Items of subclasses of DHeap_Item are
+     * counted as plain items.
+     * 
+     * @return the report
+     * @complexity O(1), from counters kept by every update
+     */
+    public MemoryFootprint memoryFootprint() {
+        int live = size - tombstones;
+        long structural = MemoryFootprint.objectBytes(8 * 4 + 2 * MemoryFootprint.REFERENCE + 3 + 7 * 8)
+                + MemoryFootprint.arrayBytes(0, 0) * 2 + (long) live * (SLOT_BYTES + ITEM_BYTES);
+        long slack = (long) (max_size - size) * SLOT_BYTES + (long) tombstones * (SLOT_BYTES + ITEM_BYTES)
+                + tombstoneBytes;
+        return new MemoryFootprint("DHeap", live, structural, nameBytes - tombstoneBytes, slack, 0);
+    }
+
+    /**
+     * @return the heap factor, which the adaptive mode may change
+     * @complexity O(1)
+     */
+    public int getD() {
+        return d;
+    }
+
+    /**
+     * Set whether the heap chooses its own factor. In the adaptive mode the
+     * heap counts its sifts up (Insert, Decrease_Key) and down (Delete_Min,
+     * Increase_Key) and their comparisons. After every epoch of
+     * max(n / 4, 1024) operations it predicts the comparisons the same mix
+     * would have cost with every factor up to MAX_ADAPTIVE_D: a sift climbs
+     * or descends levels in proportion to the depth of the heap,
+     * logd(n * (d - 1) + 1), and a level down compares d' items rather than
+     * d. Once the factor which is the best in consecutive epochs would have
+     * saved more than it costs to switch, the array is heapified anew with
+     * it, bottom-up in O(n) as by arrayToHeap().
+     *
+     * @param enabled
+     *            true to let the heap choose its factor, false to keep the
+     *            current one
+     * @complexity O(1)
+     */
+    public void setAdaptive(boolean enabled) {
+        adaptive = enabled;
+        candidate = 0; // the savings start anew
+        resetEpoch();
+    }
+
+    /**
+     * @return true if the heap chooses its own factor
+     * @complexity O(1)
+     */
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+
+    /**
+     * @return the number of times the adaptive mode changed the factor
+     * @complexity O(1)
+     */
+    public int getAdaptiveRebuilds() {
+        return rebuilds;
+    }
+
+    /**
+     * @return true if items with equal keys leave the heap in FIFO order
+     * @complexity O(1)
+     */
+    public boolean isStable() {
+        return stable;
+    }
+
+    /**
+     * The order of an item in the heap, so that a tie is broken by one long
+     * comparison: the key itself, or in the stable mode the key in the high
+     * half and the sequence number of the item in the low half.
+     * 
+     * @param key
+     *            the key of the item
+     * @param seq1
+     *            the sequence number of the item (ignored if not stable)
+     * @return the order
+     * @complexity O(1)
+     */
+    private long order(int key, int seq1) {
+        // the sequence numbers are compared unsigned, and are renumbered
+        // before they wrap (see renumber()), so FIFO always holds
+        return stable ? (long) key << 32 | (seq1 & 0xFFFFFFFFL) : key;
+    }
+
+    /**
+     * @return the number of elements in the heap (not counting tombstones).
      * @complexity O(1)
      */
     public int getSize() {
-        return size;
+        return size - tombstones;
+    }
+
+    /**
+     * Set whether Delete() only marks the item as deleted (a tombstone) rather
+     * than removing it. Tombstones are removed when they reach the top, by
+     * Get_Min() and Delete_Min(), or all at once when they make up too much of
+     * the heap. Turning the mode off removes the remaining tombstones.
+     * 
+     * @param enabled
+     *            true for lazy deletion, false for the immediate one
+     * @return the number of comparisons along the function run
+     * @complexity O(n) where n == size if tombstones are removed, O(1) otherwise
+     */
+    public int setLazyDeletion(boolean enabled) {
+        lazyDeletion = enabled;
+        return enabled || tombstones == 0 ? 0 : rebuild();
+    }
+
+    /**
+     * @return true if Delete() leaves tombstones, false otherwise
+     * @complexity O(1)
+     */
+    public boolean isLazyDeletion() {
+        return lazyDeletion;
     }
 
     /**
@@ -43,23 +214,128 @@ public class DHeap {
     public int arrayToHeap(DHeap_Item[] array1) {
         int comparisonsCount = 0;
         System.arraycopy(array1, 0, array, 0, array1.length);
+        nameBytes = 0;
+        seq = 0;
         for (int i = 0; i < array1.length; i++) {
             array[i].setPos(i);
+            keys[i] = order(array[i].getKey(), seq++);
+            nameBytes += MemoryFootprint.stringBytes(array[i].getName());
         }
         size = array1.length; // don't have to as it's preconditioned
+        tombstones = 0;
+        tombstoneBytes = 0;
         for (int i = size / d; i >= 0; i--) {
             comparisonsCount += heapifyDown(i);
         }
         return comparisonsCount;
     }
 
+    /**
+     * Give the items in the array the sequence numbers 0..size-1, in the order
+     * of their current ones, so the next sequence number is greater than all
+     * of them again. The order of any two items stays the same, and so does
+     * the heap.
+     * 
+     * @complexity O(n * log(n)) where n == size, once every 2^32 - 1
+     *             insertions
+     */
+    private void renumber() {
+        long[] bySeq = new long[size]; // the sequence number above the index
+        for (int i = 0; i < size; i++) {
+            bySeq[i] = (keys[i] & 0xFFFFFFFFL) << 31 | i;
+        }
+        Arrays.sort(bySeq);
+        for (int j = 0; j < size; j++) {
+            int i = (int) (bySeq[j] & Integer.MAX_VALUE);
+            keys[i] = order((int) (keys[i] >> 32), j); // the key of the slot, a tombstone may be rekeyed
+        }
+        seq = size;
+    }
+
+    /**
+     * Set the next sequence number, so the tester can reach the wrap.
+     * 
+     * @param seq1
+     *            the sequence number
+     * @precondition seq1 is unsigned greater than the sequence numbers of
+     *               the items in the heap
+     */
+    void setNextSequence(int seq1) {
+        seq = seq1;
+    }
+
+    /**
+     * Remove every tombstone from the array, and build the heap anew from the
+     * remaining items, bottom-up.
+     * 
+     * @return the number of comparisons along the function run
+     * @complexity O(n) where n == size
+     */
+    private int rebuild() {
+        int live = 0;
+        for (int i = 0; i < size; i++) {
+            DHeap_Item item = array[i];
+            if (item.isDeleted()) {
+                release(item);
+                nameBytes -= MemoryFootprint.stringBytes(item.getName());
+            } else {
+                array[live] = item;
+                keys[live] = keys[i];
+                item.setPos(live++);
+            }
+        }
+        for (int i = live; i < size; i++) {
+            array[i] = null;
+        }
+        size = live;
+        tombstones = 0;
+        tombstoneBytes = 0;
+        int comparisonsCount = 0;
+        for (int i = size / d; i >= 0; i--) {
+            comparisonsCount += heapifyDown(i);
+        }
+        return comparisonsCount;
+    }
+
+    /**
+     * Remove the tombstones from the top of the heap, until the minimum item
+     * is a live one.
+     * 
+     * @return the number of comparisons along the function run
+     * @complexity O(t * d * logd(n)) where t is the number of tombstones
+     *             removed and n == size
+     */
+    private int purgeTop() {
+        int comparisonsCount = 0;
+        while (size > 0 && array[0].isDeleted()) {
+            DHeap_Item item = array[0];
+            comparisonsCount += removeMin();
+            release(item);
+            tombstones--;
+            tombstoneBytes -= MemoryFootprint.stringBytes(item.getName());
+        }
+        return comparisonsCount;
+    }
+
+    /**
+     * Clear the mark of a tombstone which left the array.
+     * 
+     * @param item
+     *            the tombstone
+     * @complexity O(1)
+     */
+    private static void release(DHeap_Item item) {
+        item.setDeleted(false);
+        item.setPos(-1);
+    }
+
     /**
      * @return true if the array satisfies the d-heap property, false otherwise.
      * @complexity O(n) where n == size
      */
     public boolean isHeap() {
         for (int i = size - 1; i > 0; i--) {
-            if (array[i].getKey() < array[parent(i, d)].getKey()) {
+            if (keys[i] < keys[parent(i, d)]) {
                 return false;
             }
         }
@@ -96,7 +372,9 @@ public class DHeap {
     }
 
     /**
-     * Insert the given item to the heap.
+     * Insert the given item to the heap. An item which was deleted in the lazy
+     * deletion mode and is still a tombstone in the array is revived in its
+     * slot, with its current key, rather than taking a second slot.
      * 
      * @param item
      *            the item to insert
@@ -104,36 +382,92 @@ public class DHeap {
      * @precondition: item != null
      * @precondition isHeap()
      * @precondition size < max_size
-     * @complexity O(logd(n)) due to heapifyUp()
+     * @complexity O(logd(n)) due to heapifyUp(), O(d * logd(n)) if a
+     *             tombstone is revived with a greater key
      */
     public int Insert(DHeap_Item item) {
+        if (item.isDeleted()) {
+            return revive(item);
+        }
+        int comparisonsCount = 0;
+        if (size == max_size) { // the room is taken by tombstones
+            comparisonsCount += rebuild();
+        }
+        if (stable && seq == -1) { // the greatest unsigned sequence number
+            renumber();
+        }
         size++;
         array[size - 1] = item;
+        keys[size - 1] = order(item.getKey(), seq++);
         item.setPos(size - 1);
-        return heapifyUp(size - 1);
+        nameBytes += MemoryFootprint.stringBytes(item.getName());
+        return comparisonsCount + adapt(heapifyUp(size - 1), true);
+    }
+
+    /**
+     * Insert a tombstone again: clear its mark, and sift it to its current key
+     * as Update_Key() does. In the stable mode it goes after the items of its
+     * key already in the heap, as a new item would.
+     * 
+     * @param item
+     *            the tombstone
+     * @return the number of comparisons along the function run
+     * @precondition item.isDeleted()
+     * @complexity O(logd(n)) if the key decreases, O(d * logd(n)) otherwise
+     */
+    private int revive(DHeap_Item item) {
+        if (stable && seq == -1) {
+            renumber();
+        }
+        int i = item.getPos();
+        item.setDeleted(false);
+        tombstones--;
+        tombstoneBytes -= MemoryFootprint.stringBytes(item.getName());
+        long old = keys[i];
+        keys[i] = order(item.getKey(), seq++);
+        if (keys[i] < old) {
+            return adapt(heapifyUp(i), true);
+        }
+        return keys[i] > old ? adapt(heapifyDown(i), false) : 0;
     }
 
     /**
      * Delete the minimum item in the heap.
      * 
      * @return the number of comparisons along the function run
-     * @precondition size > 0 isHeap()
-     * @complexity O(d * logd(n)) due to heapifyDown()
+     * @precondition getSize() > 0 isHeap()
+     * @complexity O(d * logd(n)) due to heapifyDown(), amortized if there are
+     *             tombstones
      */
     public int Delete_Min() {
+        int comparisonsCount = purgeTop();
+        return comparisonsCount + adapt(removeMin(), false);
+    }
+
+    /**
+     * Remove the item at the top of the heap, whether it is live or not.
+     * 
+     * @return the number of comparisons along the function run
+     * @precondition size > 0
+     * @complexity O(d * logd(n)) due to heapifyDown()
+     */
+    private int removeMin() {
+        nameBytes -= MemoryFootprint.stringBytes(array[0].getName());
         array[0] = array[size - 1];
+        keys[0] = keys[size - 1];
         array[0].setPos(0);
+        array[size - 1] = null;
         size--;
         return heapifyDown(0);
     }
 
     /**
      * @return the minimum item in the heap
-     * @precondition size > 0 isHeap() size > 0
-     * @precondition isHeap()
-     * @complexity O(1)
+     * @precondition getSize() > 0 isHeap()
+     * @complexity O(1), amortized if there are tombstones
      */
     public DHeap_Item Get_Min() {
+        purgeTop();
         return array[0];
     }
 
@@ -147,12 +481,72 @@ public class DHeap {
      * @return the number of comparisons along the function run
      * @precondition: item.pos < size
      * @precondition item != null
+     * @precondition !item.isDeleted()
      * @precondition isHeap()
      * @complexity O(logd(n)) due to heapifyUp()
      */
     public int Decrease_Key(DHeap_Item item, int delta) {
-        item.setKey(delta == Integer.MAX_VALUE ? Integer.MIN_VALUE : item.getKey() - delta);
-        return heapifyUp(item.getPos());
+        int i = item.getPos();
+        if (delta == Integer.MAX_VALUE) { // below any other item, even of key MIN_VALUE
+            item.setKey(Integer.MIN_VALUE);
+            keys[i] = Long.MIN_VALUE;
+        } else {
+            item.setKey(item.getKey() - delta);
+            keys[i] = order(item.getKey(), (int) keys[i]); // the same sequence number
+        }
+        return adapt(heapifyUp(i), true);
+    }
+
+    /**
+     * Increase the key of the given item by delta, sifting it down in place
+     * rather than deleting and inserting it again. In the stable mode the item
+     * keeps its place among the items of its new key which entered the heap
+     * after it.
+     *
+     * @param item
+     *            the item to increase
+     * @param delta
+     *            the factor to increase in
+     * @return the number of comparisons along the function run
+     * @precondition: item.pos < size
+     * @precondition item != null
+     * @precondition !item.isDeleted()
+     * @precondition delta >= 0
+     * @precondition item.getKey() + delta <= Integer.MAX_VALUE
+     * @precondition isHeap()
+     * @complexity O(d * logd(n)) due to heapifyDown()
+     */
+    public int Increase_Key(DHeap_Item item, int delta) {
+        int i = item.getPos();
+        item.setKey(item.getKey() + delta);
+        keys[i] = order(item.getKey(), (int) keys[i]); // the same sequence number
+        return adapt(heapifyDown(i), false);
+    }
+
+    /**
+     * Set the key of the given item, sifting it up or down as needed.
+     *
+     * @param item
+     *            the item to update
+     * @param key
+     *            the new key
+     * @return the number of comparisons along the function run
+     * @precondition: item.pos < size
+     * @precondition item != null
+     * @precondition !item.isDeleted()
+     * @precondition isHeap()
+     * @complexity O(logd(n)) if the key decreases, O(d * logd(n)) if it
+     *             increases
+     */
+    public int Update_Key(DHeap_Item item, int key) {
+        int i = item.getPos();
+        int old = item.getKey();
+        item.setKey(key);
+        keys[i] = order(key, (int) keys[i]);
+        if (key < old) {
+            return adapt(heapifyUp(i), true);
+        }
+        return key > old ? adapt(heapifyDown(i), false) : 0;
     }
 
     /**
@@ -164,10 +558,113 @@ public class DHeap {
      * @precondition: item.pos < size
      * @precondition item != null
      * @precondition isHeap()
-     * @complexity O(d * logd(n)) due to Delete_Min()
+     * @complexity O(d * logd(n)) due to Delete_Min(), O(1) amortized in the
+     *             lazy deletion mode
      */
     public int Delete(DHeap_Item item) {
-        return Decrease_Key(item, Integer.MAX_VALUE) + Delete_Min();
+        if (!lazyDeletion) {
+            int comparisonsCount = Decrease_Key(item, Integer.MAX_VALUE) + Delete_Min();
+            item.setPos(-1);
+            return comparisonsCount;
+        }
+        if (item.isDeleted()) {
+            return 0;
+        }
+        item.setDeleted(true);
+        tombstones++;
+        tombstoneBytes += MemoryFootprint.stringBytes(item.getName());
+        // a rebuild is O(n), paid for by the n/2 deletions before it
+        return tombstones > MAX_TOMBSTONE_RATIO * size ? rebuild() : 0;
+    }
+
+    /**
+     * Count a sift in the adaptive mode, and at the end of an epoch switch to
+     * the factor which would have cost the epoch the least comparisons, once
+     * its savings over the epochs it was the best in pay for the switch.
+     *
+     * @param comparisonsCount
+     *            the comparisons of the sift
+     * @param up
+     *            true if the sift was up, false if down
+     * @return comparisonsCount, plus the comparisons of the rebuild if there
+     *         was one
+     * @complexity O(1), amortized if the heap is rebuilt: the epoch is at
+     *             least n / 4 operations long
+     */
+    private int adapt(int comparisonsCount, boolean up) {
+        if (!adaptive) {
+            return comparisonsCount;
+        }
+        if (up) {
+            upOps++;
+            upComparisons += comparisonsCount;
+        } else {
+            downOps++;
+            downComparisons += comparisonsCount;
+        }
+        if (++epochOps < Math.max(MIN_EPOCH, size / 4)) {
+            return comparisonsCount;
+        }
+        double current = predictComparisons(d);
+        int best = d;
+        double bestComparisons = current;
+        for (int d1 = 2; d1 <= MAX_ADAPTIVE_D; d1++) {
+            double c = predictComparisons(d1);
+            if (c < bestComparisons) {
+                best = d1;
+                bestComparisons = c;
+            }
+        }
+        resetEpoch();
+        if (best != candidate) {
+            candidate = best;
+            savings = 0;
+        }
+        savings += current - bestComparisons;
+        // a bottom-up build costs about 2n comparisons
+        if (best == d || savings <= 2.0 * size) {
+            return comparisonsCount;
+        }
+        d = best;
+        savings = 0;
+        rebuilds++;
+        return comparisonsCount + rebuild();
+    }
+
+    /**
+     * Predict the comparisons the sifts of the epoch would have cost with
+     * another factor. Every sift compares once more than its levels cost: a
+     * level costs 1 comparison up, and d down (d - 1 among the children and 1
+     * against the parent). The levels of the sifts scale with the depth of
+     * the heap, logd(n * (d - 1) + 1).
+     *
+     * @param d1
+     *            the other factor
+     * @return the predicted comparisons
+     * @complexity O(1)
+     */
+    private double predictComparisons(int d1) {
+        double levels = depth(d1) / depth(d); // the depth of a d1-heap, relative to this one
+        return upOps + (upComparisons - upOps) * levels + downOps
+                + (double) (downComparisons - downOps) / d * levels * d1;
+    }
+
+    /**
+     * @param d1
+     *            a heap factor
+     * @return the depth of a full d1-heap of size() items, not rounded
+     * @complexity O(1)
+     */
+    private double depth(int d1) {
+        return Math.log((double) Math.max(size, 2) * (d1 - 1) + 1) / Math.log(d1);
+    }
+
+    private void resetEpoch() {
+        epochOps = 0;
+        upOps = 0;
+        upComparisons = 0;
+        downOps = 0;
+        downComparisons = 0;
     }
 
     /**
@@ -206,19 +703,47 @@ public class DHeap {
      */
     private int heapifyDown(int i) {
         int comparisonsCount = 0;
-        // get the index of the direct child of i with minimum key
-        int min = child(i, 1, d) < size ? child(i, 1, d) : -1; // leftmost child
-        for (int k = 2; k < 1 + d && child(i, k, d) < size; k++, comparisonsCount++) {
-            if (array[child(i, k, d)].getKey() < array[min].getKey()) {
-                min = child(i, k, d);
+        while (true) {
+            int first = child(i, 1, d); // the children are first..last-1
+            if (first >= size) {
+                return comparisonsCount + 1;
+            }
+            int last = Math.min(first + d, size);
+            int min = minChild(first, last);
+            comparisonsCount += last - first; // among the children, then with i
+            if (keys[i] <= keys[min]) {
+                return comparisonsCount;
             }
-        }
-        if (min != -1 && array[i].getKey() > array[min].getKey()) {
             swapItems(i, min);
-            return comparisonsCount + 1 + heapifyDown(min);
-        } else {
-            return comparisonsCount + 1;
+            i = min;
+        }
+    }
+
+    /**
+     * Find the child with the minimum key. The children of a vertex are
+     * consecutive in the array, so this is a scan of a contiguous range of
+     * the primitive keys array, rather than d dependent loads through the
+     * items.
+     * 
+     * @param first
+     *            the index of the first child
+     * @param last
+     *            the index following the last child
+     * @return the index of the (first) child with the minimum key
+     * @precondition first < last
+     * @complexity O(d)
+     */
+    private int minChild(int first, int last) {
+        int min = first;
+        long minKey = keys[first];
+        for (int j = first + 1; j < last; j++) {
+            long key = keys[j];
+            if (key < minKey) {
+                minKey = key;
+                min = j;
+            }
         }
+        return min;
     }
 
     /**
@@ -234,7 +759,7 @@ public class DHeap {
             return 0;
         }
         int comparisonsCount = 1;
-        while (i > 0 && array[i].getKey() < array[parent(i, d)].getKey()) {
+        while (i > 0 && keys[i] < keys[parent(i, d)]) {
             swapItems(i, parent(i, d));
             i = parent(i, d);
             comparisonsCount++;
@@ -257,6 +782,9 @@ public class DHeap {
         array[i].setPos(i);
         array[j] = temp;
         array[j].setPos(j);
+        long key = keys[i];
+        keys[i] = keys[j];
+        keys[j] = key;
     }
 
 }
@@ -0,0 +1,77 @@
+package dheap;
+
+/**
+ * An unordered bag of items, for the bucket based heaps. The pos of an item is
+ * its index in the bag, so an item can be removed in O(1).
+ */
+class DHeap_Bucket {
+
+    private DHeap_Item[] items = new DHeap_Item[4];
+    private int size;
+
+    /**
+     * @return the number of items in the bucket
+     * @complexity O(1)
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @param i
+     *            the index
+     * @return the item at the given index
+     * @precondition 0 <= i < size
+     * @complexity O(1)
+     */
+    DHeap_Item get(int i) {
+        return items[i];
+    }
+
+    /**
+     * Add the given item to the bucket.
+     * 
+     * @param item
+     *            the item to add
+     * @complexity O(1) amortized
+     */
+    void add(DHeap_Item item) {
+        if (size == items.length) {
+            DHeap_Item[] temp = new DHeap_Item[2 * size];
+            System.arraycopy(items, 0, temp, 0, size);
+            items = temp;
+        }
+        item.setPos(size);
+        items[size++] = item;
+    }
+
+    /**
+     * Remove the given item from the bucket, moving the last item to its place.
+     * 
+     * @param item
+     *            the item to remove
+     * @precondition the item is in the bucket
+     * @complexity O(1)
+     */
+    void remove(DHeap_Item item) {
+        int i = item.getPos();
+        size--;
+        items[i] = items[size];
+        items[i].setPos(i);
+        items[size] = null;
+        item.setPos(-1);
+    }
+
+    /**
+     * Remove every item from the bucket, without touching their pos.
+     * 
+     * @complexity O(n) where n == size
+     */
+    void clear() {
+        for (int i = 0; i < size; i++) {
+            items[i] = null;
+        }
+        size = 0;
+    }
+
+}
@@ -11,6 +11,7 @@ public class DHeap_Item {
     private String name;
     private int key;
     private int pos; // Position in the heap (if inserted into a heap.)
+    private boolean deleted; // a tombstone, if the heap deletes lazily
 
     public DHeap_Item(String name1, int key1) {
         name = name1;
@@ -37,4 +38,12 @@ public class DHeap_Item {
     public int getPos() {
         return pos;
     }
+
+    public void setDeleted(boolean deleted1) {
+        deleted = deleted1;
+    }
+
+    public boolean isDeleted() {
+        return deleted;
+    }
 }
\ No newline at end of file
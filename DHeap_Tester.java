@@ -1,6 +1,16 @@
 package dheap;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.Random;
+import java.util.TreeMap;
+
+import memory.MemoryFootprint;
 
 public class DHeap_Tester {
 
@@ -8,6 +18,7 @@ public class DHeap_Tester {
 	private static int[] M = { 1000, 10000, 100000 };
 	private static int[] X = { 1, 100, 1000 };
 	private static int[] D = { 2, 3, 4 };
+	private static int[] WIDE_D = { 2, 4, 8, 16 };
 
 	public static void main(String[] args) {
 		doMeasurements();
@@ -17,6 +28,15 @@ public class DHeap_Tester {
 	private static void doMeasurements() {
 //		doTest1();
 		doTest2();
+		doTest3();
+		doTest4();
+		doTest5();
+		doTest6();
+		doTest7();
+		doTest8();
+		doTest9();
+		doTest10();
+		doTest11();
 	}
 
 	private static void doTest1() {
@@ -72,11 +92,583 @@ public class DHeap_Tester {
 		}
 	}
 
+	private static void doTest3() {
+		int n = 1000000;
+		for (int j = 0; j < WIDE_D.length; j++) {
+			long best = Long.MAX_VALUE;
+			for (int l = 0; l < 5; l++) {
+				DHeap_Item[] items = intArrToDHeapItemArr(initRandArr(n, Integer.MAX_VALUE));
+				DHeap heap = new DHeap(WIDE_D[j], n);
+				heap.arrayToHeap(items);
+				long start = System.nanoTime();
+				for (int k = 0; k < n; k++) {
+					heap.Delete_Min();
+				}
+				best = Math.min(best, System.nanoTime() - start);
+			}
+			System.out.println("Delete_Min of n = " + n + " and D = " + WIDE_D[j] + " : " + best / n + " ns/op");
+		}
+	}
+
+	private static void doTest4() {
+		int n = 100000;
+		for (int j = 0; j < D.length; j++) {
+			for (int lazy = 0; lazy < 2; lazy++) {
+				DHeap_Item[] items = intArrToDHeapItemArr(initRandArr(n, Integer.MAX_VALUE));
+				for (int k = 0; k < n; k += 2) { // names, for the payload accounting
+					items[k] = new DHeap_Item(Integer.toString(k), items[k].getKey());
+				}
+				DHeap heap = new DHeap(D[j], n);
+				heap.setLazyDeletion(lazy == 1);
+				long comparisonsCount = 0;
+				Random rand = new Random();
+				for (int k = 0; k < n; k++) { // cancel most of the items before they reach the top
+					comparisonsCount += heap.Insert(items[k]);
+					if (k > 0 && rand.nextInt(10) != 0) {
+						int victim = rand.nextInt(k);
+						if (items[victim].getPos() != -1 && !items[victim].isDeleted()) {
+							comparisonsCount += heap.Delete(items[victim]);
+						}
+					}
+				}
+				long payload = 0;
+				for (int k = 0; k < n; k++) {
+					if (items[k].getPos() != -1 && !items[k].isDeleted()) {
+						payload += MemoryFootprint.stringBytes(items[k].getName());
+					}
+				}
+				if (heap.memoryFootprint().getPayloadBytes() != payload || heap.memoryFootprint().getEntries() != heap.getSize()) {
+					System.out.println("memoryFootprint does not match the items in the heap");
+				}
+				int last = Integer.MIN_VALUE;
+				while (heap.getSize() > 0) {
+					if (heap.Get_Min().isDeleted() || heap.Get_Min().getKey() < last) {
+						System.out.println("Delete_Min returned a deleted or smaller key");
+					}
+					last = heap.Get_Min().getKey();
+					comparisonsCount += heap.Delete_Min();
+				}
+				comparisonsCount += heap.setLazyDeletion(false); // the tombstones behind the last live item
+				MemoryFootprint empty = heap.memoryFootprint();
+				if (empty.getPayloadBytes() != 0 || empty.getSlackBytes() != new DHeap(D[j], n).memoryFootprint().getSlackBytes()) {
+					System.out.println("memoryFootprint of the emptied heap: " + empty);
+				}
+				System.out.println("Cancellations of n = " + n + " and D = " + D[j] + (lazy == 1 ? " (lazy)" : "") + " : " + comparisonsCount + " comparisons");
+				checkReschedule(D[j], lazy == 1, 0);
+				checkReschedule(D[j], lazy == 1, 100);
+			}
+		}
+	}
+
+	/**
+	 * Cancel an item, insert it again with another key, and cancel it again,
+	 * as an event which is rescheduled and then dropped.
+	 */
+	private static void checkReschedule(int d, boolean lazy, int key) {
+		DHeap heap = new DHeap(d, 16);
+		heap.setLazyDeletion(lazy);
+		DHeap_Item[] items = new DHeap_Item[8];
+		for (int k = 0; k < items.length; k++) {
+			items[k] = new DHeap_Item(Integer.toString(k), 10 * k + 10);
+			heap.Insert(items[k]);
+		}
+		DHeap_Item x = items[3];
+		heap.Delete(x);
+		x.setKey(key);
+		heap.Insert(x);
+		if (heap.getSize() != items.length || !heap.isHeap() || x.isDeleted() || (key == 0) != (heap.Get_Min() == x)) {
+			System.out.println("Rescheduling a cancelled item with D = " + d + (lazy ? " (lazy)" : "") + " left it out of place");
+		}
+		heap.Delete(x);
+		int count = 0;
+		while (heap.getSize() > 0) {
+			if (heap.Get_Min() == x) {
+				System.out.println("Delete_Min returned an item cancelled twice");
+			}
+			heap.Delete_Min();
+			count++;
+		}
+		heap.setLazyDeletion(false);
+		if (count != items.length - 1 || x.getPos() != -1 || x.isDeleted() || heap.memoryFootprint().getPayloadBytes() != 0) {
+			System.out.println("Cancelling a rescheduled item with D = " + d + (lazy ? " (lazy)" : "") + " was lost");
+		}
+	}
+
+	private static void doTest5() {
+		int n = 100000;
+		int span = 1000;
+		long seed = new Random().nextLong();
+		long[] expected = simulate(0, n, span, seed); // a binary heap
+		String[] names = { "DHeap", "RadixHeap", "BucketQueue" };
+		for (int kind = 0; kind < names.length; kind++) { // warm up
+			simulate(kind, n, span, seed);
+		}
+		for (int kind = 0; kind < names.length; kind++) {
+			long best = Long.MAX_VALUE;
+			for (int l = 0; l < 5; l++) {
+				long start = System.nanoTime();
+				long[] mins = simulate(kind, n, span, seed);
+				best = Math.min(best, System.nanoTime() - start);
+				if (!Arrays.equals(mins, expected)) {
+					System.out.println(names[kind] + " extracted a wrong minimum");
+				}
+			}
+			System.out.println("Monotone events of n = " + n + " with " + names[kind] + " : " + best / (2 * n) + " ns/event");
+		}
+	}
+
+	/**
+	 * Run an event simulation: every extracted event schedules a new one, at
+	 * most span later, and half of the new events are moved earlier (but not
+	 * before the current time).
+	 *
+	 * @return the extracted keys
+	 */
+	private static long[] simulate(int kind, int n, int span, long seed) {
+		Random rand = new Random(seed);
+		DHeap heap = new DHeap(2, n);
+		RadixHeap radix = new RadixHeap();
+		BucketQueue buckets = new BucketQueue(span);
+		long[] mins = new long[2 * n];
+		for (int i = 0; i < n; i++) {
+			DHeap_Item item = new DHeap_Item(null, rand.nextInt(span));
+			if (kind == 0) heap.Insert(item); else if (kind == 1) radix.Insert(item); else buckets.Insert(item);
+		}
+		for (int i = 0; i < 2 * n; i++) {
+			DHeap_Item min = kind == 0 ? heap.Get_Min() : kind == 1 ? radix.Get_Min() : buckets.Get_Min();
+			int now = min.getKey();
+			mins[i] = now;
+			if (kind == 0) heap.Delete_Min(); else if (kind == 1) radix.Delete_Min(); else buckets.Delete_Min();
+			DHeap_Item item = new DHeap_Item(null, now + rand.nextInt(span));
+			if (kind == 0) heap.Insert(item); else if (kind == 1) radix.Insert(item); else buckets.Insert(item);
+			if (rand.nextBoolean()) {
+				int delta = rand.nextInt(item.getKey() - now + 1);
+				if (kind == 0) heap.Decrease_Key(item, delta); else if (kind == 1) radix.Decrease_Key(item, delta); else buckets.Decrease_Key(item, delta);
+			}
+		}
+		return mins;
+	}
+
+	private static void doTest6() {
+		int n = 100000;
+		Random rand = new Random();
+		LongKeyDHeap heap = new LongKeyDHeap(4, n);
+		long[] keys = new long[n]; // by handle
+		int[] payloads = new int[n]; // by handle
+		int[] live = new int[n]; // handles
+		int count = 0;
+		for (int k = 0; k < 4 * n; k++) {
+			int op = rand.nextInt(4);
+			if (count < n && (op < 2 || count == 0)) {
+				long key = rand.nextLong() >> 2;
+				int payload = rand.nextInt();
+				int handle = heap.Insert(key, payload);
+				keys[handle] = key;
+				payloads[handle] = payload;
+				live[count++] = handle;
+			} else {
+				int i = rand.nextInt(count);
+				if (op == 2) {
+					long delta = rand.nextInt(Integer.MAX_VALUE);
+					heap.Decrease_Key(live[i], delta);
+					keys[live[i]] -= delta;
+				} else {
+					heap.Delete(live[i]);
+					live[i] = live[--count];
+				}
+			}
+		}
+		if (!heap.isHeap() || heap.getSize() != count) {
+			System.out.println("LongKeyDHeap is not a heap of " + count + " entries");
+		}
+		long last = Long.MIN_VALUE;
+		while (heap.getSize() > 0) {
+			int handle = heap.Get_Min_Handle();
+			if (heap.Get_Min_Key() < last || heap.Get_Min_Key() != keys[handle] || heap.Get_Min_Payload() != payloads[handle]) {
+				System.out.println("LongKeyDHeap returned a wrong minimum");
+			}
+			last = heap.Get_Min_Key();
+			heap.Delete_Min();
+		}
+	}
+
+	private static void doTest7() {
+		int n = 1000000;
+		int[] arr = initRandArr(n); // many equal keys
+		DHeap_Item[] items = new DHeap_Item[n];
+		DHeap_Item[] out = new DHeap_Item[n];
+		for (int stable = 0; stable < 2; stable++) {
+			long best = Long.MAX_VALUE;
+			for (int l = 0; l < 5; l++) {
+				for (int k = 0; k < n; k++) {
+					items[k] = new DHeap_Item(Integer.toString(k), arr[k]);
+				}
+				DHeap heap = new DHeap(4, n, stable == 1);
+				long start = System.nanoTime();
+				for (int k = 0; k < n; k++) {
+					heap.Insert(items[k]);
+				}
+				for (int k = 0; k < n; k++) {
+					out[k] = heap.Get_Min();
+					heap.Delete_Min();
+				}
+				best = Math.min(best, System.nanoTime() - start);
+			}
+			for (int k = 1; k < n && stable == 1; k++) {
+				if (out[k].getKey() == out[k - 1].getKey() && Integer.parseInt(out[k].getName()) < Integer.parseInt(out[k - 1].getName())) {
+					System.out.println("Items of key " + out[k].getKey() + " left the stable heap out of order");
+					break;
+				}
+			}
+			System.out.println("Insert and Delete_Min of n = " + n + (stable == 1 ? " (stable)" : "") + " : " + best / n + " ns/item");
+		}
+		DHeap heap = new DHeap(3, 100, true); // the sequence numbers wrap in the middle
+		heap.setNextSequence(-20);
+		for (int k = 0; k < 40; k++) {
+			heap.Insert(new DHeap_Item(Integer.toString(k), k % 2));
+		}
+		for (int k = 0; k < 40; k++) {
+			DHeap_Item min = heap.Get_Min();
+			if (Integer.parseInt(min.getName()) != (k < 20 ? 2 * k : 2 * (k - 20) + 1)) {
+				System.out.println("The stable heap lost the FIFO order when its sequence numbers wrapped");
+				break;
+			}
+			heap.Delete_Min();
+		}
+	}
+
+	private static void doTest8() {
+		int n = 10000;
+		Random rand = new Random();
+		for (int j = 0; j < D.length; j++) {
+			MinMaxHeap heap = new MinMaxHeap(D[j], n);
+			TreeMap<Integer, Integer> counts = new TreeMap<Integer, Integer>(); // brute force copy
+			DHeap_Item[] live = new DHeap_Item[n];
+			int count = 0;
+			for (int k = 0; k < 20 * n; k++) {
+				int op = k < n / 2 ? 0 : rand.nextInt(7); // fill half of the heap first
+				if (count < n && (op < 3 || count == 0)) {
+					DHeap_Item item = new DHeap_Item(null, rand.nextInt(RAND_MAX));
+					heap.Insert(item);
+					counts.merge(item.getKey(), 1, Integer::sum);
+					live[count++] = item;
+					continue;
+				}
+				DHeap_Item item;
+				if (op == 3) {
+					item = heap.Get_Min();
+					heap.Delete_Min();
+				} else if (op == 4) {
+					item = heap.Get_Max();
+					heap.Delete_Max();
+				} else {
+					item = live[rand.nextInt(count)];
+					counts.merge(item.getKey(), -1, Integer::sum);
+					if (op == 5) {
+						heap.Decrease_Key(item, rand.nextInt(RAND_MAX));
+						counts.merge(item.getKey(), 1, Integer::sum);
+						item = null;
+					} else {
+						heap.Delete(item);
+					}
+				}
+				if (item != null) {
+					if (op < 5) {
+						counts.merge(item.getKey(), -1, Integer::sum);
+					}
+					for (int l = 0; l < count; l++) {
+						if (live[l] == item) {
+							live[l] = live[--count];
+							break;
+						}
+					}
+				}
+				counts.values().remove(0);
+				if (count > 0 && (heap.Get_Min().getKey() != counts.firstKey() || heap.Get_Max().getKey() != counts.lastKey())) {
+					System.out.println("MinMaxHeap of D = " + D[j] + " lost its minimum or maximum");
+					break;
+				}
+			}
+			if (!heap.isHeap() || heap.getSize() != count) {
+				System.out.println("MinMaxHeap of D = " + D[j] + " is not a min-max heap of " + count + " items");
+			}
+		}
+	}
+
+	private static void doTest9() {
+		int k = 200;
+		int length = 10000;
+		int[][] runs = new int[k][];
+		int[] all = new int[k * length];
+		for (int s = 0; s < k; s++) {
+			runs[s] = initRandArr(length, k * length / 2); // with duplicates
+			Arrays.sort(runs[s]);
+			System.arraycopy(runs[s], 0, all, s * length, length);
+		}
+		Arrays.sort(all);
+		for (int d = 2; d <= 8; d *= 2) {
+			KWayMerge.Source[] sources = new KWayMerge.Source[k];
+			for (int s = 0; s < k; s++) {
+				sources[s] = KWayMerge.source(IntBuffer.wrap(runs[s]));
+			}
+			long start = System.nanoTime();
+			KWayMerge merge = new KWayMerge(sources, d, false);
+			int n = 0;
+			boolean sorted = true;
+			while (merge.hasNext()) {
+				sorted &= n < all.length && merge.nextInt() == all[n++];
+			}
+			long time = System.nanoTime() - start;
+			if (!sorted || n != all.length) {
+				System.out.println("KWayMerge of D = " + d + " returned a wrong sequence");
+			}
+			System.out.println("KWayMerge of k = " + k + " and D = " + d + " : " + (double) merge.getComparisons() / n + " comparisons, " + time / n + " ns per element");
+		}
+		try { // through files, deduplicated
+			KWayMerge.Source[] sources = new KWayMerge.Source[k];
+			FileChannel[] channels = new FileChannel[k];
+			for (int s = 0; s < k; s++) {
+				Path path = Files.createTempFile("run", ".bin");
+				path.toFile().deleteOnExit();
+				ByteBuffer bytes = ByteBuffer.allocate(4 * length);
+				bytes.asIntBuffer().put(runs[s]);
+				Files.write(path, bytes.array());
+				channels[s] = FileChannel.open(path);
+				sources[s] = KWayMerge.source(channels[s]);
+			}
+			KWayMerge merge = new KWayMerge(sources, 4, true, 1000);
+			for (int n = 0; n < all.length; n++) {
+				if (n > 0 && all[n] == all[n - 1]) {
+					continue;
+				}
+				if (!merge.hasNext() || merge.nextInt() != all[n]) {
+					System.out.println("KWayMerge over files returned a wrong sequence");
+					break;
+				}
+			}
+			if (merge.hasNext()) {
+				System.out.println("KWayMerge over files returned too many elements");
+			}
+			for (int s = 0; s < k; s++) {
+				channels[s].close();
+			}
+		} catch (IOException e) {
+			System.out.println("KWayMerge over files failed: " + e);
+		}
+	}
+
+	private static void doTest10() {
+		int n = 100000;
+		Random rand = new Random();
+		for (int j = 0; j < WIDE_D.length; j++) {
+			DHeap heap = new DHeap(WIDE_D[j], n, true);
+			DHeap_Item[] items = intArrToDHeapItemArr(initRandArr(n, n));
+			heap.arrayToHeap(items);
+			long inPlace = 0;
+			long reinsert = 0;
+			for (int k = 0; k < n; k++) { // raise random keys, as a cache raises the hit ones
+				DHeap_Item item = items[rand.nextInt(n)];
+				int delta = rand.nextInt(n);
+				if (k % 2 == 0) {
+					inPlace += heap.Increase_Key(item, delta);
+				} else {
+					int key = item.getKey() + delta;
+					reinsert += heap.Delete(item);
+					item.setKey(key);
+					reinsert += heap.Insert(item);
+				}
+				if (rand.nextInt(10) == 0) { // and move some anywhere
+					DHeap_Item other = items[rand.nextInt(n)];
+					heap.Update_Key(other, rand.nextInt(2 * n) - n / 2);
+				}
+			}
+			if (!heap.isHeap() || heap.getSize() != n) {
+				System.out.println("Increase_Key and Update_Key broke the heap of D = " + WIDE_D[j]);
+			}
+			int last = Integer.MIN_VALUE;
+			while (heap.getSize() > 0) { // the keys of the items and the order of the heap agree
+				DHeap_Item min = heap.Get_Min();
+				if (min.getPos() != 0 || min.getKey() < last) {
+					System.out.println("Increase_Key left a wrong position or key");
+					break;
+				}
+				last = min.getKey();
+				heap.Delete_Min();
+			}
+			System.out.println("Raising a key with D = " + WIDE_D[j] + " : " + 2 * inPlace / n + " comparisons by Increase_Key, "
+					+ 2 * reinsert / n + " by Delete and Insert");
+		}
+
+		// an LFU cache against a scan of every entry for the least (priority, arrival)
+		int capacity = 500;
+		LFUCache cache = new LFUCache(capacity, 3);
+		TreeMap<String, long[]> expected = new TreeMap<>(); // the priority and arrival of every key
+		long arrivals = 0;
+		for (int k = 0; k < 200000; k++) {
+			String key = Integer.toString((int) Math.abs(rand.nextGaussian() * 1000)); // a skewed popularity
+			int op = rand.nextInt(10);
+			if (op < 6) {
+				String value = cache.get(key);
+				long[] e = expected.get(key);
+				if ((value == null) != (e == null) || (e != null && !value.equals("v" + key))) {
+					System.out.println("LFUCache.get(" + key + ") returned " + value);
+				}
+				if (e != null) {
+					e[0] += e[2];
+				}
+			} else if (op < 9) {
+				int cost = rand.nextInt(3) + 1;
+				long[] e = expected.get(key);
+				String victim = null;
+				if (e != null) {
+					e[0] += e[2];
+				} else {
+					if (expected.size() == capacity) {
+						long[] least = null;
+						for (String other : expected.keySet()) {
+							long[] o = expected.get(other);
+							if (least == null || o[0] < least[0] || (o[0] == least[0] && o[1] < least[1])) {
+								least = o;
+								victim = other;
+							}
+						}
+						expected.remove(victim);
+					}
+					expected.put(key, new long[] { cost, arrivals++, cost });
+				}
+				String evicted = cache.put(key, "v" + key, cost);
+				if (evicted == null ? victim != null : !evicted.equals(victim)) {
+					System.out.println("LFUCache.put(" + key + ") evicted " + evicted + " rather than " + victim);
+				}
+			} else {
+				boolean removed = cache.remove(key) != null;
+				if (removed != (expected.remove(key) != null)) {
+					System.out.println("LFUCache.remove(" + key + ") returned " + removed);
+				}
+			}
+			if (k % 10000 == 0 && (!cache.isValid() || cache.size() != expected.size())) {
+				System.out.println("LFUCache is not valid after " + k + " operations");
+			}
+		}
+		for (String key : expected.keySet()) {
+			if (cache.priority(key) != expected.get(key)[0]) {
+				System.out.println("LFUCache.priority(" + key + ") is " + cache.priority(key));
+			}
+		}
+		System.out.println("LFUCache of " + capacity + " entries : " + cache.getHits() + " hits, " + cache.getMisses() + " misses, "
+				+ cache.getEvictions() + " evictions, " + cache.getComparisons() + " comparisons");
+	}
+
+	private static void doTest11() {
+		int n = 100000;
+		int ops = 2000000;
+		// the percents of Insert, Decrease_Key and Increase_Key, the rest are Delete_Min
+		int[][] mixes = { { 34, 60, 0 }, { 50, 0, 0 }, { 30, 0, 40 }, { 40, 20, 0 } };
+		String[] names = { "decrease heavy", "insert/delete", "increase heavy", "mixed" };
+		int[] fixed = { 2, 3, 4, 8, 16, 32 };
+		for (int m = 0; m <= mixes.length; m++) { // the last mix changes halfway, from the first to the third
+			long seed = new Random().nextLong();
+			long best = Long.MAX_VALUE;
+			int bestD = 0;
+			for (int d : fixed) {
+				long comparisonsCount = runMix(new DHeap(d, n), mixes, m, n, ops, seed);
+				if (comparisonsCount < best) {
+					best = comparisonsCount;
+					bestD = d;
+				}
+			}
+			for (int start = 2; start <= 32; start *= 16) { // converge from either side
+				DHeap heap = new DHeap(start, n);
+				heap.setAdaptive(true);
+				long adaptive = runMix(heap, mixes, m, n, ops, seed);
+				System.out.println("Adaptive D from " + start + " on " + (m < mixes.length ? names[m] : names[0] + " then " + names[2])
+						+ " : " + adaptive + " comparisons, ending at D = " + heap.getD() + " after " + heap.getAdaptiveRebuilds()
+						+ " rebuilds; the best fixed D = " + bestD + " : " + best);
+				if (m < mixes.length && adaptive > 1.08 * best) {
+					System.out.println("Adaptive D did not converge on " + names[m]);
+				}
+				// the factor it settled on should itself be as good as the best, not a step off
+				if (m < mixes.length && runMix(new DHeap(heap.getD(), n), mixes, m, n, ops, seed) > 1.03 * best) {
+					System.out.println("Adaptive D settled on a poor D = " + heap.getD() + " on " + names[m]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Run a random mix of operations on a heap which is kept about half full.
+	 *
+	 * @return the number of comparisons
+	 */
+	private static long runMix(DHeap heap, int[][] mixes, int m, int n, int ops, long seed) {
+		Random rand = new Random(seed);
+		Slot[] items = new Slot[n];
+		int[] free = new int[n]; // the indexes of the items out of the heap
+		for (int k = 0; k < n; k++) {
+			items[k] = new Slot(k);
+			free[k] = k;
+		}
+		int freeCount = n;
+		long comparisonsCount = 0;
+		for (int k = 0; k < n / 2; k++) {
+			DHeap_Item item = items[free[--freeCount]];
+			item.setKey(rand.nextInt(1 << 30));
+			comparisonsCount += heap.Insert(item);
+		}
+		for (int k = 0; k < ops; k++) {
+			int[] mix = mixes[m < mixes.length ? m : (k < ops / 2 ? 0 : 2)];
+			int op = rand.nextInt(100);
+			int size = heap.getSize();
+			if (op < mix[0] && freeCount > 0 || size < n / 4) {
+				DHeap_Item item = items[free[--freeCount]];
+				item.setKey(rand.nextInt(1 << 30));
+				comparisonsCount += heap.Insert(item);
+			} else if (op < mix[0] + mix[1] + mix[2]) {
+				DHeap_Item item = items[rand.nextInt(n)];
+				if (item.getPos() != -1) {
+					if (op < mix[0] + mix[1]) {
+						int delta = item.getKey() - heap.Get_Min().getKey() + rand.nextInt(1 << 10); // to near the top
+						comparisonsCount += heap.Decrease_Key(item, Math.max(0, delta));
+					} else {
+						comparisonsCount += heap.Increase_Key(item, rand.nextInt(1 << 20));
+					}
+				}
+			} else if (size > 0) {
+				Slot min = (Slot) heap.Get_Min();
+				comparisonsCount += heap.Delete_Min();
+				min.setPos(-1);
+				free[freeCount++] = min.index;
+			}
+		}
+		if (!heap.isHeap()) {
+			System.out.println("The adaptive heap is not a heap");
+		}
+		return comparisonsCount;
+	}
+
+	/**
+	 * An item which knows its index in the array of the test.
+	 */
+	private static class Slot extends DHeap_Item {
+
+		private final int index;
+
+		private Slot(int index1) {
+			super(null, 0);
+			index = index1;
+		}
+
+	}
+
 	private static int[] initRandArr(int size) {
+		return initRandArr(size, RAND_MAX);
+	}
+
+	private static int[] initRandArr(int size, int max) {
 		int[] arr = new int[size];
 		Random rand = new Random();
 		for (int i = 0; i < size; i++) {
-			arr[i] = rand.nextInt(RAND_MAX);
+			arr[i] = rand.nextInt(max);
 		}
 		return arr;
 	}
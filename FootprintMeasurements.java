@@ -0,0 +1,104 @@
+package memory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import dheap.DHeap;
+import dheap.DHeap_Item;
+import dheap.LongKeyDHeap;
+import wavltree.BPlusTree;
+import wavltree.WAVLTree;
+
+/**
+ * A table of the memoryFootprint() of every layout holding the same n
+ * entries (shuffled keys, with their decimal string as the value), next to
+ * the growth of the used heap which was measured while building it, so the
+ * estimates can be checked against the JVM at hand.
+ *
+ * WAVLTree is measured twice: fresh, and after a churn of deletions with node
+ * pooling, whose free list shows up as slack. The heaps are filled to half of
+ * their capacity.
+ */
+public class FootprintMeasurements {
+
+    public static int[] N = { 1000, 100000, 1000000 };
+
+    public static void main(String[] args) {
+        System.out.println("layout\t\tn\tbytes/entry\toverhead/entry\tslack\tmeasured bytes/entry");
+        for (int n : N) {
+            ArrayList<Integer> list = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                list.add(i);
+            }
+            Collections.shuffle(list);
+            final int[] keys = new int[n];
+            for (int i = 0; i < n; i++) {
+                keys[i] = list.get(i);
+            }
+            measure("WAVLTree", n, () -> {
+                WAVLTree t = new WAVLTree();
+                for (int k : keys) {
+                    t.insert(k, Integer.toString(k));
+                }
+                return t;
+            }, WAVLTree::memoryFootprint);
+            measure("WAVLTree churn", n, () -> {
+                WAVLTree t = new WAVLTree();
+                t.setNodePooling(true);
+                for (int k : keys) {
+                    t.insert(k, Integer.toString(k));
+                }
+                for (int i = 0; i < n / 2; i++) { // the free list keeps the nodes
+                    t.delete(keys[i]);
+                }
+                return t;
+            }, WAVLTree::memoryFootprint);
+            measure("BPlusTree", n, () -> {
+                BPlusTree t = new BPlusTree();
+                for (int k : keys) {
+                    t.insert(k, Integer.toString(k));
+                }
+                return t;
+            }, BPlusTree::memoryFootprint);
+            measure("DHeap", n, () -> {
+                DHeap heap = new DHeap(4, 2 * n);
+                for (int k : keys) {
+                    heap.Insert(new DHeap_Item(Integer.toString(k), k));
+                }
+                return heap;
+            }, DHeap::memoryFootprint);
+            measure("LongKeyDHeap", n, () -> {
+                LongKeyDHeap heap = new LongKeyDHeap(4, 2 * n);
+                for (int k : keys) {
+                    heap.Insert(k, k);
+                }
+                return heap;
+            }, LongKeyDHeap::memoryFootprint);
+        }
+    }
+
+    /**
+     * Build a container, and print its report with the heap growth measured
+     * around the build.
+     */
+    private static <T> void measure(String name, int n, Supplier<T> build, Function<T, MemoryFootprint> report) {
+        long before = usedMemory();
+        T container = build.get();
+        long after = usedMemory();
+        MemoryFootprint footprint = report.apply(container);
+        System.out.printf("%-14s\t%d\t%.1f\t\t%.1f\t\t%.0f%%\t%.1f%n", name, n, footprint.bytesPerEntry(),
+                footprint.overheadPerEntry(), 100.0 * footprint.getSlackBytes() / footprint.getTotalBytes(),
+                (double) (after - before) / footprint.getEntries());
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+}
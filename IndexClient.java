@@ -0,0 +1,215 @@
+package server;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * A blocking client of IndexServer. The send methods only queue a request;
+ * flush() sends the queued requests, and receive() reads the response to the
+ * oldest request not answered yet, so any number of requests can be kept in
+ * flight. The results of the response are then read in the order of the
+ * Protocol table, with readInt() and readString().
+ *
+ * The other methods send a single request and wait for its response.
+ */
+public class IndexClient implements AutoCloseable {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final SocketChannel channel;
+    private ByteBuffer out = ByteBuffer.allocate(BUFFER_SIZE); // write mode
+    private ByteBuffer in = ByteBuffer.allocate(BUFFER_SIZE); // read mode
+    private ByteBuffer response;
+    private int pending; // the number of requests not answered yet
+    private int frameStart; // the position of the request being queued
+
+    /**
+     * @param address
+     *            the address of the server
+     * @throws IOException
+     *             if the server cannot be reached
+     */
+    public IndexClient(InetSocketAddress address) throws IOException {
+        channel = SocketChannel.open(address);
+        channel.socket().setTcpNoDelay(true);
+        in.flip();
+    }
+
+    /**
+     * @return the number of requests sent or queued, and not answered yet
+     */
+    public int getPending() {
+        return pending;
+    }
+
+    public void sendInsert(int k, String v) {
+        begin(Protocol.INSERT, 4 + Protocol.stringLength(v)).putInt(k);
+        Protocol.putString(out, v);
+        end();
+    }
+
+    public void sendDelete(int k) {
+        begin(Protocol.DELETE, 4).putInt(k);
+        end();
+    }
+
+    public void sendSearch(int k) {
+        begin(Protocol.SEARCH, 4).putInt(k);
+        end();
+    }
+
+    public void sendSelect(int i) {
+        begin(Protocol.SELECT, 4).putInt(i);
+        end();
+    }
+
+    public void sendRange(int lo, int hi, int limit) {
+        begin(Protocol.RANGE, 12).putInt(lo).putInt(hi).putInt(limit);
+        end();
+    }
+
+    public void sendSize() {
+        begin(Protocol.SIZE, 0);
+        end();
+    }
+
+    public void sendHeapInsert(int key, String name) {
+        begin(Protocol.HEAP_INSERT, 4 + Protocol.stringLength(name)).putInt(key);
+        Protocol.putString(out, name);
+        end();
+    }
+
+    public void sendHeapDeleteMin() {
+        begin(Protocol.HEAP_DELETE_MIN, 0);
+        end();
+    }
+
+    public void sendHeapDecreaseKey(int id, int delta) {
+        begin(Protocol.HEAP_DECREASE_KEY, 8).putInt(id).putInt(delta);
+        end();
+    }
+
+    private ByteBuffer begin(byte op, int n) {
+        out = Protocol.ensure(out, 5 + n);
+        frameStart = out.position();
+        out.putInt(0); // the length, set by end()
+        out.put(op);
+        return out;
+    }
+
+    private void end() {
+        out.putInt(frameStart, out.position() - frameStart - 4);
+        pending++;
+    }
+
+    /**
+     * Send the queued requests.
+     *
+     * @throws IOException
+     *             if the connection is broken
+     */
+    public void flush() throws IOException {
+        out.flip();
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+        out.clear();
+    }
+
+    /**
+     * Wait for the response to the oldest request not answered yet, sending
+     * the queued requests first.
+     *
+     * @return the status of the response
+     * @throws IOException
+     *             if the connection is broken
+     */
+    public byte receive() throws IOException {
+        if (pending == 0) {
+            throw new IllegalStateException("no request pending");
+        }
+        flush();
+        while (in.remaining() < 4 || in.remaining() < 4 + in.getInt(in.position())) {
+            in.compact();
+            if (in.position() >= 4) {
+                in = Protocol.ensure(in, in.getInt(0) + 4 - in.position());
+            }
+            if (channel.read(in) == -1) {
+                throw new EOFException("the server closed the connection");
+            }
+            in.flip();
+        }
+        int length = in.getInt();
+        response = in.slice();
+        response.limit(length);
+        in.position(in.position() + length);
+        pending--;
+        return response.get();
+    }
+
+    /**
+     * @return the next int of the last response received
+     */
+    public int readInt() {
+        return response.getInt();
+    }
+
+    /**
+     * @return the next string of the last response received
+     */
+    public String readString() {
+        return Protocol.getString(response);
+    }
+
+    /**
+     * @return the number of rebalances, -1 if k was already in the tree
+     */
+    public int insert(int k, String v) throws IOException {
+        sendInsert(k, v);
+        receive();
+        return readInt();
+    }
+
+    /**
+     * @return the number of rebalances, -1 if k was not in the tree
+     */
+    public int delete(int k) throws IOException {
+        sendDelete(k);
+        receive();
+        return readInt();
+    }
+
+    /**
+     * @return the value of k, null if k is not in the tree
+     */
+    public String search(int k) throws IOException {
+        sendSearch(k);
+        return receive() == Protocol.OK ? readString() : null;
+    }
+
+    /**
+     * @return the value of the i'th smallest key, null if there is none
+     */
+    public String select(int i) throws IOException {
+        sendSelect(i);
+        return receive() == Protocol.OK ? readString() : null;
+    }
+
+    /**
+     * @return the number of keys in the tree
+     */
+    public int size() throws IOException {
+        sendSize();
+        receive();
+        return readInt();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+}
@@ -0,0 +1,374 @@
+package server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import dheap.DHeap;
+import dheap.DHeap_Item;
+import wavltree.WAVLTree;
+
+/**
+ * An embedded, non-blocking server which exposes a WAVLTree and a DHeap over
+ * the binary protocol of Protocol. A single thread runs a selector over all
+ * the connections, so the structures need no locks, but they must not be
+ * used by other threads while the server runs.
+ *
+ * Requests are pipelined: every read decodes all the complete frames it
+ * received, executes them in order, and the responses of the whole batch go
+ * out in a single write, so a client which keeps many requests in flight
+ * pays one system call per batch rather than per request. Once more than
+ * MAX_PENDING_OUTPUT bytes of responses wait for a client, its requests are
+ * left unread until it reads them.
+ */
+public class IndexServer implements Runnable, AutoCloseable {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    // a connection is not read from while more responses than this wait for
+    // it to read them, so a client which never reads cannot grow them forever
+    private static final int MAX_PENDING_OUTPUT = 1 << 20;
+
+    private final WAVLTree tree;
+    private final DHeap heap;
+    private final Map<Integer, Entry> entries = new HashMap<>(); // the heap items by id
+    private int nextId;
+
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+    private volatile boolean running = true;
+    private volatile long requests; // written by the selector thread only
+
+    /**
+     * Open the server socket. Requests are served once run() is called.
+     *
+     * @param address
+     *            the address to listen on, with port 0 for any free port
+     * @param tree
+     *            the tree to serve
+     * @param heap
+     *            the heap to serve
+     * @throws IOException
+     *             if the socket cannot be opened
+     */
+    public IndexServer(InetSocketAddress address, WAVLTree tree, DHeap heap) throws IOException {
+        this.tree = tree;
+        this.heap = heap;
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(address);
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    /**
+     * @return the port the server listens on
+     */
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * @return the number of requests served so far
+     */
+    public long getRequests() {
+        return requests;
+    }
+
+    /**
+     * Serve the connections until close() is called.
+     */
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                selector.select();
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    try {
+                        if (!key.isValid()) {
+                            continue;
+                        } else if (key.isAcceptable()) {
+                            accept();
+                        } else {
+                            if (key.isReadable()) {
+                                read(key);
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                write(key);
+                            }
+                        }
+                    } catch (IOException e) { // the connection is broken
+                        key.cancel();
+                        key.channel().close();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                try {
+                    key.channel().close();
+                } catch (IOException e) {
+                    // closing anyway
+                }
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                // closing anyway
+            }
+        }
+    }
+
+    /**
+     * Stop serving, and close the server socket and all the connections.
+     */
+    @Override
+    public void close() {
+        running = false;
+        selector.wakeup();
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        channel.register(selector, SelectionKey.OP_READ, new Connection());
+    }
+
+    /**
+     * Read what the connection sent, and serve it.
+     */
+    private void read(SelectionKey key) throws IOException {
+        SocketChannel channel = (SocketChannel) key.channel();
+        Connection c = (Connection) key.attachment();
+        if (channel.read(c.in) == -1) {
+            key.cancel();
+            channel.close();
+            return;
+        }
+        serve(key, c);
+    }
+
+    /**
+     * Execute the complete requests in the input of the connection, until the
+     * pending responses reach MAX_PENDING_OUTPUT, and send the responses.
+     */
+    private void serve(SelectionKey key, Connection c) throws IOException {
+        c.in.flip();
+        c.stalled = false;
+        while (c.in.remaining() >= 4) {
+            if (c.out.position() >= MAX_PENDING_OUTPUT) {
+                c.stalled = true; // resumed by write()
+                break;
+            }
+            int length = c.in.getInt(c.in.position());
+            if (length < 1 || length > Protocol.MAX_FRAME) {
+                throw new IOException("bad frame length " + length);
+            }
+            if (c.in.remaining() < 4 + length) {
+                break;
+            }
+            int end = c.in.position() + 4 + length;
+            c.in.position(c.in.position() + 4);
+            ByteBuffer frame = c.in.slice();
+            frame.limit(length);
+            c.in.position(end);
+            execute(frame, c);
+            requests++;
+        }
+        c.in.compact();
+        if (!c.in.hasRemaining() && !c.stalled) { // a frame longer than the buffer
+            c.in = Protocol.ensure(c.in, c.in.capacity());
+        }
+        write(key);
+    }
+
+    /**
+     * Send as much of the pending responses as the socket takes, and wait for
+     * it to take more if needed. Reading stops while the pending responses
+     * are at MAX_PENDING_OUTPUT, and the requests left in the input are
+     * served once they are below it.
+     */
+    private void write(SelectionKey key) throws IOException {
+        Connection c = (Connection) key.attachment();
+        c.out.flip();
+        ((SocketChannel) key.channel()).write(c.out);
+        c.out.compact();
+        if (c.stalled && c.out.position() < MAX_PENDING_OUTPUT) {
+            serve(key, c); // which writes again
+            return;
+        }
+        int ops = c.out.position() > 0 ? SelectionKey.OP_WRITE : 0;
+        if (c.out.position() < MAX_PENDING_OUTPUT) {
+            ops |= SelectionKey.OP_READ;
+        }
+        key.interestOps(ops);
+    }
+
+    /**
+     * Execute a request, and append its response to the output of the
+     * connection.
+     *
+     * @param frame
+     *            the request, from its opcode on
+     * @param c
+     *            the connection
+     */
+    private void execute(ByteBuffer frame, Connection c) {
+        int start = c.out.position();
+        try {
+            byte op = frame.get();
+            switch (op) {
+            case Protocol.INSERT: {
+                int k = frame.getInt();
+                String v = Protocol.getString(frame);
+                begin(c, Protocol.OK, 4).putInt(tree.insert(k, v));
+                break;
+            }
+            case Protocol.DELETE:
+                begin(c, Protocol.OK, 4).putInt(tree.delete(frame.getInt()));
+                break;
+            case Protocol.SEARCH:
+                found(c, tree.search(frame.getInt()));
+                break;
+            case Protocol.SELECT:
+                found(c, tree.select(frame.getInt()));
+                break;
+            case Protocol.RANGE:
+                range(c, frame.getInt(), frame.getInt(), frame.getInt());
+                break;
+            case Protocol.SIZE:
+                begin(c, Protocol.OK, 4).putInt(tree.size());
+                break;
+            case Protocol.HEAP_INSERT: {
+                int key = frame.getInt();
+                String name = Protocol.getString(frame);
+                if (heap.getSize() == heap.getCapacity()) {
+                    begin(c, Protocol.ERROR, 0);
+                    break;
+                }
+                Entry e = new Entry(nextId++, name, key);
+                entries.put(e.id, e);
+                heap.Insert(e);
+                begin(c, Protocol.OK, 4).putInt(e.id);
+                break;
+            }
+            case Protocol.HEAP_DELETE_MIN: {
+                if (heap.getSize() == 0) {
+                    begin(c, Protocol.NOT_FOUND, 0);
+                    break;
+                }
+                Entry e = (Entry) heap.Get_Min();
+                heap.Delete_Min();
+                entries.remove(e.id);
+                ByteBuffer out = begin(c, Protocol.OK, 8 + Protocol.stringLength(e.getName()));
+                out.putInt(e.id);
+                out.putInt(e.getKey());
+                Protocol.putString(out, e.getName());
+                break;
+            }
+            case Protocol.HEAP_DECREASE_KEY: {
+                Entry e = entries.get(frame.getInt());
+                int delta = frame.getInt();
+                if (e == null) {
+                    begin(c, Protocol.NOT_FOUND, 0);
+                } else if (delta < 0 || e.getKey() - delta > e.getKey()) { // an increase or an overflow
+                    begin(c, Protocol.ERROR, 0);
+                } else {
+                    begin(c, Protocol.OK, 4).putInt(heap.Decrease_Key(e, delta));
+                }
+                break;
+            }
+            default:
+                begin(c, Protocol.ERROR, 0);
+            }
+        } catch (RuntimeException e) { // a truncated or malformed request, which must not stop the server
+            c.out.position(start);
+            begin(c, Protocol.ERROR, 0);
+        }
+        c.out.putInt(start, c.out.position() - start - 4);
+    }
+
+    /**
+     * Start a response in the output of the connection.
+     *
+     * @param c
+     *            the connection
+     * @param status
+     *            the status of the response
+     * @param n
+     *            an upper bound of the length of the results
+     * @return the output, to write the results into
+     */
+    private ByteBuffer begin(Connection c, byte status, int n) {
+        c.out = Protocol.ensure(c.out, 5 + n);
+        c.out.putInt(0); // the length, set once the response is complete
+        c.out.put(status);
+        return c.out;
+    }
+
+    private void found(Connection c, String value) {
+        if (value == null) {
+            begin(c, Protocol.NOT_FOUND, 0);
+        } else {
+            Protocol.putString(begin(c, Protocol.OK, Protocol.stringLength(value)), value);
+        }
+    }
+
+    /**
+     * Respond with the number of keys in [lo, hi], and the values of the first
+     * ones, up to limit, by rank.
+     */
+    private void range(Connection c, int lo, int hi, int limit) {
+        int from = tree.rank(lo);
+        int to = hi == Integer.MAX_VALUE ? tree.size() : tree.rank(hi + 1);
+        int count = Math.max(0, to - from);
+        begin(c, Protocol.OK, 4).putInt(count);
+        for (int i = from + 1; i <= from + Math.min(count, limit); i++) {
+            String v = tree.select(i);
+            c.out = Protocol.ensure(c.out, Protocol.stringLength(v));
+            Protocol.putString(c.out, v);
+        }
+    }
+
+    /**
+     * The buffers of a connection: the input in write mode (filled by reads),
+     * and the responses in write mode (drained by writes).
+     */
+    private static final class Connection {
+
+        ByteBuffer in = ByteBuffer.allocate(BUFFER_SIZE);
+        ByteBuffer out = ByteBuffer.allocate(BUFFER_SIZE);
+        boolean stalled; // requests are left in the input until out drains
+
+    }
+
+    /**
+     * A heap item with the id the clients refer to it by.
+     */
+    private static final class Entry extends DHeap_Item {
+
+        final int id;
+
+        Entry(int id, String name, int key) {
+            super(name, key);
+            this.id = id;
+        }
+
+    }
+
+}
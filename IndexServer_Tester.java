@@ -0,0 +1,244 @@
+package server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import dheap.DHeap;
+import wavltree.WAVLTree;
+
+public class IndexServer_Tester {
+
+    public static int NUM_OF_OPERATIONS = 100000;
+    public static int DEPTH = 64; // requests in flight
+    public static int MAX_KEY = 5000;
+    public static int HEAP_CAPACITY = 1000;
+
+    public static void main(String[] args) throws Exception {
+        IndexServer server = new IndexServer(new InetSocketAddress("127.0.0.1", 0), new WAVLTree(),
+                new DHeap(3, HEAP_CAPACITY));
+        Thread thread = new Thread(server, "index-server");
+        thread.start();
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", server.getPort());
+        try (IndexClient client = new IndexClient(address)) {
+            checkTree(client);
+            checkHeap(client);
+            checkRange(client);
+            checkMalformed(address, client);
+        }
+        server.close();
+        thread.join();
+        if (server.getRequests() < NUM_OF_OPERATIONS) {
+            System.out.println("requests: \t\t" + server.getRequests());
+        }
+    }
+
+    /**
+     * Pipeline random tree requests, and check the responses against a
+     * TreeMap.
+     */
+    private static void checkTree(IndexClient client) throws IOException {
+        TreeMap<Integer, String> map = new TreeMap<>();
+        Random rand = new Random();
+        List<Object> expected = new ArrayList<>(); // of the requests in flight
+        for (int i = 0; i < NUM_OF_OPERATIONS; i++) {
+            int k = rand.nextInt(MAX_KEY);
+            switch (rand.nextInt(4)) {
+            case 0:
+                client.sendInsert(k, "v" + k);
+                expected.add(map.put(k, "v" + k) == null);
+                break;
+            case 1:
+                client.sendDelete(k);
+                expected.add(map.remove(k) != null);
+                break;
+            case 2:
+                client.sendSearch(k);
+                expected.add(map.containsKey(k) ? map.get(k) : k);
+                break;
+            default:
+                int r = rand.nextInt(map.size() + 2);
+                client.sendSelect(r);
+                expected.add(r >= 1 && r <= map.size() ? "v" + nth(map, r) : r);
+            }
+            if (expected.size() == DEPTH || i == NUM_OF_OPERATIONS - 1) {
+                for (Object e : expected) {
+                    byte status = client.receive();
+                    if (e instanceof Boolean) { // an insert or a delete
+                        if ((client.readInt() >= 0) != (Boolean) e) {
+                            System.out.println("insert/delete: \t\twrong answer");
+                        }
+                    } else if (e instanceof String) {
+                        if (status != Protocol.OK || !e.equals(client.readString())) {
+                            System.out.println("search/select: \t\texpected " + e);
+                        }
+                    } else if (status != Protocol.NOT_FOUND) {
+                        System.out.println("search/select: \t\texpected nothing for " + e);
+                    }
+                }
+                expected.clear();
+            }
+        }
+        if (client.size() != map.size()) {
+            System.out.println("size: \t\t" + client.size() + " instead of " + map.size());
+        }
+    }
+
+    private static int nth(TreeMap<Integer, String> map, int r) {
+        // the map stays small, so a linear walk keeps the check obvious
+        for (int k : map.keySet()) {
+            if (--r == 0) {
+                return k;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Fill the heap beyond its capacity, decrease some keys, and check that
+     * the pops come out sorted.
+     */
+    private static void checkHeap(IndexClient client) throws IOException {
+        Random rand = new Random();
+        Map<Integer, Integer> keys = new TreeMap<>(); // by id
+        for (int i = 0; i < HEAP_CAPACITY + 10; i++) {
+            int key = rand.nextInt(1000000);
+            client.sendHeapInsert(key, "n" + key);
+            if (client.receive() == Protocol.OK) {
+                keys.put(client.readInt(), key);
+            }
+        }
+        if (keys.size() != HEAP_CAPACITY) {
+            System.out.println("heap insert: \t\t" + keys.size() + " accepted of capacity " + HEAP_CAPACITY);
+        }
+        for (Map.Entry<Integer, Integer> e : keys.entrySet()) { // pipelined
+            client.sendHeapDecreaseKey(e.getKey(), e.getKey() % 7);
+            e.setValue(e.getValue() - e.getKey() % 7);
+        }
+        client.sendHeapDecreaseKey(-1, 1);
+        client.sendHeapDecreaseKey(0, -1);
+        for (int i = 0; i < keys.size(); i++) {
+            if (client.receive() != Protocol.OK) {
+                System.out.println("decrease key: \t\tnot OK");
+            }
+        }
+        if (client.receive() != Protocol.NOT_FOUND || client.receive() != Protocol.ERROR) {
+            System.out.println("decrease key: \t\tbad id or delta accepted");
+        }
+        int last = Integer.MIN_VALUE;
+        for (int i = 0; i < keys.size() + 1; i++) {
+            client.sendHeapDeleteMin();
+        }
+        for (int i = 0; i < keys.size(); i++) {
+            if (client.receive() != Protocol.OK) {
+                System.out.println("delete min: \t\tnot OK");
+                continue;
+            }
+            int id = client.readInt();
+            int key = client.readInt();
+            String name = client.readString();
+            if (key < last || keys.get(id) != key || !name.startsWith("n")) {
+                System.out.println("delete min: \t\twrong item " + id);
+            }
+            last = key;
+        }
+        if (client.receive() != Protocol.NOT_FOUND) {
+            System.out.println("delete min: \t\tempty heap not reported");
+        }
+    }
+
+    private static void checkRange(IndexClient client) throws IOException {
+        for (int k = 0; k < 100; k++) {
+            client.sendInsert(MAX_KEY + 2 * k, "r" + k);
+        }
+        client.sendRange(MAX_KEY + 11, MAX_KEY + 40, 5); // the keys of k = 6 .. 20
+        client.sendRange(Integer.MIN_VALUE, Integer.MAX_VALUE, 0);
+        client.sendRange(MAX_KEY + 40, MAX_KEY + 11, 5);
+        for (int k = 0; k < 100; k++) {
+            client.receive();
+        }
+        client.receive();
+        boolean ok = client.readInt() == 15;
+        for (int k = 6; k < 11; k++) {
+            ok &= ("r" + k).equals(client.readString());
+        }
+        client.receive();
+        int size = client.readInt();
+        client.receive();
+        ok &= client.readInt() == 0;
+        if (!ok || size != client.size()) {
+            System.out.println("range: \t\twrong answer");
+        }
+    }
+
+    /**
+     * Send an unknown opcode and a truncated request on a raw connection: each
+     * gets an ERROR, and the connection goes on.
+     */
+    private static void checkMalformed(InetSocketAddress address, IndexClient client) throws IOException {
+        int size = client.size();
+        try (SocketChannel channel = SocketChannel.open(address)) {
+            ByteBuffer b = ByteBuffer.allocate(64);
+            b.putInt(1).put((byte) 99); // an unknown opcode
+            b.putInt(3).put(Protocol.SEARCH).put((byte) 0).put((byte) 0); // a truncated key
+            b.putInt(9).put(Protocol.INSERT).putInt(7).putInt(1000); // a string beyond the frame
+            b.putInt(1).put(Protocol.SIZE);
+            b.flip();
+            channel.write(b);
+            b.clear();
+            while (b.position() < 4 * 5 + 4) {
+                channel.read(b);
+            }
+            b.flip();
+            boolean ok = b.getInt() == 1 && b.get() == Protocol.ERROR;
+            ok &= b.getInt() == 1 && b.get() == Protocol.ERROR;
+            ok &= b.getInt() == 1 && b.get() == Protocol.ERROR;
+            ok &= b.getInt() == 5 && b.get() == Protocol.OK && b.getInt() == size;
+            if (!ok) {
+                System.out.println("malformed: \t\tnot answered with ERROR");
+            }
+        }
+        checkSlowReader(address, client);
+    }
+
+    /**
+     * Pipeline requests without ever reading the responses: the server must
+     * stop reading them, so the writes stall, and keep serving other clients.
+     */
+    private static void checkSlowReader(InetSocketAddress address, IndexClient client) throws IOException {
+        int size = client.size();
+        try (SocketChannel channel = SocketChannel.open(address)) {
+            channel.configureBlocking(false);
+            ByteBuffer b = ByteBuffer.allocate(5 * 10000);
+            while (b.hasRemaining()) {
+                b.putInt(1).put(Protocol.SIZE);
+            }
+            long sent = 0;
+            for (int idle = 0; idle < 50 && sent < (1 << 25); ) { // until stalled for half a second
+                if (!b.hasRemaining()) {
+                    b.rewind();
+                }
+                int n = channel.write(b);
+                sent += n;
+                idle = n == 0 ? idle + 1 : 0;
+                if (n == 0) {
+                    try {
+                        Thread.sleep(10);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+            if (sent >= (1 << 25) || client.size() != size) {
+                System.out.println("slow reader: \t\t" + sent + " bytes of requests taken");
+            }
+        }
+    }
+
+}
@@ -0,0 +1,254 @@
+package dheap;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * An iterator over the merge of k sorted sources of ints. Only the head of
+ * every source is kept in a d-ary heap, and the sources are read in blocks,
+ * so the memory is O(k) blocks whatever the length of the sources. Taking an
+ * element replaces the top of the heap by the next element of its source and
+ * sifts it down once (rather than a Delete_Min() and an Insert()), so an
+ * element costs O(d * logd(k)) comparisons.
+ */
+public class KWayMerge implements PrimitiveIterator.OfInt {
+
+    /**
+     * A sorted source of ints, read a block at a time.
+     */
+    public interface Source {
+
+        /**
+         * Read the next elements of the source.
+         * 
+         * @param block
+         *            the array to read into, from index 0
+         * @return the number of elements read, 0 or less if the source is
+         *         exhausted
+         */
+        int read(int[] block);
+
+    }
+
+    public static final int BLOCK_SIZE = 4096;
+
+    private final int d;
+    private final boolean dedupe;
+    private final Source[] sources;
+    private final int[][] blocks;
+    private final int[] positions; // the index of the head of every source in its block
+    private final int[] limits; // the number of elements in the block of every source
+    private final int[] heads; // heads[i] is the head of the source at index i of the heap
+    private final int[] heap; // heap[i] is the source at index i of the heap
+    private int size;
+    private boolean started; // true if an element was returned
+    private int last; // the last element returned
+    private long comparisonsCount;
+
+    /**
+     * @param sources
+     *            the sources, each sorted in a non decreasing order
+     * @param d
+     *            the heap factor
+     * @param dedupe
+     *            true to return every distinct element once, false to return
+     *            all the elements
+     * @precondition d >= 2
+     * @complexity O(k) reads, where k is the number of sources
+     */
+    public KWayMerge(Source[] sources, int d, boolean dedupe) {
+        this(sources, d, dedupe, BLOCK_SIZE);
+    }
+
+    /**
+     * @param sources
+     *            the sources, each sorted in a non decreasing order
+     * @param d
+     *            the heap factor
+     * @param dedupe
+     *            true to return every distinct element once, false to return
+     *            all the elements
+     * @param blockSize
+     *            the number of elements to read from a source at a time
+     * @precondition d >= 2
+     * @precondition blockSize >= 1
+     * @complexity O(k) reads, where k is the number of sources
+     */
+    public KWayMerge(Source[] sources, int d, boolean dedupe, int blockSize) {
+        int k = sources.length;
+        this.d = d;
+        this.dedupe = dedupe;
+        this.sources = sources.clone();
+        blocks = new int[k][blockSize];
+        positions = new int[k];
+        limits = new int[k];
+        heads = new int[k];
+        heap = new int[k];
+        for (int s = 0; s < k; s++) {
+            if (refill(s)) {
+                heads[size] = blocks[s][0];
+                heap[size++] = s;
+            }
+        }
+        for (int i = size / d; i >= 0 && size > 0; i--) {
+            siftDown(i);
+        }
+    }
+
+    /**
+     * @param buffer
+     *            a buffer of sorted ints, read from its position to its limit
+     * @return a source which reads the buffer
+     */
+    public static Source source(final IntBuffer buffer) {
+        return new Source() {
+            public int read(int[] block) {
+                int n = Math.min(block.length, buffer.remaining());
+                buffer.get(block, 0, n);
+                return n;
+            }
+        };
+    }
+
+    /**
+     * @param channel
+     *            a channel of sorted ints, big endian, read from its position
+     *            to its end
+     * @return a source which reads the channel through a direct buffer of the
+     *         block size, throwing UncheckedIOException if a read fails
+     */
+    public static Source source(final FileChannel channel) {
+        return new Source() {
+            private ByteBuffer bytes;
+
+            public int read(int[] block) {
+                if (bytes == null) {
+                    bytes = ByteBuffer.allocateDirect(4 * block.length);
+                }
+                try {
+                    while (bytes.hasRemaining() && channel.read(bytes) != -1) {
+                        // fill the buffer, unless at the end
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                bytes.flip();
+                int n = Math.min(block.length, bytes.remaining() / 4);
+                bytes.asIntBuffer().get(block, 0, n);
+                bytes.position(4 * n);
+                bytes.compact(); // keep a trailing partial int for the next read
+                return n;
+            }
+        };
+    }
+
+    /**
+     * Read the next block of a source.
+     * 
+     * @param s
+     *            the source
+     * @return true if the block has elements, false if the source is
+     *         exhausted
+     */
+    private boolean refill(int s) {
+        limits[s] = sources[s].read(blocks[s]);
+        positions[s] = 0;
+        return limits[s] > 0;
+    }
+
+    /**
+     * @return the number of comparisons along the merge so far
+     * @complexity O(1)
+     */
+    public long getComparisons() {
+        return comparisonsCount;
+    }
+
+    /**
+     * @return true if there are more elements, false otherwise
+     * @complexity O(d * logd(k)) amortized
+     */
+    public boolean hasNext() {
+        if (dedupe && started) {
+            while (size > 0 && heads[0] == last) {
+                advance();
+            }
+        }
+        return size > 0;
+    }
+
+    /**
+     * @return the next element of the merge
+     * @throws NoSuchElementException
+     *             if there are no more elements
+     * @complexity O(d * logd(k)) amortized
+     */
+    public int nextInt() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        last = heads[0];
+        started = true;
+        advance();
+        return last;
+    }
+
+    /**
+     * Replace the top of the heap by the next element of its source, or by
+     * the last head if the source is exhausted, and sift it down.
+     * 
+     * @precondition size > 0
+     * @complexity O(d * logd(k)), and a read once per block
+     */
+    private void advance() {
+        int s = heap[0];
+        if (++positions[s] < limits[s] || refill(s)) {
+            heads[0] = blocks[s][positions[s]];
+        } else {
+            size--;
+            heads[0] = heads[size];
+            heap[0] = heap[size];
+        }
+        siftDown(0);
+    }
+
+    /**
+     * Restore the heap property from top to bottom.
+     * 
+     * @param i
+     *            the index
+     * @complexity O(d * logd(k))
+     */
+    private void siftDown(int i) {
+        int head = heads[i];
+        int s = heap[i];
+        while (true) {
+            int first = DHeap.child(i, 1, d);
+            if (first >= size) {
+                break;
+            }
+            int last = Math.min(first + d, size);
+            int min = first;
+            for (int j = first + 1; j < last; j++) {
+                if (heads[j] < heads[min]) {
+                    min = j;
+                }
+            }
+            comparisonsCount += last - first;
+            if (head <= heads[min]) {
+                break;
+            }
+            heads[i] = heads[min]; // move the child up, and the hole down
+            heap[i] = heap[min];
+            i = min;
+        }
+        heads[i] = head;
+        heap[i] = s;
+    }
+
+}
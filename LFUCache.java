@@ -0,0 +1,240 @@
+package dheap;
+
+import java.util.HashMap;
+
+/**
+ * A bounded cache which evicts its least frequently used entry. The entries
+ * are the items of a stable DHeap, keyed by their priority: the number of
+ * times they were used, or with a cost, the sum of the cost over their uses.
+ * A hash map finds the item of a key, so a hit raises its priority with one
+ * Increase_Key(), a sift down of O(d * logd(n)) comparisons, and a miss on a
+ * full cache evicts the top of the heap.
+ *
+ * Entries of equal priority are evicted in the order they entered the cache.
+ */
+public class LFUCache {
+
+    /**
+     * A cached value, the item of its key in the heap.
+     */
+    private static class Entry extends DHeap_Item {
+
+        private String value;
+        private final int cost; // added to the priority on every use
+
+        private Entry(String key, String value, int cost) {
+            super(key, cost);
+            this.value = value;
+            this.cost = cost;
+        }
+
+    }
+
+    public static final int DEFAULT_D = 4;
+
+    private final int capacity;
+    private final DHeap heap;
+    private final HashMap<String, Entry> index;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long comparisonsCount;
+
+    /**
+     * @param capacity
+     *            the maximum number of entries
+     * @precondition capacity >= 1
+     */
+    public LFUCache(int capacity) {
+        this(capacity, DEFAULT_D);
+    }
+
+    /**
+     * @param capacity
+     *            the maximum number of entries
+     * @param d
+     *            the heap factor
+     * @precondition capacity >= 1
+     * @precondition d >= 2
+     */
+    public LFUCache(int capacity, int d) {
+        this.capacity = capacity;
+        heap = new DHeap(d, capacity, true);
+        index = new HashMap<>(2 * capacity);
+    }
+
+    /**
+     * @return the number of entries
+     * @complexity O(1)
+     */
+    public int size() {
+        return index.size();
+    }
+
+    /**
+     * @return the maximum number of entries
+     * @complexity O(1)
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Look a key up, counting a use of its entry if there is one.
+     *
+     * @param key
+     *            the key
+     * @return the value of the key, null if it is not cached
+     * @complexity O(d * logd(n)) where n == size()
+     */
+    public String get(String key) {
+        Entry e = index.get(key);
+        if (e == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        use(e);
+        return e.value;
+    }
+
+    /**
+     * Put a key of cost 1.
+     *
+     * @see #put(String, String, int)
+     */
+    public String put(String key, String value) {
+        return put(key, value, 1);
+    }
+
+    /**
+     * Put a key, counting a use of its entry if it is cached already (whose
+     * cost stays the same), else evicting the entry of the least priority if
+     * the cache is full.
+     *
+     * @param key
+     *            the key
+     * @param value
+     *            the value
+     * @param cost
+     *            what a use of the entry adds to its priority, the cost of
+     *            computing the value again
+     * @return the evicted key, null if none was
+     * @precondition key != null
+     * @precondition cost >= 1
+     * @complexity O(d * logd(n)) where n == size()
+     */
+    public String put(String key, String value, int cost) {
+        Entry e = index.get(key);
+        if (e != null) {
+            e.value = value;
+            use(e);
+            return null;
+        }
+        e = new Entry(key, value, cost);
+        index.put(key, e);
+        if (heap.getSize() < capacity) {
+            comparisonsCount += heap.Insert(e);
+            return null;
+        }
+        DHeap_Item evicted = heap.Get_Min();
+        index.remove(evicted.getName());
+        comparisonsCount += heap.Delete_Min() + heap.Insert(e);
+        evicted.setPos(-1);
+        evictions++;
+        return evicted.getName();
+    }
+
+    /**
+     * Remove a key.
+     *
+     * @param key
+     *            the key
+     * @return the value of the key, null if it was not cached
+     * @complexity O(d * logd(n)) where n == size()
+     */
+    public String remove(String key) {
+        Entry e = index.remove(key);
+        if (e == null) {
+            return null;
+        }
+        comparisonsCount += heap.Delete(e);
+        return e.value;
+    }
+
+    /**
+     * @param key
+     *            the key
+     * @return the priority of the key, the sum of its cost over its uses, 0
+     *         if it is not cached
+     * @complexity O(1)
+     */
+    public int priority(String key) {
+        Entry e = index.get(key);
+        return e == null ? 0 : e.getKey();
+    }
+
+    /**
+     * @return the key which a miss would evict now, null if the cache is empty
+     * @complexity O(1)
+     */
+    public String peekVictim() {
+        return heap.getSize() == 0 ? null : heap.Get_Min().getName();
+    }
+
+    /**
+     * Raise the priority of an entry by its cost, up to Integer.MAX_VALUE.
+     *
+     * @complexity O(d * logd(n)) where n == size()
+     */
+    private void use(Entry e) {
+        int delta = Math.min(e.cost, Integer.MAX_VALUE - e.getKey());
+        comparisonsCount += heap.Increase_Key(e, delta);
+    }
+
+    /**
+     * @return the number of gets which found their key
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of gets which did not find their key
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return the number of entries evicted to make room
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return the number of heap comparisons so far
+     */
+    public long getComparisons() {
+        return comparisonsCount;
+    }
+
+    /**
+     * @return true if the heap is valid and holds exactly the entries of the
+     *         index, false otherwise
+     * @complexity O(n) where n == size()
+     */
+    boolean isValid() {
+        if (!heap.isHeap() || heap.getSize() != index.size()) {
+            return false;
+        }
+        for (Entry e : index.values()) {
+            if (e.getPos() < 0 || e.getPos() >= heap.getSize()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
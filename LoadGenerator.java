@@ -0,0 +1,99 @@
+package server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import dheap.DHeap;
+import wavltree.WAVLTree;
+
+/**
+ * Measures the throughput of IndexServer over loopback: every connection keeps
+ * a pipeline of requests in flight (half searches, a quarter inserts, a
+ * quarter deletes of random keys), for every pipeline depth in turn.
+ *
+ * Arguments: [connections [seconds [host port]]]. Without a host, an embedded
+ * server is started on loopback.
+ */
+public class LoadGenerator {
+
+    public static int CONNECTIONS = 4;
+    public static int SECONDS = 2; // per pipeline depth
+    public static int[] DEPTHS = { 1, 4, 16, 64, 256 };
+    public static int MAX_KEY = 1 << 16;
+
+    public static void main(String[] args) throws Exception {
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : CONNECTIONS;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : SECONDS;
+        IndexServer server = null;
+        InetSocketAddress address;
+        if (args.length > 3) {
+            address = new InetSocketAddress(args[2], Integer.parseInt(args[3]));
+        } else {
+            server = new IndexServer(new InetSocketAddress("127.0.0.1", 0), new WAVLTree(), new DHeap(4, 1 << 16));
+            new Thread(server, "index-server").start();
+            address = new InetSocketAddress("127.0.0.1", server.getPort());
+        }
+        System.out.println("connections: " + connections + ", " + seconds + "s per depth");
+        System.out.println("depth\tops/s\t\tmean batch latency (us)");
+        for (int depth : DEPTHS) {
+            long[] result = run(address, connections, depth, seconds * 1000L);
+            System.out.printf("%d\t%.0f\t%.1f%n", depth, result[0] * 1000.0 / (seconds * 1000L),
+                    result[0] == 0 ? 0.0 : result[1] / 1000.0 / (result[0] / depth));
+        }
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    /**
+     * @return the number of requests answered, and the total nanoseconds the
+     *         batches took
+     */
+    private static long[] run(final InetSocketAddress address, int connections, final int depth, long millis)
+            throws InterruptedException {
+        final AtomicLong ops = new AtomicLong();
+        final AtomicLong nanos = new AtomicLong();
+        final long deadline = System.currentTimeMillis() + millis;
+        Thread[] threads = new Thread[connections];
+        for (int t = 0; t < connections; t++) {
+            threads[t] = new Thread(() -> {
+                Random rand = new Random();
+                long done = 0;
+                long time = 0;
+                try (IndexClient client = new IndexClient(address)) {
+                    while (System.currentTimeMillis() < deadline) {
+                        long start = System.nanoTime();
+                        for (int i = 0; i < depth; i++) {
+                            int k = rand.nextInt(MAX_KEY);
+                            int op = rand.nextInt(4);
+                            if (op < 2) {
+                                client.sendSearch(k);
+                            } else if (op == 2) {
+                                client.sendInsert(k, Integer.toString(k));
+                            } else {
+                                client.sendDelete(k);
+                            }
+                        }
+                        for (int i = 0; i < depth; i++) {
+                            client.receive();
+                        }
+                        time += System.nanoTime() - start;
+                        done += depth;
+                    }
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+                ops.addAndGet(done);
+                nanos.addAndGet(time);
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return new long[] { ops.get(), nanos.get() };
+    }
+
+}
@@ -0,0 +1,323 @@
+package dheap;
+
+import memory.MemoryFootprint;
+
+/**
+ * A D-Heap of long keys with int payloads, held in primitive arrays only: no
+ * object is created per entry. An entry is identified by a handle, an int
+ * which is given by Insert() and stays valid until the entry is deleted (and
+ * may then be given to another entry).
+ */
+public class LongKeyDHeap {
+
+    private int size;
+    private int max_size;
+    private int d;
+    private long[] keys; // keys[i] is the key of the entry at index i
+    private int[] handles; // handles[i] is the handle of the entry at index i
+    private int[] pos; // pos[h] is the index of the entry of handle h, -1 if h is free
+    private int[] payloads; // payloads[h] is the payload of the entry of handle h
+    private int[] free; // a stack of the free handles
+    private int freeCount;
+
+    /**
+     * @param m_d
+     *            the heap factor
+     * @param m_size
+     *            the maximum number of entries
+     * @precondition m_d >= 2
+     */
+    public LongKeyDHeap(int m_d, int m_size) {
+        max_size = m_size;
+        d = m_d;
+        keys = new long[max_size];
+        handles = new int[max_size];
+        pos = new int[max_size];
+        payloads = new int[max_size];
+        free = new int[max_size];
+        for (int h = 0; h < max_size; h++) {
+            pos[h] = -1;
+            free[h] = max_size - 1 - h; // the low handles first
+        }
+        freeCount = max_size;
+        size = 0;
+    }
+
+    /**
+     * @return the number of entries in the heap.
+     * @complexity O(1)
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Report the memory the heap uses: the keys, handles and positions of the
+     * entries and the free handle stack (structural), the payloads (payload),
+     * and the unused slots (slack). No object is created per entry.
+     * 
+     * @return the report
+     * @complexity O(1)
+     */
+    public MemoryFootprint memoryFootprint() {
+        long structural = MemoryFootprint.objectBytes(4 * 4 + 5 * MemoryFootprint.REFERENCE)
+                + 4 * MemoryFootprint.arrayBytes(0, 0) + (long) size * (8 + 4 + 4)
+                + MemoryFootprint.arrayBytes(max_size, 4);
+        long slack = (long) (max_size - size) * (8 + 4 + 4 + 4);
+        return new MemoryFootprint("LongKeyDHeap", size, structural, (long) size * 4, slack, 0);
+    }
+
+    /**
+     * @param handle
+     *            a handle
+     * @return true if the handle is of an entry in the heap, false otherwise
+     * @complexity O(1)
+     */
+    public boolean contains(int handle) {
+        return handle >= 0 && handle < max_size && pos[handle] != -1;
+    }
+
+    /**
+     * @param handle
+     *            the handle of an entry
+     * @return the key of the entry
+     * @precondition contains(handle)
+     * @complexity O(1)
+     */
+    public long getKey(int handle) {
+        return keys[pos[handle]];
+    }
+
+    /**
+     * @param handle
+     *            the handle of an entry
+     * @return the payload of the entry
+     * @precondition contains(handle)
+     * @complexity O(1)
+     */
+    public int getPayload(int handle) {
+        return payloads[handle];
+    }
+
+    /**
+     * @return true if the array satisfies the d-heap property, false otherwise.
+     * @complexity O(n) where n == size
+     */
+    public boolean isHeap() {
+        for (int i = size - 1; i > 0; i--) {
+            if (keys[i] < keys[DHeap.parent(i, d)] || pos[handles[i]] != i) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Insert an entry to the heap.
+     * 
+     * @param key
+     *            the key of the entry
+     * @param payload
+     *            the payload of the entry
+     * @return the handle of the entry
+     * @precondition size < max_size
+     * @precondition isHeap()
+     * @complexity O(logd(n)) due to heapifyUp()
+     */
+    public int Insert(long key, int payload) {
+        int handle = free[--freeCount];
+        payloads[handle] = payload;
+        keys[size] = key;
+        handles[size] = handle;
+        pos[handle] = size;
+        size++;
+        heapifyUp(size - 1);
+        return handle;
+    }
+
+    /**
+     * @return the minimum key in the heap
+     * @precondition size > 0
+     * @complexity O(1)
+     */
+    public long Get_Min_Key() {
+        return keys[0];
+    }
+
+    /**
+     * @return the payload of the entry with the minimum key
+     * @precondition size > 0
+     * @complexity O(1)
+     */
+    public int Get_Min_Payload() {
+        return payloads[handles[0]];
+    }
+
+    /**
+     * @return the handle of the entry with the minimum key
+     * @precondition size > 0
+     * @complexity O(1)
+     */
+    public int Get_Min_Handle() {
+        return handles[0];
+    }
+
+    /**
+     * Delete the entry with the minimum key, and free its handle.
+     * 
+     * @return the number of comparisons along the function run
+     * @precondition size > 0
+     * @precondition isHeap()
+     * @complexity O(d * logd(n)) due to heapifyDown()
+     */
+    public int Delete_Min() {
+        release(handles[0]);
+        moveLast(0);
+        return heapifyDown(0);
+    }
+
+    /**
+     * Decrease the key of an entry by delta.
+     * 
+     * @param handle
+     *            the handle of the entry
+     * @param delta
+     *            the factor to decrease in
+     * @return the number of comparisons along the function run
+     * @precondition contains(handle)
+     * @precondition delta >= 0
+     * @precondition isHeap()
+     * @complexity O(logd(n)) due to heapifyUp()
+     */
+    public int Decrease_Key(int handle, long delta) {
+        int i = pos[handle];
+        keys[i] -= delta;
+        return heapifyUp(i);
+    }
+
+    /**
+     * Delete an entry from the heap, and free its handle. The last entry takes
+     * its place and is sifted in the direction it needs, rather than the
+     * deleted entry being sifted to the top first.
+     * 
+     * @param handle
+     *            the handle of the entry
+     * @return the number of comparisons along the function run
+     * @precondition contains(handle)
+     * @precondition isHeap()
+     * @complexity O(d * logd(n)) due to heapifyDown()
+     */
+    public int Delete(int handle) {
+        int i = pos[handle];
+        release(handle);
+        moveLast(i);
+        if (i == size) { // the deleted entry was the last one
+            return 0;
+        }
+        int moved = handles[i];
+        int comparisonsCount = heapifyUp(i);
+        return pos[moved] == i ? comparisonsCount + heapifyDown(i) : comparisonsCount;
+    }
+
+    /**
+     * Free a handle.
+     * 
+     * @param handle
+     *            the handle of an entry which is being deleted
+     * @complexity O(1)
+     */
+    private void release(int handle) {
+        pos[handle] = -1;
+        free[freeCount++] = handle;
+    }
+
+    /**
+     * Move the last entry to the given index, which is vacated, and shrink the
+     * heap by one.
+     * 
+     * @param i
+     *            the index
+     * @complexity O(1)
+     */
+    private void moveLast(int i) {
+        size--;
+        if (i < size) {
+            keys[i] = keys[size];
+            handles[i] = handles[size];
+            pos[handles[i]] = i;
+        }
+    }
+
+    /**
+     * Restore the heap property from top to bottom.
+     * 
+     * @param i
+     *            the index
+     * @return the number of comparisons along the function run
+     * @complexity O(d * logd(n)) where d is the heap factor and n == size
+     */
+    private int heapifyDown(int i) {
+        int comparisonsCount = 0;
+        while (true) {
+            int first = DHeap.child(i, 1, d); // the children are first..last-1
+            if (first >= size) {
+                return comparisonsCount + 1;
+            }
+            int last = Math.min(first + d, size);
+            int min = first;
+            for (int j = first + 1; j < last; j++) {
+                if (keys[j] < keys[min]) {
+                    min = j;
+                }
+            }
+            comparisonsCount += last - first; // among the children, then with i
+            if (keys[i] <= keys[min]) {
+                return comparisonsCount;
+            }
+            swap(i, min);
+            i = min;
+        }
+    }
+
+    /**
+     * Restore the heap property from bottom to top.
+     * 
+     * @param i
+     *            the index
+     * @return the number of comparisons along the function run
+     * @complexity O(logd(n)) where d is the heap factor and n == size
+     */
+    private int heapifyUp(int i) {
+        if (i == 0) {
+            return 0;
+        }
+        int comparisonsCount = 1;
+        while (i > 0 && keys[i] < keys[DHeap.parent(i, d)]) {
+            swap(i, DHeap.parent(i, d));
+            i = DHeap.parent(i, d);
+            comparisonsCount++;
+        }
+        return comparisonsCount;
+    }
+
+    /**
+     * Swap the entries at two indexes, and update their positions.
+     * 
+     * @param i
+     *            an index
+     * @param j
+     *            another index
+     * @complexity O(1)
+     */
+    private void swap(int i, int j) {
+        long key = keys[i];
+        keys[i] = keys[j];
+        keys[j] = key;
+        int handle = handles[i];
+        handles[i] = handles[j];
+        handles[j] = handle;
+        pos[handles[i]] = i;
+        pos[handles[j]] = j;
+    }
+
+}
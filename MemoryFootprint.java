@@ -0,0 +1,170 @@
+package memory;
+
+/**
+ * A report of the memory a container uses, as returned by the
+ * memoryFootprint() of WAVLTree, BPlusTree, DHeap and LongKeyDHeap:
+ *
+ * structural bytes: the container itself for the entries it holds (nodes,
+ * array slots, items, and the keys stored in them);
+ *
+ * payload bytes: the values the entries point to (strings);
+ *
+ * slack bytes: capacity allocated but holding no entry (unused array slots,
+ * pooled nodes, tombstones);
+ *
+ * shared bytes: objects shared by all the containers of a kind (like the
+ * sentinel of WAVLTree), not counted in the total.
+ *
+ * The containers keep their counters up to date on every update in O(1), so a
+ * report never walks the heap. The sizes are estimates for a 64 bit HotSpot
+ * JVM with compressed references and compact strings (12 byte object headers,
+ * 16 byte array headers, 4 byte references, 8 byte alignment). Strings are
+ * estimated as Latin-1, from their length alone (see stringBytes()), and a
+ * value shared by several entries is counted once for every entry.
+ */
+public class MemoryFootprint {
+
+    public static final int OBJECT_HEADER = 12;
+    public static final int ARRAY_HEADER = 16;
+    public static final int REFERENCE = 4;
+    public static final int ALIGNMENT = 8;
+
+    // a String has a reference to its bytes, an int hash, a byte coder and a
+    // boolean telling a zero hash
+    private static final int STRING_OBJECT = objectBytes(REFERENCE + 4 + 1 + 1);
+
+    private final String layout;
+    private final long entries;
+    private final long structuralBytes;
+    private final long payloadBytes;
+    private final long slackBytes;
+    private final long sharedBytes;
+
+    /**
+     * @param layout
+     *            the name of the container
+     * @param entries
+     *            the number of entries
+     * @param structuralBytes
+     *            the bytes of the container for its entries
+     * @param payloadBytes
+     *            the bytes of the values of the entries
+     * @param slackBytes
+     *            the bytes allocated but unused
+     * @param sharedBytes
+     *            the bytes shared with other containers
+     */
+    public MemoryFootprint(String layout, long entries, long structuralBytes, long payloadBytes, long slackBytes,
+            long sharedBytes) {
+        this.layout = layout;
+        this.entries = entries;
+        this.structuralBytes = structuralBytes;
+        this.payloadBytes = payloadBytes;
+        this.slackBytes = slackBytes;
+        this.sharedBytes = sharedBytes;
+    }
+
+    /**
+     * @param n
+     *            a number of bytes
+     * @return n rounded up to the object alignment
+     * @complexity O(1)
+     */
+    public static long align(long n) {
+        return (n + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+
+    /**
+     * @param fieldBytes
+     *            the total size of the fields of an object, including the
+     *            inherited ones
+     * @return the size of the object
+     * @complexity O(1)
+     */
+    public static int objectBytes(int fieldBytes) {
+        return (int) align(OBJECT_HEADER + fieldBytes);
+    }
+
+    /**
+     * @param length
+     *            the length of an array
+     * @param elementBytes
+     *            the size of an element
+     * @return the size of the array
+     * @complexity O(1)
+     */
+    public static long arrayBytes(long length, int elementBytes) {
+        return align(ARRAY_HEADER + length * elementBytes);
+    }
+
+    /**
+     * Estimate the size of a string from its length alone, as if it were
+     * Latin-1 (one byte per char). A string with a char above 0xFF is stored
+     * in two bytes per char, so it is undercounted by about its length.
+     *
+     * @param s
+     *            a string, or null
+     * @return the size of the string and of its bytes, 0 for null
+     * @complexity O(1)
+     */
+    public static long stringBytes(String s) {
+        return s == null ? 0 : STRING_OBJECT + arrayBytes(s.length(), 1);
+    }
+
+    /**
+     * @return the name of the container
+     */
+    public String getLayout() {
+        return layout;
+    }
+
+    public long getEntries() {
+        return entries;
+    }
+
+    public long getStructuralBytes() {
+        return structuralBytes;
+    }
+
+    public long getPayloadBytes() {
+        return payloadBytes;
+    }
+
+    public long getSlackBytes() {
+        return slackBytes;
+    }
+
+    public long getSharedBytes() {
+        return sharedBytes;
+    }
+
+    /**
+     * @return the bytes the container accounts for, without the shared ones
+     */
+    public long getTotalBytes() {
+        return structuralBytes + payloadBytes + slackBytes;
+    }
+
+    /**
+     * @return the total bytes per entry, 0 if there are no entries
+     */
+    public double bytesPerEntry() {
+        return entries == 0 ? 0 : (double) getTotalBytes() / entries;
+    }
+
+    /**
+     * @return the structural and slack bytes per entry, what the container
+     *         costs beyond the values themselves, 0 if there are no entries
+     */
+    public double overheadPerEntry() {
+        return entries == 0 ? 0 : (double) (structuralBytes + slackBytes) / entries;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %d entries, %d bytes (structural %d, payload %d, slack %d, shared %d), %.1f bytes per entry",
+                layout, entries, getTotalBytes(), structuralBytes, payloadBytes, slackBytes, sharedBytes,
+                bytesPerEntry());
+    }
+
+}
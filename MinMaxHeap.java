@@ -0,0 +1,369 @@
+package dheap;
+
+/**
+ * A d-ary min-max heap: the levels of the tree alternate between min levels
+ * (starting with the root) and max levels. An item on a min level has the
+ * minimum key of its subtree, and an item on a max level the maximum, so the
+ * minimum is at the root and the maximum is one of its children. Both ends
+ * are kept in one array of items, with no allocation per operation.
+ */
+public class MinMaxHeap {
+
+    private int size;
+    private int max_size;
+    private int d;
+    private DHeap_Item[] array;
+    private int[] keys; // keys[i] == array[i].getKey(), so sifts read no items
+    private int comparisonsCount; // along the current operation
+
+    /**
+     * @param m_d
+     *            the heap factor
+     * @param m_size
+     *            the maximum number of items
+     * @precondition m_d >= 2
+     */
+    public MinMaxHeap(int m_d, int m_size) {
+        max_size = m_size;
+        d = m_d;
+        array = new DHeap_Item[max_size];
+        keys = new int[max_size];
+        size = 0;
+    }
+
+    /**
+     * @return the number of elements in the heap.
+     * @complexity O(1)
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return true if the array satisfies the min-max heap property, false
+     *         otherwise.
+     * @complexity O(n * logd(n)) where n == size
+     */
+    public boolean isHeap() {
+        for (int i = size - 1; i > 0; i--) {
+            int p = DHeap.parent(i, d);
+            int g = p == 0 ? -1 : DHeap.parent(p, d);
+            boolean min = isMinLevel(i);
+            if (array[i].getPos() != i || keys[i] != array[i].getKey()) {
+                return false;
+            }
+            if (min ? keys[i] > keys[p] : keys[i] < keys[p]) {
+                return false;
+            }
+            if (g != -1 && (min ? keys[i] < keys[g] : keys[i] > keys[g])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param i
+     *            the index
+     * @return true if the index is on a min level, false if on a max level
+     * @complexity O(logd(i))
+     */
+    private boolean isMinLevel(int i) {
+        boolean min = true;
+        while (i > 0) {
+            i = DHeap.parent(i, d);
+            min = !min;
+        }
+        return min;
+    }
+
+    /**
+     * @return the item with the minimum key in the heap
+     * @precondition size > 0
+     * @complexity O(1)
+     */
+    public DHeap_Item Get_Min() {
+        return array[0];
+    }
+
+    /**
+     * @return the index of the item with the maximum key
+     * @precondition size > 0
+     * @complexity O(d)
+     */
+    private int maxIndex() {
+        return size == 1 ? 0 : extreme(1, Math.min(1 + d, size), false);
+    }
+
+    /**
+     * @return the item with the maximum key in the heap
+     * @precondition size > 0
+     * @complexity O(d)
+     */
+    public DHeap_Item Get_Max() {
+        return array[maxIndex()];
+    }
+
+    /**
+     * Insert the given item to the heap.
+     * 
+     * @param item
+     *            the item to insert
+     * @return the number of comparisons along the function run
+     * @precondition item != null
+     * @precondition size < max_size
+     * @precondition isHeap()
+     * @complexity O(logd(n)) due to bubbleUp()
+     */
+    public int Insert(DHeap_Item item) {
+        comparisonsCount = 0;
+        array[size] = item;
+        keys[size] = item.getKey();
+        item.setPos(size);
+        size++;
+        bubbleUp(size - 1);
+        return comparisonsCount;
+    }
+
+    /**
+     * Delete the item with the minimum key in the heap.
+     * 
+     * @return the number of comparisons along the function run
+     * @precondition size > 0
+     * @precondition isHeap()
+     * @complexity O(d^2 * logd(n)) due to trickleDown()
+     */
+    public int Delete_Min() {
+        comparisonsCount = 0;
+        remove(0);
+        return comparisonsCount;
+    }
+
+    /**
+     * Delete the item with the maximum key in the heap.
+     * 
+     * @return the number of comparisons along the function run
+     * @precondition size > 0
+     * @precondition isHeap()
+     * @complexity O(d^2 * logd(n)) due to trickleDown()
+     */
+    public int Delete_Max() {
+        comparisonsCount = 0;
+        remove(maxIndex());
+        return comparisonsCount;
+    }
+
+    /**
+     * Decrease the key of the given item by delta.
+     * 
+     * @param item
+     *            the item to decrease
+     * @param delta
+     *            the factor to decrease in
+     * @return the number of comparisons along the function run
+     * @precondition item.pos < size
+     * @precondition delta >= 0
+     * @precondition isHeap()
+     * @complexity O(d^2 * logd(n)) due to fix()
+     */
+    public int Decrease_Key(DHeap_Item item, int delta) {
+        comparisonsCount = 0;
+        item.setKey(item.getKey() - delta);
+        keys[item.getPos()] = item.getKey();
+        fix(item.getPos());
+        return comparisonsCount;
+    }
+
+    /**
+     * Delete the given item from the heap.
+     * 
+     * @param item
+     *            the item to delete
+     * @return the number of comparisons along the function run
+     * @precondition item.pos < size
+     * @precondition isHeap()
+     * @complexity O(d^2 * logd(n)) due to fix()
+     */
+    public int Delete(DHeap_Item item) {
+        comparisonsCount = 0;
+        remove(item.getPos());
+        return comparisonsCount;
+    }
+
+    /**
+     * Remove the item at the given index: the last item takes its place.
+     * 
+     * @param i
+     *            the index
+     * @complexity O(d^2 * logd(n)) due to fix()
+     */
+    private void remove(int i) {
+        array[i].setPos(-1);
+        size--;
+        if (i < size) {
+            array[i] = array[size];
+            keys[i] = keys[size];
+            array[i].setPos(i);
+            array[size] = null;
+            fix(i);
+        } else {
+            array[i] = null;
+        }
+    }
+
+    /**
+     * Restore the min-max heap property around an index whose key changed to
+     * any value: the key may move up past its parent (to the other kind of
+     * levels) or along its own kind of levels, and the key which lands on the
+     * index then trickles down.
+     * 
+     * @param i
+     *            the index
+     * @complexity O(d^2 * logd(n))
+     */
+    private void fix(int i) {
+        boolean min = isMinLevel(i);
+        if (i > 0) {
+            int p = DHeap.parent(i, d);
+            comparisonsCount++;
+            if (min ? keys[i] > keys[p] : keys[i] < keys[p]) {
+                swapItems(i, p);
+                bubbleUp(p, !min);
+            } else {
+                bubbleUp(i, min);
+            }
+        }
+        trickleDown(i, min);
+    }
+
+    /**
+     * Move the new leaf at the given index up to its place.
+     * 
+     * @param i
+     *            the index
+     * @complexity O(logd(n))
+     */
+    private void bubbleUp(int i) {
+        if (i == 0) {
+            return;
+        }
+        boolean min = isMinLevel(i);
+        int p = DHeap.parent(i, d);
+        comparisonsCount++;
+        if (min ? keys[i] > keys[p] : keys[i] < keys[p]) {
+            swapItems(i, p);
+            bubbleUp(p, !min);
+        } else {
+            bubbleUp(i, min);
+        }
+    }
+
+    /**
+     * Move the key at the given index up along the levels of its kind, i.e.
+     * from grandparent to grandparent.
+     * 
+     * @param i
+     *            the index
+     * @param min
+     *            true if the index is on a min level
+     * @complexity O(logd(n))
+     */
+    private void bubbleUp(int i, boolean min) {
+        while (i > d) { // there is a grandparent
+            int g = DHeap.parent(DHeap.parent(i, d), d);
+            comparisonsCount++;
+            if (min ? keys[i] >= keys[g] : keys[i] <= keys[g]) {
+                return;
+            }
+            swapItems(i, g);
+            i = g;
+        }
+    }
+
+    /**
+     * Move the key at the given index down to its place, assuming the
+     * subtrees below it are min-max heaps.
+     * 
+     * @param i
+     *            the index
+     * @param min
+     *            true if the index is on a min level
+     * @complexity O(d^2 * logd(n)), as every step scans the children and the
+     *             grandchildren of an index and moves two levels down
+     */
+    private void trickleDown(int i, boolean min) {
+        while (true) {
+            int first = DHeap.child(i, 1, d);
+            if (first >= size) {
+                return;
+            }
+            // the children, then the grandchildren, are consecutive
+            int m = extreme(first, Math.min(first + d, size), min);
+            int firstGrandchild = DHeap.child(first, 1, d);
+            if (firstGrandchild < size) {
+                int g = extreme(firstGrandchild, Math.min(firstGrandchild + d * d, size), min);
+                comparisonsCount++;
+                if (min ? keys[g] < keys[m] : keys[g] > keys[m]) {
+                    m = g;
+                }
+            }
+            comparisonsCount++;
+            if (min ? keys[m] >= keys[i] : keys[m] <= keys[i]) {
+                return;
+            }
+            swapItems(i, m);
+            if (m < firstGrandchild) { // a child: its subtree has no grandchildren of i
+                return;
+            }
+            int p = DHeap.parent(m, d);
+            comparisonsCount++;
+            if (min ? keys[m] > keys[p] : keys[m] < keys[p]) {
+                swapItems(m, p); // the key does not fit below its parent
+            }
+            i = m;
+        }
+    }
+
+    /**
+     * @param first
+     *            the first index of the range
+     * @param last
+     *            the index following the range
+     * @param min
+     *            true for the minimum, false for the maximum
+     * @return the index of the minimum (or maximum) key in the range
+     * @precondition first < last
+     * @complexity O(last - first)
+     */
+    private int extreme(int first, int last, boolean min) {
+        int m = first;
+        for (int j = first + 1; j < last; j++) {
+            if (min ? keys[j] < keys[m] : keys[j] > keys[m]) {
+                m = j;
+            }
+        }
+        comparisonsCount += last - first - 1;
+        return m;
+    }
+
+    /**
+     * Swap items in the array and update their pos property.
+     * 
+     * @param i
+     *            an item
+     * @param j
+     *            another item
+     * @complexity O(1)
+     */
+    private void swapItems(int i, int j) {
+        DHeap_Item temp = array[i];
+        array[i] = array[j];
+        array[i].setPos(i);
+        array[j] = temp;
+        array[j].setPos(j);
+        int key = keys[i];
+        keys[i] = keys[j];
+        keys[j] = key;
+    }
+
+}
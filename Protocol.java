@@ -0,0 +1,101 @@
+package server;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The binary protocol of IndexServer. Every request and every response is a
+ * frame: the length of the rest of the frame (an int), then the opcode of a
+ * request or the status of a response (a byte), then the arguments or the
+ * results. Ints are big endian, and strings are their length in bytes (-1 for
+ * null) followed by their UTF-8 bytes.
+ *
+ * A client may send any number of requests without waiting: the responses
+ * come back in the order of the requests.
+ *
+ * <pre>
+ * INSERT            key, value           -> OK, rebalances (-1 if present)
+ * DELETE            key                  -> OK, rebalances (-1 if absent)
+ * SEARCH            key                  -> OK, value | NOT_FOUND
+ * SELECT            i                    -> OK, value | NOT_FOUND
+ * RANGE             lo, hi, limit        -> OK, count, min(count, limit) values
+ * SIZE                                   -> OK, size
+ * HEAP_INSERT       key, name            -> OK, id | ERROR if full
+ * HEAP_DELETE_MIN                        -> OK, id, key, name | NOT_FOUND
+ * HEAP_DECREASE_KEY id, delta            -> OK, comparisons | NOT_FOUND
+ * </pre>
+ */
+public final class Protocol {
+
+    public static final byte INSERT = 1;
+    public static final byte DELETE = 2;
+    public static final byte SEARCH = 3;
+    public static final byte SELECT = 4;
+    public static final byte RANGE = 5;
+    public static final byte SIZE = 6;
+    public static final byte HEAP_INSERT = 16;
+    public static final byte HEAP_DELETE_MIN = 17;
+    public static final byte HEAP_DECREASE_KEY = 18;
+
+    public static final byte OK = 0;
+    public static final byte NOT_FOUND = 1;
+    public static final byte ERROR = 2;
+
+    public static final int MAX_FRAME = 1 << 20; // longer frames close the connection
+
+    private Protocol() {
+    }
+
+    /**
+     * @param b
+     *            a buffer in write mode
+     * @param n
+     *            the number of bytes to be written
+     * @return the buffer, or a copy of it with room for n more bytes
+     * @complexity O(1) amortized
+     */
+    static ByteBuffer ensure(ByteBuffer b, int n) {
+        if (b.remaining() >= n) {
+            return b;
+        }
+        ByteBuffer bigger = ByteBuffer.allocate(Math.max(2 * b.capacity(), b.position() + n));
+        b.flip();
+        bigger.put(b);
+        return bigger;
+    }
+
+    /**
+     * @return the number of bytes putString() writes for s
+     */
+    static int stringLength(String s) {
+        return 4 + (s == null ? 0 : 3 * s.length()); // an upper bound in UTF-8
+    }
+
+    static void putString(ByteBuffer b, String s) {
+        if (s == null) {
+            b.putInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        b.putInt(bytes.length);
+        b.put(bytes);
+    }
+
+    /**
+     * @throws BufferUnderflowException
+     *             if the string is longer than the rest of the buffer
+     */
+    static String getString(ByteBuffer b) {
+        int n = b.getInt();
+        if (n < 0) {
+            return null;
+        } else if (n > b.remaining()) { // it would read the frames which follow
+            throw new BufferUnderflowException();
+        }
+        String s = new String(b.array(), b.arrayOffset() + b.position(), n, StandardCharsets.UTF_8);
+        b.position(b.position() + n);
+        return s;
+    }
+
+}
@@ -0,0 +1,178 @@
+package dheap;
+
+/**
+ * A radix heap: a priority queue for monotone keys, i.e. no key is ever
+ * smaller than the last minimum found by Get_Min() or Delete_Min(). Every
+ * item is kept in the bucket of the highest bit in which its key differs from
+ * that minimum, so there are 33 buckets, and the items of a bucket only move
+ * to lower buckets. Delete_Min therefore costs O(log(C)) amortized, where C
+ * is the range of the keys, with no comparisons but those of a single bucket.
+ * 
+ * The monotone precondition is checked by assertions (run with -ea).
+ */
+public class RadixHeap {
+
+    private static final int BUCKETS = 33;
+
+    private final DHeap_Bucket[] buckets = new DHeap_Bucket[BUCKETS];
+    private long occupied; // bit b is set iff buckets[b] is not empty
+    private int last = Integer.MIN_VALUE; // the last minimum found
+    private int size;
+
+    public RadixHeap() {
+        for (int b = 0; b < BUCKETS; b++) {
+            buckets[b] = new DHeap_Bucket();
+        }
+    }
+
+    /**
+     * @return the number of elements in the heap.
+     * @complexity O(1)
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @param key
+     *            a key
+     * @return the index of the bucket of the key: 0 if it equals the last
+     *         minimum, else 1 + the highest bit in which they differ
+     * @complexity O(1)
+     */
+    private int bucket(int key) {
+        // the same as for the keys with a flipped sign bit, which are ordered
+        // as unsigned ints
+        return 32 - Integer.numberOfLeadingZeros(key ^ last);
+    }
+
+    /**
+     * @param item
+     *            the item to add
+     * @complexity O(1) amortized
+     */
+    private void add(DHeap_Item item) {
+        int b = bucket(item.getKey());
+        buckets[b].add(item);
+        occupied |= 1L << b;
+    }
+
+    /**
+     * @param item
+     *            the item to remove
+     * @complexity O(1)
+     */
+    private void remove(DHeap_Item item) {
+        int b = bucket(item.getKey());
+        buckets[b].remove(item);
+        if (buckets[b].size() == 0) {
+            occupied &= ~(1L << b);
+        }
+    }
+
+    /**
+     * Insert the given item to the heap.
+     * 
+     * @param item
+     *            the item to insert
+     * @return the number of comparisons along the function run
+     * @precondition item != null
+     * @precondition item.getKey() >= the last minimum
+     * @complexity O(1) amortized
+     */
+    public int Insert(DHeap_Item item) {
+        assert item.getKey() >= last : "key " + item.getKey() + " is below the last minimum " + last;
+        add(item);
+        size++;
+        return 0;
+    }
+
+    /**
+     * Make the minimum the last minimum, so that bucket 0 holds the minimum
+     * items: the lowest nonempty bucket is emptied into the lower buckets.
+     * 
+     * @return the number of comparisons along the function run
+     * @precondition size > 0
+     * @complexity O(log(C)) amortized, as every item moves down at most 32
+     *             times
+     */
+    private int pull() {
+        if ((occupied & 1) != 0) {
+            return 0;
+        }
+        int b = Long.numberOfTrailingZeros(occupied);
+        DHeap_Bucket bucket = buckets[b];
+        int comparisonsCount = bucket.size() - 1;
+        int min = bucket.get(0).getKey();
+        for (int i = 1; i < bucket.size(); i++) {
+            min = Math.min(min, bucket.get(i).getKey());
+        }
+        last = min;
+        for (int i = 0; i < bucket.size(); i++) {
+            add(bucket.get(i)); // to a lower bucket
+        }
+        bucket.clear();
+        occupied &= ~(1L << b);
+        return comparisonsCount;
+    }
+
+    /**
+     * Delete the minimum item in the heap.
+     * 
+     * @return the number of comparisons along the function run
+     * @precondition size > 0
+     * @complexity O(log(C)) amortized, where C is the range of the keys
+     */
+    public int Delete_Min() {
+        int comparisonsCount = pull();
+        remove(buckets[0].get(buckets[0].size() - 1));
+        size--;
+        return comparisonsCount;
+    }
+
+    /**
+     * @return the minimum item in the heap (the one Delete_Min() deletes)
+     * @precondition size > 0
+     * @complexity O(log(C)) amortized, where C is the range of the keys
+     */
+    public DHeap_Item Get_Min() {
+        pull();
+        return buckets[0].get(buckets[0].size() - 1);
+    }
+
+    /**
+     * Decrease the key of the given item by delta.
+     * 
+     * @param item
+     *            the item to decrease
+     * @param delta
+     *            the factor to decrease in
+     * @return the number of comparisons along the function run
+     * @precondition the item is in the heap
+     * @precondition item.getKey() - delta >= the last minimum
+     * @complexity O(1)
+     */
+    public int Decrease_Key(DHeap_Item item, int delta) {
+        assert item.getKey() - delta >= last : "key " + (item.getKey() - delta) + " is below the last minimum " + last;
+        remove(item);
+        item.setKey(item.getKey() - delta);
+        add(item);
+        return 0;
+    }
+
+    /**
+     * Delete the given item from the heap.
+     * 
+     * @param item
+     *            the item to delete
+     * @return the number of comparisons along the function run
+     * @precondition the item is in the heap
+     * @complexity O(1)
+     */
+    public int Delete(DHeap_Item item) {
+        remove(item);
+        size--;
+        return 0;
+    }
+
+}
@@ -0,0 +1,165 @@
+package trace;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import dheap.DHeap;
+import dheap.DHeap_Item;
+
+/**
+ * A DHeap which records every Insert(), Delete_Min(), Decrease_Key(),
+ * Increase_Key(), Update_Key() and Delete() into a trace before performing
+ * it. The items are recorded by id, the order of their insertion,
+ * arrayToHeap() is recorded as the insertion of every item, and
+ * Increase_Key() as the update of the item to its new key.
+ *
+ * An Item keeps its id in a field, so recording it allocates nothing. The ids
+ * of other items are kept in an identity map, which boxes them.
+ */
+public class RecordingDHeap extends DHeap {
+
+    /**
+     * A heap item which holds its id in the trace.
+     */
+    public static class Item extends DHeap_Item {
+
+        private int id = -1;
+
+        public Item(String name1, int key1) {
+            super(name1, key1);
+        }
+
+    }
+
+    private final TraceRecorder recorder;
+    private final Map<DHeap_Item, Integer> ids = new IdentityHashMap<>(); // of items other than Items
+    private boolean recording = true; // false while the heap calls its own public methods
+
+    /**
+     * @param m_d
+     *            the heap factor
+     * @param m_size
+     *            the maximum number of items
+     * @param recorder
+     *            the recorder of the operations
+     */
+    public RecordingDHeap(int m_d, int m_size, TraceRecorder recorder) {
+        super(m_d, m_size);
+        this.recorder = recorder;
+    }
+
+    @Override
+    public int arrayToHeap(DHeap_Item[] array1) {
+        ids.clear();
+        try {
+            for (DHeap_Item item : array1) {
+                putId(item, recorder.heapInsert(item.getKey()));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return super.arrayToHeap(array1);
+    }
+
+    @Override
+    public int Insert(DHeap_Item item) {
+        try {
+            putId(item, recorder.heapInsert(item.getKey()));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return super.Insert(item);
+    }
+
+    @Override
+    public int Delete_Min() {
+        if (!recording) {
+            return super.Delete_Min();
+        }
+        try {
+            recorder.heapDeleteMin();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        removeId(super.Get_Min());
+        return super.Delete_Min();
+    }
+
+    @Override
+    public int Decrease_Key(DHeap_Item item, int delta) {
+        if (!recording) {
+            return super.Decrease_Key(item, delta);
+        }
+        try {
+            recorder.heapDecreaseKey(getId(item), delta);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return super.Decrease_Key(item, delta);
+    }
+
+    @Override
+    public int Increase_Key(DHeap_Item item, int delta) {
+        try {
+            recorder.heapUpdateKey(getId(item), item.getKey() + delta);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return super.Increase_Key(item, delta);
+    }
+
+    @Override
+    public int Update_Key(DHeap_Item item, int key) {
+        try {
+            recorder.heapUpdateKey(getId(item), key);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return super.Update_Key(item, key);
+    }
+
+    @Override
+    public int Delete(DHeap_Item item) {
+        try {
+            recorder.heapDelete(removeId(item));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        recording = false; // an eager Delete() is a Decrease_Key() and a Delete_Min()
+        try {
+            return super.Delete(item);
+        } finally {
+            recording = true;
+        }
+    }
+
+    private void putId(DHeap_Item item, int id) {
+        if (item instanceof Item) {
+            ((Item) item).id = id;
+        } else {
+            ids.put(item, id);
+        }
+    }
+
+    /**
+     * @return the id of the item
+     */
+    private int getId(DHeap_Item item) {
+        return item instanceof Item ? ((Item) item).id : ids.get(item);
+    }
+
+    /**
+     * @return the id of the item, which is forgotten
+     */
+    private int removeId(DHeap_Item item) {
+        if (item instanceof Item) {
+            int id = ((Item) item).id;
+            ((Item) item).id = -1;
+            return id;
+        }
+        return ids.remove(item);
+    }
+
+}
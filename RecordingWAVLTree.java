@@ -0,0 +1,95 @@
+package trace;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import wavltree.WAVLTree;
+
+/**
+ * A WAVLTree which records every insert(), delete(), search() and select()
+ * into a trace before performing it. An applyBatch() is recorded as its
+ * single insertions and deletions, sparse or dense, so a replay reaches the
+ * same keys (by other work: key by key, rather than as a batch).
+ */
+public class RecordingWAVLTree extends WAVLTree {
+
+    private final TraceRecorder recorder;
+    private boolean recording = true; // false while the tree calls its own public methods
+
+    /**
+     * @param recorder
+     *            the recorder of the operations
+     */
+    public RecordingWAVLTree(TraceRecorder recorder) {
+        super();
+        this.recorder = recorder;
+    }
+
+    @Override
+    public int insert(int k, String i) {
+        if (!recording) {
+            return super.insert(k, i);
+        }
+        try {
+            recorder.treeInsert(k);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return super.insert(k, i);
+    }
+
+    @Override
+    public int delete(int k) {
+        if (!recording) {
+            return super.delete(k);
+        }
+        try {
+            recorder.treeDelete(k);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return super.delete(k);
+    }
+
+    @Override
+    public String search(int k) {
+        try {
+            recorder.treeSearch(k);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return super.search(k);
+    }
+
+    @Override
+    public int applyBatch(int[] keys, String[] values, boolean[] isDelete) {
+        try {
+            for (int j = 0; j < keys.length; j++) {
+                if (isDelete != null && isDelete[j]) {
+                    recorder.treeDelete(keys[j]);
+                } else {
+                    recorder.treeInsert(keys[j]);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        recording = false; // a sparse batch calls insert() and delete()
+        try {
+            return super.applyBatch(keys, values, isDelete);
+        } finally {
+            recording = true;
+        }
+    }
+
+    @Override
+    public String select(int i) {
+        try {
+            recorder.treeSelect(i);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return super.select(i);
+    }
+
+}
@@ -0,0 +1,489 @@
+package wavltree;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A thread-safe index of distinct integer keys and string info, partitioned
+ * by key range into WAVLTree shards, each with its own read-write lock, so
+ * writes to different ranges proceed in parallel, and reads of a shard share
+ * its lock. A sorted routing array maps a key to its shard, and every shard
+ * keeps its size in a counter of its own, padded from those of the other
+ * shards: writers to different shards share no memory but the immutable
+ * routing. The global order statistics sum the counters: select(i) finds
+ * the shard of the i'th key and rank(k) adds the sizes of the shards before
+ * the shard of k.
+ *
+ * A shard which grows beyond maxShardSize is split in two, and two
+ * neighboring shards which shrink to a quarter of it together are merged, by
+ * a background thread. The new shards are built with WAVLTree.buildSorted()
+ * while the old ones stay locked, and the routing is then replaced by a
+ * volatile write: an operation which reached a replaced shard routes again.
+ *
+ * ShardedWAVLIndexMeasurements measures the throughput from 1 thread to the
+ * number of cores.
+ *
+ * size(), select() and rank() are exact when no write is in progress, and
+ * weakly consistent otherwise (like the size of a concurrent map).
+ */
+public class ShardedWAVLIndex implements AutoCloseable {
+
+    private final int maxShardSize;
+    private volatile Routing routing;
+
+    private final ReentrantLock rebalanceLock = new ReentrantLock(); // one rebalance at a time
+    private final AtomicBoolean rebalanceScheduled = new AtomicBoolean();
+    private final ExecutorService rebalancer;
+
+    /**
+     * Initialize an empty index of a single shard.
+     *
+     * @param maxShardSize
+     *            the size above which a shard is split
+     * @precondition maxShardSize >= 2
+     */
+    public ShardedWAVLIndex(int maxShardSize) {
+        this(new int[0], maxShardSize);
+    }
+
+    /**
+     * Initialize an empty index, already split at the given keys.
+     *
+     * @param bounds
+     *            the smallest key of every shard but the first
+     * @param maxShardSize
+     *            the size above which a shard is split
+     * @precondition bounds is strictly increasing
+     * @precondition maxShardSize >= 2
+     */
+    public ShardedWAVLIndex(int[] bounds, int maxShardSize) {
+        this.maxShardSize = maxShardSize;
+        int[] lows = new int[bounds.length + 1];
+        Shard[] shards = new Shard[bounds.length + 1];
+        lows[0] = Integer.MIN_VALUE;
+        System.arraycopy(bounds, 0, lows, 1, bounds.length);
+        for (int j = 0; j < shards.length; j++) {
+            shards[j] = new Shard(new WAVLTree());
+        }
+        routing = new Routing(lows, shards);
+        rebalancer = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "wavl-index-rebalancer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Stop the background rebalancing. The index stays usable, and
+     * rebalance() can still be called explicitly.
+     */
+    @Override
+    public void close() {
+        rebalancer.shutdown();
+    }
+
+    /**
+     * @param k
+     *            the key
+     * @return the value associated with the given key if the key is in the
+     *         index, else null
+     * @complexity O(log(m) + log(n)) where m is the number of shards and n
+     *             the size of the shard
+     */
+    public String search(int k) {
+        while (true) {
+            Shard s = routing.shards[routing.route(k)];
+            s.lock.readLock().lock();
+            try {
+                if (!s.retired) {
+                    return s.tree.search(k);
+                }
+            } finally {
+                s.lock.readLock().unlock();
+            }
+            Thread.yield(); // the new routing is about to be installed
+        }
+    }
+
+    /**
+     * Inserts the specified key-value pair into the index. Does not change the
+     * index if the key already exists.
+     *
+     * @param k
+     *            the key
+     * @param i
+     *            the value
+     * @return the number of re-balancing operations in the shard, -1 if an
+     *         item with key k already exists in the index
+     * @complexity O(log(m) + log(n)) where m is the number of shards and n
+     *             the size of the shard
+     */
+    public int insert(int k, String i) {
+        while (true) {
+            Shard s = routing.shards[routing.route(k)];
+            s.lock.writeLock().lock();
+            try {
+                if (!s.retired) {
+                    int result = s.tree.insert(k, i);
+                    if (result != -1) {
+                        s.size = s.tree.size();
+                        if (s.size > maxShardSize) {
+                            scheduleRebalance();
+                        }
+                    }
+                    return result;
+                }
+            } finally {
+                s.lock.writeLock().unlock();
+            }
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Removes the specified key and its value from the index, if it is there.
+     *
+     * @param k
+     *            the key
+     * @return the number of re-balancing operations in the shard, or -1 if k
+     *         was not found in the index
+     * @complexity O(log(m) + log(n)) where m is the number of shards and n
+     *             the size of the shard
+     */
+    public int delete(int k) {
+        while (true) {
+            Routing r = routing;
+            Shard s = r.shards[r.route(k)];
+            s.lock.writeLock().lock();
+            try {
+                if (!s.retired) {
+                    int result = s.tree.delete(k);
+                    if (result != -1) {
+                        s.size = s.tree.size();
+                        if (s.size < maxShardSize / 8 && r.shards.length > 1) {
+                            scheduleRebalance();
+                        }
+                    }
+                    return result;
+                }
+            } finally {
+                s.lock.writeLock().unlock();
+            }
+            Thread.yield();
+        }
+    }
+
+    /**
+     * @param i
+     *            the rank, starting from 1
+     * @return the value of the i'th smallest key, null if the index has less
+     *         than i keys (or i < 1)
+     * @complexity O(m + log(n)) where m is the number of shards and n the
+     *             size of the shard
+     */
+    public String select(int i) {
+        while (true) {
+            Routing r = routing;
+            if (i < 1 || i > r.prefix(r.shards.length)) {
+                return null;
+            }
+            int j = r.find(i);
+            int local = i - r.prefix(j);
+            Shard s = r.shards[j];
+            s.lock.readLock().lock();
+            try {
+                if (!s.retired) {
+                    return s.tree.select(local);
+                }
+            } finally {
+                s.lock.readLock().unlock();
+            }
+            Thread.yield();
+        }
+    }
+
+    /**
+     * @param k
+     *            the key
+     * @return the number of keys in the index which are smaller than k
+     * @complexity O(m + log(n)) where m is the number of shards and n the
+     *             size of the shard
+     */
+    public int rank(int k) {
+        while (true) {
+            Routing r = routing;
+            int j = r.route(k);
+            Shard s = r.shards[j];
+            s.lock.readLock().lock();
+            try {
+                if (!s.retired) {
+                    return r.prefix(j) + s.tree.rank(k);
+                }
+            } finally {
+                s.lock.readLock().unlock();
+            }
+            Thread.yield();
+        }
+    }
+
+    /**
+     * @return the number of keys in the index
+     * @complexity O(m) where m is the number of shards
+     */
+    public int size() {
+        Routing r = routing;
+        return r.prefix(r.shards.length);
+    }
+
+    /**
+     * @return the number of shards
+     * @complexity O(1)
+     */
+    public int shards() {
+        return routing.shards.length;
+    }
+
+    /**
+     * Run rebalance() on the background thread, unless it is already
+     * scheduled.
+     */
+    private void scheduleRebalance() {
+        if (rebalancer.isShutdown() || !rebalanceScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        rebalancer.execute(() -> {
+            rebalanceScheduled.set(false); // a write from now on schedules again
+            rebalance();
+        });
+    }
+
+    /**
+     * Split every shard larger than maxShardSize, and merge neighboring shards
+     * whose total size is below a quarter of it, until there are none.
+     *
+     * @return the number of splits and merges
+     * @complexity O(n) per split or merge, where n is the size of the shards
+     *             involved, during which only those shards are locked
+     */
+    public int rebalance() {
+        rebalanceLock.lock();
+        try {
+            int changes = 0;
+            while (rebalanceOnce()) {
+                changes++;
+            }
+            return changes;
+        } finally {
+            rebalanceLock.unlock();
+        }
+    }
+
+    /**
+     * Perform one split or merge, if any is needed.
+     *
+     * @return true if a shard was split or merged, false otherwise
+     * @precondition rebalanceLock is held, so the routing changes only here
+     */
+    private boolean rebalanceOnce() {
+        Routing r = routing;
+        int split = -1;
+        int merge = -1;
+        for (int j = 0; j < r.shards.length && split == -1; j++) {
+            int size = r.shards[j].size;
+            if (size > maxShardSize) {
+                split = j;
+            } else if (merge == -1 && j + 1 < r.shards.length && size + r.shards[j + 1].size < maxShardSize / 4) {
+                merge = j;
+            }
+        }
+        if (split != -1) {
+            split(r, split);
+            return true;
+        } else if (merge != -1) {
+            merge(r, merge);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Replace a shard by two shards of half its keys each.
+     *
+     * @param r
+     *            the routing
+     * @param j
+     *            the index of the shard
+     */
+    private void split(Routing r, int j) {
+        Shard s = r.shards[j];
+        WAVLTree left;
+        WAVLTree right;
+        int bound;
+        s.lock.writeLock().lock();
+        try {
+            int[] keys = s.tree.keysToArray();
+            String[] values = s.tree.infoToArray();
+            int mid = keys.length / 2;
+            left = WAVLTree.buildSorted(keys, values, 0, mid);
+            right = WAVLTree.buildSorted(keys, values, mid, keys.length);
+            bound = keys[mid];
+            s.retired = true;
+        } finally {
+            s.lock.writeLock().unlock();
+        }
+        int m = r.shards.length;
+        int[] lows = new int[m + 1];
+        Shard[] shards = new Shard[m + 1];
+        System.arraycopy(r.lows, 0, lows, 0, j + 1);
+        System.arraycopy(r.shards, 0, shards, 0, j);
+        lows[j + 1] = bound;
+        shards[j] = new Shard(left);
+        shards[j + 1] = new Shard(right);
+        System.arraycopy(r.lows, j + 1, lows, j + 2, m - j - 1);
+        System.arraycopy(r.shards, j + 1, shards, j + 2, m - j - 1);
+        swap(lows, shards);
+    }
+
+    /**
+     * Replace two neighboring shards by a single shard of their keys.
+     *
+     * @param r
+     *            the routing
+     * @param j
+     *            the index of the first shard
+     */
+    private void merge(Routing r, int j) {
+        Shard a = r.shards[j];
+        Shard b = r.shards[j + 1];
+        WAVLTree merged;
+        a.lock.writeLock().lock(); // by increasing index, like no other thread holds two
+        b.lock.writeLock().lock();
+        try {
+            int n = a.tree.size();
+            int[] keys = new int[n + b.tree.size()];
+            String[] values = new String[keys.length];
+            a.tree.keysToArray(keys, a.tree.root, 0);
+            a.tree.infoToArray(values, a.tree.root, 0);
+            b.tree.keysToArray(keys, b.tree.root, n);
+            b.tree.infoToArray(values, b.tree.root, n);
+            merged = WAVLTree.buildSorted(keys, values, 0, keys.length);
+            a.retired = true;
+            b.retired = true;
+        } finally {
+            b.lock.writeLock().unlock();
+            a.lock.writeLock().unlock();
+        }
+        int m = r.shards.length;
+        int[] lows = new int[m - 1];
+        Shard[] shards = new Shard[m - 1];
+        System.arraycopy(r.lows, 0, lows, 0, j + 1);
+        System.arraycopy(r.shards, 0, shards, 0, j);
+        shards[j] = new Shard(merged);
+        System.arraycopy(r.lows, j + 2, lows, j + 1, m - j - 2);
+        System.arraycopy(r.shards, j + 2, shards, j + 1, m - j - 2);
+        swap(lows, shards);
+    }
+
+    /**
+     * Install a new routing. The operations still on the old one either
+     * reach shards which the new one shares, or retired ones, and route
+     * again.
+     *
+     * @param lows
+     *            the smallest key of every shard
+     * @param shards
+     *            the shards
+     */
+    private void swap(int[] lows, Shard[] shards) {
+        routing = new Routing(lows, shards);
+    }
+
+    /**
+     * A WAVLTree, its lock and its size. A shard is retired, and never written
+     * again, once its keys were copied into the shards which replace it.
+     *
+     * The size is written under the write lock, by a plain volatile write, and
+     * read without the lock by the order statistics. HotSpot lays the long
+     * fields out before it, so the sizes of shards allocated one after the
+     * other are a cache line apart.
+     */
+    private static final class Shard {
+
+        long p0, p1, p2, p3, p4, p5, p6; // padding
+        volatile int size;
+        final WAVLTree tree;
+        final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        boolean retired; // guarded by lock
+
+        Shard(WAVLTree tree) {
+            this.tree = tree;
+            size = tree.size();
+        }
+
+    }
+
+    /**
+     * The shards and the smallest key routed to each of them. Immutable, the
+     * sizes are in the shards.
+     */
+    private static final class Routing {
+
+        final int[] lows; // lows[j] is the smallest key of shards[j], lows[0] == MIN_VALUE
+        final Shard[] shards;
+
+        Routing(int[] lows, Shard[] shards) {
+            this.lows = lows;
+            this.shards = shards;
+        }
+
+        /**
+         * @return the index of the shard of the key k
+         * @complexity O(log(m))
+         */
+        int route(int k) {
+            int lo = 0; // the last shard whose smallest key is <= k
+            int hi = lows.length - 1;
+            while (lo < hi) {
+                int mid = (lo + hi + 1) >>> 1;
+                if (lows[mid] <= k) {
+                    lo = mid;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            return lo;
+        }
+
+        /**
+         * @return the total size of the shards before the shard j
+         * @complexity O(j)
+         */
+        int prefix(int j) {
+            int sum = 0;
+            for (int l = 0; l < j; l++) {
+                sum += shards[l].size;
+            }
+            return sum;
+        }
+
+        /**
+         * @param i
+         *            the rank, starting from 1
+         * @return the index of the shard which holds the i'th key
+         * @precondition 1 <= i <= prefix(m)
+         * @complexity O(m)
+         */
+        int find(int i) {
+            int j = 0; // the first shard whose prefix, with its own size, reaches i
+            for (int size; j < shards.length - 1 && i > (size = shards[j].size); j++) {
+                i -= size;
+            }
+            return j; // the last one if the sizes moved meanwhile
+        }
+
+    }
+
+}
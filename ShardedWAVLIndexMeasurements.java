@@ -0,0 +1,111 @@
+package wavltree;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Measures the throughput of ShardedWAVLIndex from 1 thread up to the number
+ * of cores, on random keys over SHARDS shards: a write only mix (inserts and
+ * deletes, which keep the index about half full) and a read mostly one (90%
+ * searches, 5% ranks, 5% writes). Every thread runs for MILLIS, and the
+ * speedup is relative to 1 thread of the same mix.
+ *
+ * The shards are split in advance and never split or merged, so the
+ * measurement is of the operations and their contention only. The numbers
+ * of threads double from 1, up to the greatest.
+ *
+ * Arguments: [the greatest number of threads], by default the number of
+ * cores.
+ */
+public class ShardedWAVLIndexMeasurements {
+
+    public static int KEYS = 1 << 20;
+    public static int SHARDS = 64;
+    public static int MILLIS = 1000;
+
+    private static final String[] MIXES = { "write only", "read mostly" };
+
+    public static void main(String[] args) throws InterruptedException {
+        int cores = Runtime.getRuntime().availableProcessors();
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : cores;
+        System.out.println(cores + " cores");
+        System.out.println("mix\t\tthreads\tops/s\t\tspeedup");
+        for (int mix = 0; mix < MIXES.length; mix++) {
+            measure(mix, 1); // warms up the JIT
+            double single = 0;
+            for (int threads = 1; threads <= maxThreads; threads = threads == maxThreads ? threads + 1 : Math.min(2 * threads, maxThreads)) {
+                double throughput = measure(mix, threads);
+                if (threads == 1) {
+                    single = throughput;
+                }
+                System.out.printf("%s\t%d\t%.0f\t%.2f%n", MIXES[mix], threads, throughput, throughput / single);
+            }
+        }
+    }
+
+    /**
+     * @return the operations per second of all the threads together
+     */
+    private static double measure(final int mix, int threads) throws InterruptedException {
+        int[] bounds = new int[SHARDS - 1];
+        for (int j = 0; j < bounds.length; j++) {
+            bounds[j] = (j + 1) * (KEYS / SHARDS);
+        }
+        // a shard holds KEYS / SHARDS keys at most, so none is split, and two
+        // neighbors hold about that many together, so none is merged
+        try (final ShardedWAVLIndex index = new ShardedWAVLIndex(bounds, 2 * KEYS / SHARDS)) {
+            Random rand = new Random(1);
+            for (int k = 0; k < KEYS; k++) {
+                if (rand.nextBoolean()) {
+                    index.insert(k, "v");
+                }
+            }
+            final long[] ops = new long[threads];
+            final CountDownLatch start = new CountDownLatch(1);
+            final long[] deadline = new long[1];
+            Thread[] workers = new Thread[threads];
+            for (int t = 0; t < threads; t++) {
+                final int id = t;
+                workers[t] = new Thread(() -> {
+                    Random r = new Random(id);
+                    long count = 0;
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    while (System.nanoTime() < deadline[0]) {
+                        for (int i = 0; i < 256; i++, count++) { // between reads of the clock
+                            int k = r.nextInt(KEYS);
+                            int op = mix == 0 ? 100 : r.nextInt(100);
+                            if (op < 90) {
+                                index.search(k);
+                            } else if (op < 95) {
+                                index.rank(k);
+                            } else if (r.nextBoolean()) {
+                                index.insert(k, "v");
+                            } else {
+                                index.delete(k);
+                            }
+                        }
+                    }
+                    ops[id] = count;
+                });
+                workers[t].start();
+            }
+            long begin = System.nanoTime();
+            deadline[0] = begin + MILLIS * 1000000L;
+            start.countDown(); // the latch publishes the deadline
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            long nanos = System.nanoTime() - begin;
+            long total = 0;
+            for (long count : ops) {
+                total += count;
+            }
+            return total * 1e9 / nanos;
+        }
+    }
+
+}
@@ -0,0 +1,97 @@
+package wavltree;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class ShardedWAVLIndex_Tester {
+
+    public static int NUM_OF_THREADS = 4;
+    public static int NUM_OF_OPERATIONS = 100000; // per thread
+    public static int MAX_KEY = 40000;
+    public static int MAX_SHARD_SIZE = 256;
+
+    private static boolean[] present = new boolean[MAX_KEY]; // brute force copy
+
+    public static void main(String[] args) throws InterruptedException {
+        try (ShardedWAVLIndex index = new ShardedWAVLIndex(MAX_SHARD_SIZE)) {
+            run(index, 3); // grow: 3 inserts for every delete
+            index.rebalance();
+            check(index);
+            int grown = index.shards();
+            run(index, 0); // shrink
+            index.rebalance();
+            check(index);
+            if (grown < MAX_KEY / 2 / MAX_SHARD_SIZE || index.shards() >= grown) {
+                System.out.println("shards: \t\t" + grown + " after growing, " + index.shards() + " after shrinking");
+            }
+        }
+    }
+
+    /**
+     * Run the threads concurrently, each on the keys which are equal to its
+     * number modulo NUM_OF_THREADS, so the brute force copy needs no locks,
+     * while a reader checks that what it finds is consistent.
+     */
+    private static void run(final ShardedWAVLIndex index, final int insertsPerDelete) throws InterruptedException {
+        final AtomicBoolean done = new AtomicBoolean();
+        Thread reader = new Thread(() -> {
+            Random rand = new Random();
+            while (!done.get()) {
+                int k = rand.nextInt(MAX_KEY);
+                String res = index.search(k);
+                String selected = index.select(1 + rand.nextInt(MAX_KEY));
+                int rank = index.rank(k);
+                if (res != null && !res.equals(Integer.toString(k)) || selected != null && selected.isEmpty()
+                        || rank < 0 || rank > MAX_KEY) {
+                    System.out.println("read(" + k + "): \t\tinconsistent");
+                }
+            }
+        });
+        reader.start();
+        Thread[] threads = new Thread[NUM_OF_THREADS];
+        for (int t = 0; t < NUM_OF_THREADS; t++) {
+            final int offset = t;
+            threads[t] = new Thread(() -> {
+                Random rand = new Random();
+                for (int i = 0; i < NUM_OF_OPERATIONS; i++) {
+                    int k = rand.nextInt(MAX_KEY / NUM_OF_THREADS) * NUM_OF_THREADS + offset;
+                    if (rand.nextInt(insertsPerDelete + 1) != 0) {
+                        if ((index.insert(k, Integer.toString(k)) != -1) == present[k]) {
+                            System.out.println("insert(" + k + "): \tunexpected result");
+                        }
+                        present[k] = true;
+                    } else {
+                        if ((index.delete(k) != -1) != present[k]) {
+                            System.out.println("delete(" + k + "): \tunexpected result");
+                        }
+                        present[k] = false;
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        done.set(true);
+        reader.join();
+    }
+
+    private static void check(ShardedWAVLIndex index) {
+        int r = 0;
+        boolean ok = true;
+        for (int k = 0; k < MAX_KEY; k++) {
+            ok &= index.rank(k) == r;
+            String res = index.search(k);
+            ok &= present[k] ? Integer.toString(k).equals(res) : res == null;
+            if (present[k]) {
+                ok &= Integer.toString(k).equals(index.select(++r));
+            }
+        }
+        ok &= index.size() == r && index.select(0) == null && index.select(r + 1) == null;
+        if (!ok) {
+            System.out.println("check: \t\t\tfalse");
+        }
+    }
+
+}
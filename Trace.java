@@ -0,0 +1,224 @@
+package trace;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * A recorded stream of operations on a tree and a heap, decoded into memory
+ * so it can be replayed without reading the file.
+ *
+ * The file (written by TraceRecorder) is a header, MAGIC and VERSION,
+ * followed by one event per operation: the opcode (a byte), its arguments as
+ * varints, and the nanoseconds since the previous event as a varint. Keys are
+ * zigzag encoded, so small negative keys stay short. Heap items are referred
+ * to by their id: the number of HEAP_INSERT events before theirs.
+ *
+ * <pre>
+ * TREE_INSERT       key
+ * TREE_DELETE       key
+ * TREE_SEARCH       key
+ * TREE_SELECT       i
+ * HEAP_INSERT       key
+ * HEAP_DELETE_MIN
+ * HEAP_DECREASE_KEY id, delta
+ * HEAP_DELETE       id
+ * HEAP_UPDATE_KEY   id, key
+ * </pre>
+ *
+ * HEAP_UPDATE_KEY records Increase_Key() and Update_Key() by the new key of
+ * the item. It was added in version 2, which reads version 1 traces too.
+ */
+public class Trace {
+
+    public static final int MAGIC = 0x54524345; // "TRCE"
+    public static final byte VERSION = 2;
+
+    public static final byte TREE_INSERT = 0;
+    public static final byte TREE_DELETE = 1;
+    public static final byte TREE_SEARCH = 2;
+    public static final byte TREE_SELECT = 3;
+    public static final byte HEAP_INSERT = 4;
+    public static final byte HEAP_DELETE_MIN = 5;
+    public static final byte HEAP_DECREASE_KEY = 6;
+    public static final byte HEAP_DELETE = 7;
+    public static final byte HEAP_UPDATE_KEY = 8;
+
+    public static final String[] NAMES = { "tree insert", "tree delete", "tree search", "tree select",
+            "heap insert", "heap delete min", "heap decrease key", "heap delete", "heap update key" };
+
+    private int n;
+    private byte[] ops = new byte[16];
+    private int[] args = new int[16]; // the key, the rank, or the id
+    private int[] deltas = new int[16]; // the delta of HEAP_DECREASE_KEY, the key of HEAP_UPDATE_KEY, the id of HEAP_INSERT
+    private long[] times = new long[16]; // nanoseconds since the first event
+    private int heapInserts;
+    private int peakHeapSize;
+    private int heapSize;
+
+    private Trace() {
+    }
+
+    /**
+     * Read a trace file into memory.
+     *
+     * @param path
+     *            the file
+     * @return the trace
+     * @throws IOException
+     *             if the file cannot be read, or is not a trace
+     * @complexity O(n) where n is the number of events
+     */
+    public static Trace read(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(path + " is not a trace");
+            }
+            byte version = in.readByte();
+            if (version < 1 || version > VERSION) {
+                throw new IOException(path + " is a trace of version " + version + ", not 1 to " + VERSION);
+            }
+            Trace t = new Trace();
+            long time = 0;
+            int op;
+            while ((op = in.read()) != -1) {
+                int arg = 0;
+                int delta = 0;
+                switch (op) {
+                case TREE_INSERT:
+                case TREE_DELETE:
+                case TREE_SEARCH:
+                case TREE_SELECT:
+                    arg = unzigzag(readVarint(in));
+                    break;
+                case HEAP_INSERT:
+                    arg = unzigzag(readVarint(in));
+                    delta = t.heapInserts;
+                    break;
+                case HEAP_DECREASE_KEY:
+                    arg = readVarint(in);
+                    delta = readVarint(in);
+                    break;
+                case HEAP_UPDATE_KEY:
+                    arg = readVarint(in);
+                    delta = unzigzag(readVarint(in));
+                    break;
+                case HEAP_DELETE:
+                    arg = readVarint(in);
+                    break;
+                case HEAP_DELETE_MIN:
+                    break;
+                default:
+                    throw new IOException("unknown opcode " + op + " in " + path);
+                }
+                time += readVarlong(in);
+                t.add((byte) op, arg, delta, time);
+            }
+            return t;
+        }
+    }
+
+    private void add(byte op, int arg, int delta, long time) {
+        if (n == ops.length) {
+            ops = Arrays.copyOf(ops, 2 * n);
+            args = Arrays.copyOf(args, 2 * n);
+            deltas = Arrays.copyOf(deltas, 2 * n);
+            times = Arrays.copyOf(times, 2 * n);
+        }
+        ops[n] = op;
+        args[n] = arg;
+        deltas[n] = delta;
+        times[n++] = time;
+        if (op == HEAP_INSERT) {
+            heapInserts++;
+            peakHeapSize = Math.max(peakHeapSize, ++heapSize);
+        } else if (op == HEAP_DELETE_MIN || op == HEAP_DELETE) {
+            heapSize = Math.max(0, heapSize - 1);
+        }
+    }
+
+    /**
+     * @return the number of events
+     */
+    public int size() {
+        return n;
+    }
+
+    /**
+     * @return the opcode of the i'th event
+     */
+    public byte op(int i) {
+        return ops[i];
+    }
+
+    /**
+     * @return the key, the rank or the id of the i'th event
+     */
+    public int arg(int i) {
+        return args[i];
+    }
+
+    /**
+     * @return the delta of the i'th event if it is a HEAP_DECREASE_KEY, the
+     *         new key if it is a HEAP_UPDATE_KEY, the id of the inserted item
+     *         if it is a HEAP_INSERT
+     */
+    public int delta(int i) {
+        return deltas[i];
+    }
+
+    /**
+     * @return the time of the i'th event, in nanoseconds since the first one
+     */
+    public long time(int i) {
+        return times[i];
+    }
+
+    /**
+     * @return the number of HEAP_INSERT events, one more than the greatest id
+     */
+    public int heapInserts() {
+        return heapInserts;
+    }
+
+    /**
+     * @return the greatest number of items in the heap at once in the
+     *         recorded run, the capacity a replay needs (if it breaks ties
+     *         like the recorded heap)
+     */
+    public int peakHeapSize() {
+        return peakHeapSize;
+    }
+
+    static int zigzag(int v) {
+        return (v << 1) ^ (v >> 31);
+    }
+
+    static int unzigzag(int v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    private static int readVarint(InputStream in) throws IOException {
+        return (int) readVarlong(in);
+    }
+
+    private static long readVarlong(InputStream in) throws IOException {
+        long v = 0;
+        for (int shift = 0;; shift += 7) {
+            int b = in.read();
+            if (b == -1) {
+                throw new EOFException("truncated event");
+            }
+            v |= (long) (b & 0x7F) << shift;
+            if (b < 0x80) {
+                return v;
+            }
+        }
+    }
+
+}
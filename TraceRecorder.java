@@ -0,0 +1,157 @@
+package trace;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Writes a trace file (see Trace) of the operations it is told about. Events
+ * are encoded into a buffer, which is written out whenever it fills up, so
+ * recording an operation costs a System.nanoTime() call and a few bytes of
+ * encoding, and allocates nothing.
+ *
+ * RecordingWAVLTree and RecordingDHeap call the recorder on every operation.
+ * A recorder is not thread safe: it belongs to the thread which owns the
+ * recorded structures.
+ */
+public class TraceRecorder implements AutoCloseable {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int MAX_EVENT = 1 + 2 * 5 + 10; // an opcode, two varints and a varlong
+
+    private final OutputStream out;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int length;
+    private long last; // the time of the previous event
+    private int heapInserts;
+    private long events;
+
+    /**
+     * Create the trace file, replacing it if it exists.
+     *
+     * @param path
+     *            the file
+     * @throws IOException
+     *             if the file cannot be created
+     */
+    public TraceRecorder(Path path) throws IOException {
+        this(Files.newOutputStream(path));
+    }
+
+    /**
+     * @param out
+     *            where to write the trace, closed by close()
+     * @throws IOException
+     *             if the header cannot be written
+     */
+    public TraceRecorder(OutputStream out) throws IOException {
+        this.out = out;
+        out.write(new byte[] { (byte) (Trace.MAGIC >>> 24), (byte) (Trace.MAGIC >>> 16), (byte) (Trace.MAGIC >>> 8),
+                (byte) Trace.MAGIC, Trace.VERSION });
+        last = System.nanoTime();
+    }
+
+    /**
+     * @return the number of events recorded
+     */
+    public long getEvents() {
+        return events;
+    }
+
+    public void treeInsert(int k) throws IOException {
+        record(Trace.TREE_INSERT, Trace.zigzag(k), 0);
+    }
+
+    public void treeDelete(int k) throws IOException {
+        record(Trace.TREE_DELETE, Trace.zigzag(k), 0);
+    }
+
+    public void treeSearch(int k) throws IOException {
+        record(Trace.TREE_SEARCH, Trace.zigzag(k), 0);
+    }
+
+    public void treeSelect(int i) throws IOException {
+        record(Trace.TREE_SELECT, Trace.zigzag(i), 0);
+    }
+
+    /**
+     * @return the id of the inserted item
+     */
+    public int heapInsert(int key) throws IOException {
+        record(Trace.HEAP_INSERT, Trace.zigzag(key), 0);
+        return heapInserts++;
+    }
+
+    public void heapDeleteMin() throws IOException {
+        record(Trace.HEAP_DELETE_MIN, 0, 0);
+    }
+
+    public void heapDecreaseKey(int id, int delta) throws IOException {
+        record(Trace.HEAP_DECREASE_KEY, id, delta);
+    }
+
+    public void heapDelete(int id) throws IOException {
+        record(Trace.HEAP_DELETE, id, 0);
+    }
+
+    public void heapUpdateKey(int id, int key) throws IOException {
+        record(Trace.HEAP_UPDATE_KEY, id, Trace.zigzag(key));
+    }
+
+    /**
+     * Append an event to the buffer.
+     *
+     * @param op
+     *            the opcode
+     * @param a
+     *            the first argument, already zigzag encoded if signed,
+     *            ignored by HEAP_DELETE_MIN
+     * @param b
+     *            the second argument, already zigzag encoded if signed,
+     *            ignored but by HEAP_DECREASE_KEY and HEAP_UPDATE_KEY
+     * @complexity O(1)
+     */
+    private void record(byte op, int a, int b) throws IOException {
+        if (length > BUFFER_SIZE - MAX_EVENT) {
+            flush();
+        }
+        long now = System.nanoTime();
+        buffer[length++] = op;
+        if (op != Trace.HEAP_DELETE_MIN) {
+            writeVarint(a & 0xFFFFFFFFL);
+        }
+        if (op == Trace.HEAP_DECREASE_KEY || op == Trace.HEAP_UPDATE_KEY) {
+            writeVarint(b & 0xFFFFFFFFL);
+        }
+        writeVarint(now - last);
+        last = now;
+        events++;
+    }
+
+    private void writeVarint(long v) {
+        while ((v & ~0x7FL) != 0) {
+            buffer[length++] = (byte) (v | 0x80);
+            v >>>= 7;
+        }
+        buffer[length++] = (byte) v;
+    }
+
+    /**
+     * Write the buffered events out.
+     *
+     * @throws IOException
+     *             if they cannot be written
+     */
+    public void flush() throws IOException {
+        out.write(buffer, 0, length);
+        length = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        out.close();
+    }
+
+}
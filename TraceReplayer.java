@@ -0,0 +1,535 @@
+package trace;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.Supplier;
+
+import dheap.DHeap;
+import dheap.DHeap_Item;
+import dheap.LongKeyDHeap;
+import wavltree.BPlusTree;
+import wavltree.WAVLTree;
+
+/**
+ * Replays a Trace against a tree and a heap implementation, and reports the
+ * throughput, the latency percentiles and the work (rebalances, splits or
+ * comparisons) of every kind of operation, and the bytes allocated.
+ *
+ * Any implementation can be replayed by adapting it to TreeTarget or
+ * HeapTarget. The events are replayed back to back, without the recorded
+ * gaps between them, and every operation is timed on its own, which adds the
+ * cost of two System.nanoTime() calls to its latency (but not to the
+ * throughput, which is timed around the whole replay).
+ *
+ * Arguments: [trace file]. Without a file, a skewed synthetic workload is
+ * recorded into a temporary trace first.
+ */
+public class TraceReplayer {
+
+    public static int ROUNDS = 3; // the first rounds warm up the JIT
+    public static String VALUE = "v"; // the value of every replayed insertion
+
+    private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+
+    /**
+     * A tree to replay the tree events on. Each method returns the work the
+     * operation took, in the unit of the implementation.
+     */
+    public interface TreeTarget {
+
+        public int insert(int k);
+
+        public int delete(int k);
+
+        public int search(int k);
+
+        public int select(int i);
+
+    }
+
+    /**
+     * A heap to replay the heap events on. Items are referred to by their id
+     * in the trace; an operation on an item which is not in the heap (as an
+     * implementation may break ties differently) is ignored. Each method
+     * returns the work the operation took, in the unit of the implementation.
+     */
+    public interface HeapTarget {
+
+        public int insert(int id, int key);
+
+        public int deleteMin();
+
+        public int decreaseKey(int id, int delta);
+
+        public int delete(int id);
+
+        public int updateKey(int id, int key);
+
+    }
+
+    /**
+     * @return an adapter of t, whose work is the number of rebalances
+     */
+    public static TreeTarget wavlTree(final WAVLTree t) {
+        return new TreeTarget() {
+            public int insert(int k) {
+                return Math.max(0, t.insert(k, VALUE));
+            }
+
+            public int delete(int k) {
+                return Math.max(0, t.delete(k));
+            }
+
+            public int search(int k) {
+                t.search(k);
+                return 0;
+            }
+
+            public int select(int i) {
+                t.select(i);
+                return 0;
+            }
+        };
+    }
+
+    /**
+     * @return an adapter of t, whose work is the number of node splits and
+     *         merges
+     */
+    public static TreeTarget bPlusTree(final BPlusTree t) {
+        return new TreeTarget() {
+            public int insert(int k) {
+                return Math.max(0, t.insert(k, VALUE));
+            }
+
+            public int delete(int k) {
+                return Math.max(0, t.delete(k));
+            }
+
+            public int search(int k) {
+                t.search(k);
+                return 0;
+            }
+
+            public int select(int i) {
+                t.select(i);
+                return 0;
+            }
+        };
+    }
+
+    /**
+     * @param heap
+     *            an empty heap, with room for the peak size of the trace
+     * @param ids
+     *            the number of ids in the trace
+     * @return an adapter of heap, whose work is the number of comparisons
+     */
+    public static HeapTarget dHeap(final DHeap heap, int ids) {
+        final Item[] items = new Item[ids];
+        return new HeapTarget() {
+            public int insert(int id, int key) {
+                items[id] = new Item(id, key);
+                return heap.Insert(items[id]);
+            }
+
+            public int deleteMin() {
+                if (heap.getSize() == 0) {
+                    return 0;
+                }
+                items[((Item) heap.Get_Min()).id] = null;
+                return heap.Delete_Min();
+            }
+
+            public int decreaseKey(int id, int delta) {
+                return items[id] == null ? 0 : heap.Decrease_Key(items[id], delta);
+            }
+
+            public int delete(int id) {
+                if (items[id] == null) {
+                    return 0;
+                }
+                int comparisons = heap.Delete(items[id]);
+                items[id] = null;
+                return comparisons;
+            }
+
+            public int updateKey(int id, int key) {
+                return items[id] == null ? 0 : heap.Update_Key(items[id], key);
+            }
+        };
+    }
+
+    /**
+     * @param heap
+     *            an empty heap, with room for the peak size of the trace
+     * @param ids
+     *            the number of ids in the trace
+     * @return an adapter of heap, whose work is the number of comparisons (but
+     *         for insertions, which do not report theirs). The heap has no
+     *         Increase_Key, so a key update which raises the key is a Delete
+     *         and an Insert.
+     */
+    public static HeapTarget longKeyDHeap(final LongKeyDHeap heap, int ids) {
+        final int[] handles = new int[ids];
+        Arrays.fill(handles, -1);
+        return new HeapTarget() {
+            public int insert(int id, int key) {
+                handles[id] = heap.Insert(key, id);
+                return 0;
+            }
+
+            public int deleteMin() {
+                if (heap.getSize() == 0) {
+                    return 0;
+                }
+                handles[heap.Get_Min_Payload()] = -1;
+                return heap.Delete_Min();
+            }
+
+            public int decreaseKey(int id, int delta) {
+                return handles[id] == -1 ? 0 : heap.Decrease_Key(handles[id], delta);
+            }
+
+            public int delete(int id) {
+                if (handles[id] == -1) {
+                    return 0;
+                }
+                int comparisons = heap.Delete(handles[id]);
+                handles[id] = -1;
+                return comparisons;
+            }
+
+            public int updateKey(int id, int key) {
+                if (handles[id] == -1) {
+                    return 0;
+                }
+                long old = heap.getKey(handles[id]);
+                if (key <= old) {
+                    return heap.Decrease_Key(handles[id], old - key);
+                }
+                int comparisons = heap.Delete(handles[id]);
+                handles[id] = heap.Insert(key, id);
+                return comparisons;
+            }
+        };
+    }
+
+    /**
+     * Replay the trace.
+     *
+     * @param trace
+     *            the trace
+     * @param name
+     *            the name of the targets, for the report
+     * @param tree
+     *            the tree, null to skip the tree events
+     * @param heap
+     *            the heap, null to skip the heap events
+     * @return the report
+     * @complexity O(n * log(n)) for the percentiles, on top of the
+     *             operations, where n is the size of the trace
+     */
+    public static Report replay(Trace trace, String name, TreeTarget tree, HeapTarget heap) {
+        int n = trace.size();
+        long[] latencies = new long[n];
+        long[] work = new long[Trace.NAMES.length];
+        long allocated = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < n; i++) {
+            byte op = trace.op(i);
+            int arg = trace.arg(i);
+            if (op < Trace.HEAP_INSERT ? tree == null : heap == null) {
+                latencies[i] = -1;
+                continue;
+            }
+            long t0 = System.nanoTime();
+            int w;
+            switch (op) {
+            case Trace.TREE_INSERT:
+                w = tree.insert(arg);
+                break;
+            case Trace.TREE_DELETE:
+                w = tree.delete(arg);
+                break;
+            case Trace.TREE_SEARCH:
+                w = tree.search(arg);
+                break;
+            case Trace.TREE_SELECT:
+                w = tree.select(arg);
+                break;
+            case Trace.HEAP_INSERT:
+                w = heap.insert(trace.delta(i), arg);
+                break;
+            case Trace.HEAP_DELETE_MIN:
+                w = heap.deleteMin();
+                break;
+            case Trace.HEAP_DECREASE_KEY:
+                w = heap.decreaseKey(arg, trace.delta(i));
+                break;
+            case Trace.HEAP_UPDATE_KEY:
+                w = heap.updateKey(arg, trace.delta(i));
+                break;
+            default:
+                w = heap.delete(arg);
+            }
+            latencies[i] = System.nanoTime() - t0;
+            work[op] += w;
+        }
+        long nanos = System.nanoTime() - start;
+        long allocatedAfter = allocatedBytes();
+        return new Report(name, trace, latencies, work, nanos, allocated == -1 ? -1 : allocatedAfter - allocated);
+    }
+
+    /**
+     * @return the bytes allocated by the current thread so far, -1 if the JVM
+     *         does not tell
+     */
+    private static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    /**
+     * The outcome of a replay.
+     */
+    public static class Report {
+
+        private final String name;
+        private final int events; // replayed
+        private final long nanos;
+        private final long allocated;
+        private final int[] counts = new int[Trace.NAMES.length];
+        private final long[] work;
+        private final long[][] percentiles = new long[Trace.NAMES.length][]; // and the max, last
+
+        Report(String name, Trace trace, long[] latencies, long[] work, long nanos, long allocated) {
+            this.name = name;
+            this.work = work;
+            this.nanos = nanos;
+            this.allocated = allocated;
+            long[][] byOp = new long[Trace.NAMES.length][];
+            for (int i = 0; i < latencies.length; i++) {
+                if (latencies[i] != -1) {
+                    counts[trace.op(i)]++;
+                }
+            }
+            int replayed = 0;
+            for (int op = 0; op < byOp.length; op++) {
+                byOp[op] = new long[counts[op]];
+                replayed += counts[op];
+                counts[op] = 0;
+            }
+            events = replayed;
+            for (int i = 0; i < latencies.length; i++) {
+                if (latencies[i] != -1) {
+                    byte op = trace.op(i);
+                    byOp[op][counts[op]++] = latencies[i];
+                }
+            }
+            for (int op = 0; op < byOp.length; op++) {
+                long[] l = byOp[op];
+                if (l.length == 0) {
+                    continue;
+                }
+                Arrays.sort(l);
+                percentiles[op] = new long[PERCENTILES.length + 1];
+                for (int p = 0; p < PERCENTILES.length; p++) {
+                    percentiles[op][p] = l[(int) Math.min(l.length - 1, (long) (PERCENTILES[p] / 100 * l.length))];
+                }
+                percentiles[op][PERCENTILES.length] = l[l.length - 1];
+            }
+        }
+
+        /**
+         * @return the number of events replayed
+         */
+        public int getEvents() {
+            return events;
+        }
+
+        /**
+         * @return the events replayed per second
+         */
+        public double throughput() {
+            return nanos == 0 ? 0 : events * 1e9 / nanos;
+        }
+
+        /**
+         * @param op
+         *            an opcode
+         * @return the total work of the events of op
+         */
+        public long getWork(byte op) {
+            return work[op];
+        }
+
+        /**
+         * @param op
+         *            an opcode
+         * @param p
+         *            a percentile, one of 50, 90, 99 and 99.9, or 100 for the
+         *            maximum
+         * @return the latency in nanoseconds, -1 if no event of op was
+         *         replayed
+         */
+        public long latency(byte op, double p) {
+            if (percentiles[op] == null) {
+                return -1;
+            }
+            for (int j = 0; j < PERCENTILES.length; j++) {
+                if (PERCENTILES[j] == p) {
+                    return percentiles[op][j];
+                }
+            }
+            return percentiles[op][PERCENTILES.length];
+        }
+
+        /**
+         * @return the bytes allocated per event, -1 if unknown
+         */
+        public double allocatedPerEvent() {
+            return allocated == -1 || events == 0 ? -1 : (double) allocated / events;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("%s: %d events, %.0f ops/s, %.1f bytes allocated per event%n", name, events,
+                    throughput(), allocatedPerEvent()));
+            sb.append(String.format("  %-18s %9s %7s %7s %7s %7s %9s %9s%n", "op", "count", "p50", "p90", "p99",
+                    "p99.9", "max (ns)", "work/op"));
+            for (byte op = 0; op < Trace.NAMES.length; op++) {
+                if (percentiles[op] == null) {
+                    continue;
+                }
+                long[] p = percentiles[op];
+                sb.append(String.format("  %-18s %9d %7d %7d %7d %7d %9d %9.2f%n", Trace.NAMES[op], counts[op], p[0],
+                        p[1], p[2], p[3], p[4], (double) work[op] / counts[op]));
+            }
+            return sb.toString();
+        }
+
+    }
+
+    /**
+     * A heap item with the id of the trace.
+     */
+    private static final class Item extends DHeap_Item {
+
+        final int id;
+
+        Item(int id, int key) {
+            super(null, key);
+            this.id = id;
+        }
+
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path path;
+        if (args.length > 0) {
+            path = Paths.get(args[0]);
+        } else {
+            path = Files.createTempFile("trace", ".bin");
+            path.toFile().deleteOnExit();
+            recordSample(path, 1000000);
+        }
+        final Trace trace = Trace.read(path);
+        System.out.printf("%s: %d events over %.3f s, %d bytes%n%n", path, trace.size(),
+                trace.size() == 0 ? 0.0 : trace.time(trace.size() - 1) / 1e9, Files.size(path));
+        final int ids = trace.heapInserts();
+        final int capacity = Math.max(1, trace.peakHeapSize());
+        run(trace, "WAVLTree", () -> wavlTree(new WAVLTree()), null);
+        run(trace, "BPlusTree", () -> bPlusTree(new BPlusTree()), null);
+        for (final int d : new int[] { 2, 4, 8 }) {
+            run(trace, "DHeap d=" + d, null, () -> dHeap(new DHeap(d, capacity), ids));
+        }
+        run(trace, "LongKeyDHeap d=4", null, () -> longKeyDHeap(new LongKeyDHeap(4, capacity), ids));
+    }
+
+    /**
+     * Replay the trace ROUNDS times on fresh targets, and print the report of
+     * the last round.
+     */
+    private static void run(Trace trace, String name, Supplier<TreeTarget> tree, Supplier<HeapTarget> heap) {
+        Report report = null;
+        for (int round = 0; round < ROUNDS; round++) {
+            report = replay(trace, name, tree == null ? null : tree.get(), heap == null ? null : heap.get());
+        }
+        System.out.println(report);
+    }
+
+    /**
+     * Record a synthetic workload which is skewed like real traffic: most
+     * tree operations hit a small set of hot keys, and the heap is a timer
+     * queue whose items are mostly cancelled or rescheduled before they fire.
+     *
+     * @param path
+     *            the trace file
+     * @param n
+     *            the number of operations
+     */
+    static void recordSample(Path path, int n) throws IOException {
+        Random rand = new Random(1);
+        try (TraceRecorder recorder = new TraceRecorder(path)) {
+            WAVLTree tree = new RecordingWAVLTree(recorder);
+            DHeap heap = new RecordingDHeap(4, n, recorder);
+            DHeap_Item[] live = new DHeap_Item[n];
+            int liveCount = 0;
+            int now = 0;
+            for (int i = 0; i < n; i++) {
+                int hot = rand.nextInt(10) < 8 ? rand.nextInt(1000) : rand.nextInt(1 << 20);
+                switch (rand.nextInt(10)) {
+                case 0:
+                case 1:
+                case 2:
+                case 3:
+                    tree.search(hot);
+                    break;
+                case 4:
+                    tree.insert(hot, VALUE);
+                    break;
+                case 5:
+                    tree.delete(hot);
+                    break;
+                case 6:
+                    tree.select(1 + rand.nextInt(tree.size() + 1));
+                    break;
+                default: // the timer queue
+                    now++;
+                    int r = rand.nextInt(10);
+                    if (r < 5 || liveCount == 0) {
+                        DHeap_Item item = new DHeap_Item(null, now + rand.nextInt(10000));
+                        heap.Insert(item);
+                        live[liveCount++] = item;
+                    } else {
+                        int j = rand.nextInt(liveCount);
+                        DHeap_Item item = live[j];
+                        if (item.getPos() == -1 || item.getKey() <= now) { // fired or cancelled
+                            live[j] = live[--liveCount];
+                        } else if (r < 8) { // cancel
+                            heap.Delete(item);
+                            live[j] = live[--liveCount];
+                        } else { // reschedule earlier
+                            heap.Decrease_Key(item, rand.nextInt(item.getKey() - now));
+                        }
+                    }
+                    while (heap.getSize() > 0 && heap.Get_Min().getKey() <= now) { // fire
+                        heap.Delete_Min();
+                    }
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,168 @@
+package trace;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import dheap.DHeap;
+import dheap.DHeap_Item;
+import wavltree.WAVLTree;
+
+public class Trace_Tester {
+
+    public static int NUM_OF_OPERATIONS = 200000;
+    public static int MAX_KEY = 5000;
+
+    public static void main(String[] args) throws IOException {
+        Path path = Files.createTempFile("trace", ".bin");
+        try {
+            check(path);
+            checkBatch(path);
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    /**
+     * Record a random workload, replay its trace on fresh structures, and
+     * check they end up in the same state, having done the same work.
+     */
+    private static void check(Path path) throws IOException {
+        Random rand = new Random();
+        WAVLTree tree;
+        DHeap heap;
+        long rebalances = 0;
+        long comparisons = 0;
+        long events;
+        DHeap_Item[] items = new DHeap_Item[NUM_OF_OPERATIONS];
+        int inserted = 0;
+        try (TraceRecorder recorder = new TraceRecorder(path)) {
+            tree = new RecordingWAVLTree(recorder);
+            heap = new RecordingDHeap(3, NUM_OF_OPERATIONS, recorder);
+            for (int i = 0; i < NUM_OF_OPERATIONS; i++) {
+                int k = rand.nextInt(10) == 0 ? rand.nextInt() : rand.nextInt(MAX_KEY) - MAX_KEY / 2; // negative too
+                switch (rand.nextInt(8)) {
+                case 0:
+                    rebalances += Math.max(0, tree.insert(k, "x"));
+                    break;
+                case 1:
+                    rebalances += Math.max(0, tree.delete(k));
+                    break;
+                case 2:
+                    tree.search(k);
+                    break;
+                case 3:
+                    tree.select(rand.nextInt(tree.size() + 2));
+                    break;
+                case 4: // both the items which hold their id and the others
+                    items[inserted] = inserted % 2 == 0 ? new RecordingDHeap.Item(null, k) : new DHeap_Item(null, k);
+                    comparisons += heap.Insert(items[inserted++]);
+                    break;
+                case 5:
+                    if (heap.getSize() > 0) {
+                        DHeap_Item min = heap.Get_Min();
+                        comparisons += heap.Delete_Min();
+                        min.setPos(-1); // so it is not picked below
+                    }
+                    break;
+                default: // the item may have left the heap already
+                    if (inserted > 0) {
+                        DHeap_Item item = items[rand.nextInt(inserted)];
+                        if (item.getPos() != -1) {
+                            switch (rand.nextInt(4)) {
+                            case 0:
+                                comparisons += heap.Delete(item);
+                                break;
+                            case 1:
+                                comparisons += heap.Decrease_Key(item, rand.nextInt(1000));
+                                break;
+                            case 2:
+                                comparisons += heap.Increase_Key(item, Math.min(rand.nextInt(1000), Integer.MAX_VALUE - item.getKey()));
+                                break;
+                            default:
+                                comparisons += heap.Update_Key(item, k);
+                            }
+                        }
+                    }
+                }
+            }
+            // the extreme keys survive the encoding
+            rebalances += Math.max(0, tree.insert(Integer.MIN_VALUE, "min"));
+            rebalances += Math.max(0, tree.insert(Integer.MAX_VALUE, "max"));
+            events = recorder.getEvents();
+        }
+
+        Trace trace = Trace.read(path);
+        boolean ok = trace.size() == events && trace.heapInserts() == inserted;
+        for (int i = 1; i < trace.size(); i++) {
+            ok &= trace.time(i) >= trace.time(i - 1);
+        }
+        WAVLTree replayedTree = new WAVLTree();
+        DHeap replayedHeap = new DHeap(3, trace.peakHeapSize());
+        TraceReplayer.Report report = TraceReplayer.replay(trace, "check", TraceReplayer.wavlTree(replayedTree),
+                TraceReplayer.dHeap(replayedHeap, trace.heapInserts()));
+        ok &= report.getEvents() == events;
+        ok &= Arrays.equals(tree.keysToArray(), replayedTree.keysToArray());
+        ok &= report.getWork(Trace.TREE_INSERT) + report.getWork(Trace.TREE_DELETE) == rebalances;
+        long replayedComparisons = 0;
+        for (byte op = Trace.HEAP_INSERT; op <= Trace.HEAP_UPDATE_KEY; op++) {
+            replayedComparisons += report.getWork(op);
+        }
+        ok &= replayedComparisons == comparisons;
+        ok &= replayedHeap.getSize() == heap.getSize();
+        int[] keys = new int[heap.getSize()]; // of the items left, without touching the recorded heap
+        int j = 0;
+        for (int i = 0; i < inserted && j < keys.length; i++) {
+            if (items[i].getPos() != -1) {
+                keys[j++] = items[i].getKey();
+            }
+        }
+        Arrays.sort(keys);
+        for (j = 0; ok && j < keys.length; j++) {
+            ok &= replayedHeap.Get_Min().getKey() == keys[j];
+            replayedHeap.Delete_Min();
+        }
+        if (!ok) {
+            System.out.println("check: \t\t\tfalse");
+        }
+    }
+
+    /**
+     * Record sparse and dense batches, and check a replay reaches the same
+     * keys.
+     */
+    private static void checkBatch(Path path) throws IOException {
+        Random rand = new Random();
+        WAVLTree tree;
+        long events;
+        long operations = 0; // every key of a batch is an event, once
+        try (TraceRecorder recorder = new TraceRecorder(path)) {
+            tree = new RecordingWAVLTree(recorder);
+            for (int round = 0; round < 20; round++) {
+                // alternately sparse and dense (rebuilt by a merge) batches
+                int m = round % 2 == 0 ? rand.nextInt(20) + 1 : 2 * tree.size() + rand.nextInt(MAX_KEY) + 1;
+                int[] keys = new int[m];
+                boolean[] isDelete = new boolean[m];
+                for (int j = 0; j < m; j++) {
+                    keys[j] = rand.nextInt(MAX_KEY);
+                    isDelete[j] = rand.nextInt(3) == 0;
+                }
+                Arrays.sort(keys);
+                tree.applyBatch(keys, null, isDelete);
+                tree.insert(rand.nextInt(MAX_KEY), "x");
+                operations += m + 1;
+            }
+            events = recorder.getEvents();
+        }
+        Trace trace = Trace.read(path);
+        WAVLTree replayedTree = new WAVLTree();
+        TraceReplayer.Report report = TraceReplayer.replay(trace, "batch", TraceReplayer.wavlTree(replayedTree),
+                TraceReplayer.dHeap(new DHeap(2, 1), 0));
+        if (events != operations || report.getEvents() != events || !Arrays.equals(tree.keysToArray(), replayedTree.keysToArray())) {
+            System.out.println("checkBatch: \t\tfalse");
+        }
+    }
+
+}
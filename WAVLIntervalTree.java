@@ -0,0 +1,487 @@
+package wavltree;
+
+import java.util.Arrays;
+
+import memory.MemoryFootprint;
+
+/**
+ * An interval tree on top of a WAVL Tree. Every node holds the closed
+ * intervals [start, end] of a start, its key, and is augmented with the
+ * greatest end in its subtree, which is maintained through insertions,
+ * deletions and rotations.
+ *
+ * Intervals may share their start (like sessions which begin at the same
+ * time): a node holds the first one in its end and value, and all of them in
+ * arrays once there is a second. size(), select(), rank() and the exports of
+ * WAVLTree count the starts, and search() returns the value of the first
+ * interval of a start; intervals() counts the intervals.
+ */
+public class WAVLIntervalTree extends WAVLTree {
+
+    private int intervals; // size() counts the starts
+    private long arrayBytes; // the arrays of the nodes which hold several intervals
+    private long moreValueBytes; // the values in those arrays, but the first of every node
+
+    /**
+     * Initialize an empty tree.
+     */
+    public WAVLIntervalTree() {
+        super();
+    }
+
+    /**
+     * Inserts the interval [start, end] with the given value into the tree.
+     * An interval with the same start is added to the node of the start.
+     *
+     * @param start
+     *            the start of the interval (the key)
+     * @param end
+     *            the end of the interval
+     * @param i
+     *            the value
+     * @return the number of re-balancing operations, 0 if no re-balancing
+     *         operations were necessary (as when the start is already in the
+     *         tree)
+     * @precondition start <= end
+     * @complexity O(log(n) + c) where n is the size of the tree, as in
+     *             WAVLTree.insert(), and c the number of intervals of the start
+     *             (amortized O(log(n)) if that is 1 or 2)
+     */
+    public int insert(int start, int end, String i) {
+        intervals++;
+        IntervalNode x = find(start);
+        if (x != null) {
+            add(x, end, i);
+            return 0;
+        }
+        int result = super.insert(start, i); // a node of no interval yet, see newNode()
+        x = find(start);
+        x.end = end;
+        updatePath(x); // the ancestors of x, which are the nodes whose subtree holds it
+        return result;
+    }
+
+    /**
+     * Inserts the single point interval [k, k].
+     *
+     * @see #insert(int, int, String)
+     */
+    @Override
+    public int insert(int k, String i) {
+        return insert(k, k, i);
+    }
+
+    /**
+     * Removes every interval which starts at k.
+     *
+     * @param k
+     *            the start
+     * @return the number of re-balancing operations, or -1 if no interval
+     *         starts at k
+     * @complexity O(log(n) + c) where n is the size of the tree and c the
+     *             number of intervals of the start
+     */
+    @Override
+    public int delete(int k) {
+        IntervalNode x = find(k);
+        if (x == null) {
+            return -1;
+        }
+        intervals -= x.intervals;
+        if (x.ends != null) { // the first value is the node's, WAVLTree counts it
+            arrayBytes -= arraysBytes(x.ends.length);
+            for (int j = 1; j < x.intervals; j++) {
+                moreValueBytes -= MemoryFootprint.stringBytes(x.values[j]);
+            }
+            x.ends = null;
+            x.values = null;
+            x.intervals = 1;
+        }
+        return super.delete(k);
+    }
+
+    /**
+     * Removes the interval [start, end], the first one inserted if there are
+     * several.
+     *
+     * @param start
+     *            the start of the interval
+     * @param end
+     *            the end of the interval
+     * @return the number of re-balancing operations, or -1 if the interval
+     *         is not in the tree
+     * @complexity O(log(n) + c) where n is the size of the tree and c the
+     *             number of intervals of the start
+     */
+    public int delete(int start, int end) {
+        IntervalNode x = find(start);
+        if (x == null) {
+            return -1;
+        } else if (x.ends == null) {
+            return x.end == end ? delete(start) : -1;
+        }
+        int j = 0;
+        while (j < x.intervals && x.ends[j] != end) {
+            j++;
+        }
+        if (j == x.intervals) {
+            return -1;
+        }
+        intervals--;
+        if (j == 0) { // the second interval becomes the first
+            moreValueBytes -= MemoryFootprint.stringBytes(x.values[1]);
+            replaceValue(x, x.values[1]);
+        } else {
+            moreValueBytes -= MemoryFootprint.stringBytes(x.values[j]);
+        }
+        x.intervals--;
+        System.arraycopy(x.ends, j + 1, x.ends, j, x.intervals - j);
+        System.arraycopy(x.values, j + 1, x.values, j, x.intervals - j);
+        x.values[x.intervals] = null;
+        if (x.intervals == 1) {
+            arrayBytes -= arraysBytes(x.ends.length);
+            x.end = x.ends[0];
+            x.ends = null;
+            x.values = null;
+        } else {
+            x.end = x.ends[0];
+            for (int l = 1; l < x.intervals; l++) {
+                x.end = Math.max(x.end, x.ends[l]);
+            }
+        }
+        updatePath(x);
+        return 0;
+    }
+
+    /**
+     * @return the number of intervals in the tree
+     * @complexity O(1)
+     */
+    public int intervals() {
+        return intervals;
+    }
+
+    /**
+     * Add an interval to the node of its start.
+     *
+     * @param x
+     *            the node
+     * @param end
+     *            the end of the interval
+     * @param i
+     *            the value
+     * @complexity O(log(n)) where n is the size of the tree, amortized if the
+     *             arrays of the node grow
+     */
+    private void add(IntervalNode x, int end, String i) {
+        if (x.ends == null) {
+            x.ends = new int[] { x.end, end };
+            x.values = new String[] { x.value, i };
+            arrayBytes += arraysBytes(2);
+        } else {
+            if (x.intervals == x.ends.length) {
+                arrayBytes += arraysBytes(2 * x.intervals) - arraysBytes(x.intervals);
+                x.ends = Arrays.copyOf(x.ends, 2 * x.intervals);
+                x.values = Arrays.copyOf(x.values, 2 * x.intervals);
+            }
+            x.ends[x.intervals] = end;
+            x.values[x.intervals] = i;
+        }
+        x.intervals++;
+        moreValueBytes += MemoryFootprint.stringBytes(i);
+        if (end > x.end) {
+            x.end = end;
+            updatePath(x);
+        }
+    }
+
+    /**
+     * @param start
+     *            a start
+     * @return the node of the start, null if no interval starts there
+     * @complexity O(log(n)) where n is the size of the tree
+     */
+    private IntervalNode find(int start) {
+        WAVLNode x = root;
+        while (x != EXT_NODE && x.key != start) {
+            x = start < x.key ? x.left : x.right;
+        }
+        return x == EXT_NODE ? null : (IntervalNode) x;
+    }
+
+    /**
+     * Update a node and its ancestors, once the end of the node changed.
+     *
+     * @param x
+     *            the node
+     * @complexity O(log(n)) where n is the size of the tree
+     */
+    private void updatePath(WAVLNode x) {
+        for (; x != null && x != EXT_NODE; x = x.parent) {
+            update(x);
+        }
+    }
+
+    /**
+     * @param capacity
+     *            the capacity of the arrays of a node
+     * @return the size of the arrays of the ends and the values
+     * @complexity O(1)
+     */
+    private static long arraysBytes(int capacity) {
+        return MemoryFootprint.arrayBytes(capacity, 4) + MemoryFootprint.arrayBytes(capacity, MemoryFootprint.REFERENCE);
+    }
+
+    /**
+     * Intervals which share their start share a node, rather than counting it
+     * in the multiset mode.
+     *
+     * @throws UnsupportedOperationException
+     *             if enabled
+     */
+    @Override
+    public void setMultiset(boolean enabled) {
+        if (enabled) {
+            throw new UnsupportedOperationException("an interval tree keeps the intervals of a start in its node");
+        }
+    }
+
+    /**
+     * A batch does not carry the ends of the intervals.
+     *
+     * @throws UnsupportedOperationException
+     *             always
+     */
+    @Override
+    public int applyBatch(int[] keys, String[] values, boolean[] isDelete) {
+        throw new UnsupportedOperationException("an interval tree needs the end of every interval");
+    }
+
+    /**
+     * Reports every interval which contains the point t.
+     *
+     * @param t
+     *            the point
+     * @param visitor
+     *            called once for every interval containing t, by increasing
+     *            start
+     * @return the number of intervals reported
+     * @complexity O(min(n, (k + 1) * log(n)) + c) where n is the size of the
+     *             tree, k is the number of intervals reported and c the number
+     *             of intervals which share their start with a reported one
+     */
+    public int stab(int t, IntervalVisitor visitor) {
+        return overlap(t, t, visitor);
+    }
+
+    /**
+     * Reports every interval which overlaps the closed interval [lo, hi].
+     *
+     * @param lo
+     *            the start of the query interval
+     * @param hi
+     *            the end of the query interval
+     * @param visitor
+     *            called once for every interval overlapping [lo, hi], by
+     *            increasing start, and in the order of insertion among those
+     *            of the same start
+     * @return the number of intervals reported
+     * @complexity O(min(n, (k + 1) * log(n)) + c) where n is the size of the
+     *             tree, k is the number of intervals reported and c the number
+     *             of intervals which share their start with a reported one
+     */
+    public int overlap(int lo, int hi, IntervalVisitor visitor) {
+        return overlap(root, lo, hi, visitor);
+    }
+
+    /**
+     * @param x
+     *            the subtree
+     * @param lo
+     *            the start of the query interval
+     * @param hi
+     *            the end of the query interval
+     * @param visitor
+     *            the visitor
+     * @return the number of intervals in the subtree which overlap [lo, hi]
+     * @complexity O(min(n, (k + 1) * log(n)) + c), as a subtree is only
+     *             entered if it holds an interval ending after lo, and the
+     *             walk stops at the first start after hi: every reported
+     *             interval costs at most a path, and so does the miss at the
+     *             end, and a node is scanned only if one of its c intervals
+     *             is reported
+     */
+    private int overlap(WAVLNode x, int lo, int hi, IntervalVisitor visitor) {
+        if (x == EXT_NODE || maxEnd(x) < lo) {
+            return 0;
+        }
+        IntervalNode y = (IntervalNode) x;
+        int count = overlap(y.left, lo, hi, visitor);
+        if (y.key > hi) { // so does every start in the right subtree
+            return count;
+        }
+        if (y.ends == null) {
+            if (y.end >= lo) {
+                visitor.visit(y.key, y.end, y.value);
+                count++;
+            }
+        } else if (y.end >= lo) {
+            for (int j = 0; j < y.intervals; j++) {
+                if (y.ends[j] >= lo) {
+                    visitor.visit(y.key, y.ends[j], y.values[j]);
+                    count++;
+                }
+            }
+        }
+        return count + overlap(y.right, lo, hi, visitor);
+    }
+
+    /**
+     * @param start
+     *            the start of the interval
+     * @return the greatest end of the intervals starting at start, or
+     *         Integer.MIN_VALUE if no such interval
+     * @complexity O(log(n)) where n is the size of the tree
+     */
+    public int end(int start) {
+        IntervalNode x = find(start);
+        return x == null ? Integer.MIN_VALUE : x.end;
+    }
+
+    /**
+     * Report the arrays of the nodes which hold several intervals, and their
+     * values, on top of what WAVLTree reports. The entries are the intervals.
+     *
+     * @return the report
+     * @complexity O(1), from counters kept by every update
+     */
+    @Override
+    public MemoryFootprint memoryFootprint() {
+        MemoryFootprint f = super.memoryFootprint();
+        return new MemoryFootprint(f.getLayout(), intervals, f.getStructuralBytes() + arrayBytes,
+                f.getPayloadBytes() + moreValueBytes, f.getSlackBytes(), f.getSharedBytes());
+    }
+
+    /**
+     * @param x
+     *            the node
+     * @return the greatest end in the subtree x, Integer.MIN_VALUE for the
+     *         sentinel
+     * @complexity O(1)
+     */
+    private static int maxEnd(WAVLNode x) {
+        return x == EXT_NODE ? Integer.MIN_VALUE : ((IntervalNode) x).maxEnd;
+    }
+
+    @Override
+    protected void update(WAVLNode x) {
+        super.update(x);
+        IntervalNode y = (IntervalNode) x;
+        y.maxEnd = Math.max(y.end, Math.max(maxEnd(y.left), maxEnd(y.right)));
+    }
+
+    /**
+     * Create a node of no interval yet: insert() sets its end once it is
+     * linked, so rebalancing does not count it in the greatest ends.
+     */
+    @Override
+    protected WAVLNode newNode(int k, String i, WAVLNode parent) {
+        IntervalNode x = (IntervalNode) super.newNode(k, i, parent);
+        x.end = Integer.MIN_VALUE;
+        x.maxEnd = Integer.MIN_VALUE;
+        x.ends = null;
+        x.values = null;
+        x.intervals = 1;
+        return x;
+    }
+
+    @Override
+    protected WAVLNode createNode() {
+        return new IntervalNode(0, 0, null, null);
+    }
+
+    @Override
+    protected int nodeBytes() {
+        // end, maxEnd, intervals, ends and values on top of the fields of a WAVLNode
+        return MemoryFootprint.objectBytes(7 * 4 + 6 * MemoryFootprint.REFERENCE + 1);
+    }
+
+    @Override
+    protected void copyContents(WAVLNode x, WAVLNode y) {
+        super.copyContents(x, y);
+        IntervalNode a = (IntervalNode) x;
+        IntervalNode b = (IntervalNode) y;
+        b.end = a.end;
+        b.maxEnd = a.maxEnd;
+        b.ends = a.ends;
+        b.values = a.values;
+        b.intervals = a.intervals;
+    }
+
+    @Override
+    protected void swapContents(WAVLNode x, WAVLNode y) {
+        super.swapContents(x, y);
+        IntervalNode a = (IntervalNode) x;
+        IntervalNode b = (IntervalNode) y;
+        int end = a.end;
+        a.end = b.end;
+        b.end = end;
+        int[] ends = a.ends;
+        a.ends = b.ends;
+        b.ends = ends;
+        String[] values = a.values;
+        a.values = b.values;
+        b.values = values;
+        int c = a.intervals;
+        a.intervals = b.intervals;
+        b.intervals = c;
+    }
+
+    /**
+     * Callback for reporting intervals without building intermediate arrays.
+     */
+    public interface IntervalVisitor {
+
+        /**
+         * @param start
+         *            the start of the interval
+         * @param end
+         *            the end of the interval
+         * @param value
+         *            the value stored with the interval
+         */
+        public void visit(int start, int end, String value);
+
+    }
+
+    public static class IntervalNode extends WAVLNode {
+
+        public int end; // the greatest end of the intervals of the node
+        public int maxEnd; // the greatest end in this node's subtree
+        int[] ends; // the ends of the intervals, in the order of insertion, null if there is one
+        String[] values; // their values, values[0] is the value of the node
+        int intervals = 1;
+
+        public IntervalNode(int start, int end, String value, WAVLNode parent) {
+            super(start, value, parent);
+            this.end = end;
+            this.maxEnd = end;
+        }
+
+        /**
+         * @return the greatest end of the node's intervals
+         */
+        public int getEnd() {
+            return end;
+        }
+
+        /**
+         * @return the number of intervals which start at the node's key
+         */
+        public int getIntervals() {
+            return intervals;
+        }
+
+    }
+
+}
@@ -0,0 +1,119 @@
+package wavltree;
+
+import java.util.Random;
+
+import memory.MemoryFootprint;
+
+public class WAVLIntervalTree_Tester {
+
+    public static int NUM_OF_OPERATIONS = 1000;
+    public static int MAX_LENGTH = 50;
+    public static int MAX_PER_START = 4;
+
+    // brute force copy: the ends of the intervals of every start, in the order of insertion
+    private static int[][] ends = new int[NUM_OF_OPERATIONS][MAX_PER_START];
+    private static int[] counts = new int[NUM_OF_OPERATIONS];
+
+    public static void main(String[] args) {
+        WAVLIntervalTree t = new WAVLIntervalTree();
+        t.setNodePooling(true);
+        Random rand = new Random();
+        for (int i = 0; i < NUM_OF_OPERATIONS; i++) {
+            insert(t, rand);
+            check(t, rand.nextInt(NUM_OF_OPERATIONS + MAX_LENGTH));
+        }
+        for (int i = 0; i < NUM_OF_OPERATIONS; i++) {
+            int start = rand.nextInt(NUM_OF_OPERATIONS);
+            if (rand.nextBoolean()) { // every interval of the start
+                if ((t.delete(start) != -1) != (counts[start] > 0)) {
+                    System.out.println("delete(" + start + "): \tunexpected result");
+                }
+                counts[start] = 0;
+            } else { // a single interval, which may not be there
+                int end = counts[start] > 0 && rand.nextBoolean() ? ends[start][rand.nextInt(counts[start])]
+                        : start + rand.nextInt(MAX_LENGTH);
+                int j = 0;
+                while (j < counts[start] && ends[start][j] != end) {
+                    j++;
+                }
+                if ((t.delete(start, end) != -1) != (j < counts[start])) {
+                    System.out.println("delete(" + start + ", " + end + "): \tunexpected result");
+                }
+                if (j < counts[start]) {
+                    counts[start]--;
+                    System.arraycopy(ends[start], j + 1, ends[start], j, counts[start] - j);
+                }
+            }
+            if (i % 2 == 0) { // churn, so removed nodes get reused
+                insert(t, rand);
+            }
+            check(t, rand.nextInt(NUM_OF_OPERATIONS + MAX_LENGTH));
+            if (i == NUM_OF_OPERATIONS / 2) {
+                t.compact();
+            }
+        }
+        WAVLTree_Tester.check(t);
+    }
+
+    /**
+     * Insert a random interval, often at a start which has intervals already.
+     */
+    private static void insert(WAVLIntervalTree t, Random rand) {
+        int start = rand.nextInt(NUM_OF_OPERATIONS / 4);
+        if (counts[start] == MAX_PER_START) {
+            return;
+        }
+        int end = start + rand.nextInt(MAX_LENGTH);
+        if (t.insert(start, end, value(start, end)) == -1) {
+            System.out.println("insert(" + start + ", " + end + "): \trejected");
+        }
+        ends[start][counts[start]++] = end;
+    }
+
+    private static String value(int start, int end) {
+        return start + "-" + end;
+    }
+
+    private static void check(WAVLIntervalTree t, int q) {
+        // the intervals which contain q, in the order stab() reports them
+        int expected = 0;
+        final int[] starts = new int[NUM_OF_OPERATIONS * MAX_PER_START];
+        final int[] expectedEnds = new int[starts.length];
+        int starts1 = 0;
+        int intervals = 0;
+        long payload = 0;
+        for (int start = 0; start < NUM_OF_OPERATIONS; start++) {
+            starts1 += counts[start] > 0 ? 1 : 0;
+            for (int j = 0; j < counts[start]; j++) {
+                intervals++;
+                payload += MemoryFootprint.stringBytes(value(start, ends[start][j]));
+                if (start <= q && ends[start][j] >= q) {
+                    starts[expected] = start;
+                    expectedEnds[expected++] = ends[start][j];
+                }
+            }
+        }
+        final int[] next = { 0 };
+        final boolean[] ok = { true };
+        int count = t.stab(q, new WAVLIntervalTree.IntervalVisitor() {
+            public void visit(int start, int end, String value) {
+                int j = next[0]++;
+                ok[0] &= j < starts.length && start == starts[j] && end == expectedEnds[j] && value.equals(value(start, end));
+            }
+        });
+        if (count != expected || !ok[0]) {
+            System.out.println("stab(" + q + "): \t" + count + " reported, " + expected + " expected, valid: " + ok[0]);
+        }
+        MemoryFootprint f = t.memoryFootprint();
+        if (t.intervals() != intervals || t.size() != starts1 || f.getEntries() != intervals || f.getPayloadBytes() != payload) {
+            System.out.println("intervals: \t" + t.intervals() + " of " + intervals + ", starts: " + t.size() + " of " + starts1
+                    + ", " + f);
+        }
+        int start = q % NUM_OF_OPERATIONS;
+        String first = counts[start] == 0 ? null : value(start, ends[start][0]);
+        if (first == null ? t.search(start) != null : !first.equals(t.search(start))) {
+            System.out.println("search(" + start + "): \t" + t.search(start) + ", expected " + first);
+        }
+    }
+
+}
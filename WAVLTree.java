@@ -1,5 +1,19 @@
 package wavltree;
 
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import memory.MemoryFootprint;
+
 /**
  * An implementation of a WAVL Tree with distinct integer keys and string info
  * 
@@ -8,22 +22,111 @@ package wavltree;
  */
 public class WAVLTree {
 
-    public static WAVLNode EXT_NODE; // used as sentinel
+    public static final WAVLNode EXT_NODE = new WAVLNode(); // used as sentinel, shared by all trees
 
     public WAVLNode root;
     public WAVLNode minNode;
     public WAVLNode maxNode;
 
+    private boolean fingerSearch; // start searches from the last accessed node
+    private WAVLNode finger; // the last accessed node, null for the root
+
+    private boolean multiset; // count duplicate keys rather than reject them
+
+    private boolean batching; // defer the derived fields to the end of applyBatch
+
+    private WAVLTreeSnapshot frozen; // serves the reads until the next write
+    private WAVLTreeSearchCache searchCache; // null if disabled
+
+    private static final int SLAB_SIZE = 256;
+
+    // a batch of at least DENSE_BATCH_RATIO times the size of the tree is
+    // merged and rebuilt rather than applied key by key: a sorted batch
+    // moves the finger little, while a rebuild allocates every node anew
+    private static final int DENSE_BATCH_RATIO = 2;
+
+    private boolean nodePooling; // recycle removed nodes
+    private WAVLNode freeList; // removed nodes, linked by their parent field
+    private int freeCount;
+
+    private int nodes; // the number of nodes, which is size() but in a multiset
+    private long valueBytes; // the estimated bytes of the values of the nodes
+
     /**
      * Initialize an empty tree.
      */
     public WAVLTree() {
-        EXT_NODE = new WAVLNode();
         root = EXT_NODE;
         minNode = root;
         maxNode = root;
     }
 
+    /**
+     * Build a tree from unsorted keys. Keeps the first occurrence of every
+     * key, like inserting the keys one by one in the given order would.
+     * 
+     * @param keys
+     *            the keys
+     * @param values
+     *            the values of the respective keys, or null for null values
+     * @return a new tree which contains the keys
+     * @precondition values == null || values.length == keys.length
+     * @complexity O(n * log(n)) work where n is keys.length, dominated by a
+     *             parallel sort, the build itself is O(n) work in parallel
+     */
+    public static WAVLTree build(int[] keys, String[] values) {
+        // sort by key, then by original index, in a single primitive array
+        long[] packed = new long[keys.length];
+        for (int j = 0; j < keys.length; j++) {
+            packed[j] = (long) keys[j] << 32 | j;
+        }
+        Arrays.parallelSort(packed);
+        int[] sortedKeys = new int[keys.length];
+        String[] sortedValues = new String[keys.length];
+        int n = 0;
+        for (int j = 0; j < packed.length; j++) {
+            int k = (int) (packed[j] >> 32);
+            if (n > 0 && sortedKeys[n - 1] == k) { // a later duplicate
+                continue;
+            }
+            sortedKeys[n] = k;
+            sortedValues[n] = values == null ? null : values[(int) packed[j]];
+            n++;
+        }
+        return buildSorted(sortedKeys, sortedValues, 0, n);
+    }
+
+    /**
+     * Build a perfectly balanced tree from sorted keys, building the left and
+     * right subtrees concurrently. Ranks and sizes are assigned bottom-up.
+     * 
+     * @param keys
+     *            the keys
+     * @param values
+     *            the values of the respective keys, or null for null values
+     * @param from
+     *            the index of the first key, inclusive
+     * @param to
+     *            the index of the last key, exclusive
+     * @return a new tree which contains keys[from..to)
+     * @precondition keys[from..to) is strictly increasing
+     * @complexity O(n) work where n == to - from, O(n / p + log(n)) time on p
+     *             cores
+     */
+    public static WAVLTree buildSorted(int[] keys, String[] values, int from, int to) {
+        WAVLTree t = new WAVLTree();
+        if (from < to) {
+            t.root = ForkJoinPool.commonPool().invoke(new BuildTask(keys, values, from, to));
+            t.minNode = t.min(t.root);
+            t.maxNode = t.max(t.root);
+            t.nodes = to - from;
+            for (int j = from; values != null && j < to; j++) {
+                t.valueBytes += MemoryFootprint.stringBytes(values[j]);
+            }
+        }
+        return t;
+    }
+
     /**
      * @return true if the tree is empty
      * @complexity O(1) clearly
@@ -43,38 +146,218 @@ public class WAVLTree {
      *             takes O(log(h))
      */
     public String search(int k) {
+        if (searchCache == null) {
+            return searchTree(k);
+        }
+        int slot = searchCache.find(k);
+        if (slot != -1) {
+            return searchCache.valueAt(slot);
+        }
+        String value = searchTree(k);
+        if (value != null) {
+            searchCache.put(k, value);
+        }
+        return value;
+    }
+
+    /**
+     * Returns the value associated with the given key, bypassing the search
+     * cache.
+     * 
+     * @param k
+     *            the key
+     * @return the value associated with the given key if the key is in the
+     *         tree, else null
+     * @complexity O(log(n)) where n is the size of the tree
+     */
+    private String searchTree(int k) {
+        if (frozen != null) {
+            return frozen.search(k);
+        } else if (fingerSearch) {
+            WAVLNode z = fingerPosition(k);
+            if (z != EXT_NODE) {
+                finger = z;
+            }
+            return z.key == k ? z.value : null;
+        }
         return search(root, k).value;
     }
 
     /**
-     * Returns the node associated with the given key in the subtree or null if
-     * no such node.
+     * Put a bounded cache in front of search(), so the hottest keys are found
+     * in O(1). Insertions and deletions invalidate their key in the cache, so
+     * it never returns a stale value. Keys with a null value are not cached.
+     * 
+     * @param capacity
+     *            the maximum number of cached keys
+     * @return the cache, which exposes the hit and miss counts
+     * @precondition capacity >= 1
+     * @complexity O(capacity)
+     */
+    public WAVLTreeSearchCache enableSearchCache(int capacity) {
+        searchCache = new WAVLTreeSearchCache(capacity);
+        return searchCache;
+    }
+
+    /**
+     * Remove the cache in front of search(), if any.
+     * 
+     * @complexity O(1)
+     */
+    public void disableSearchCache() {
+        searchCache = null;
+    }
+
+    /**
+     * @return the cache in front of search(), null if disabled
+     * @complexity O(1)
+     */
+    public WAVLTreeSearchCache getSearchCache() {
+        return searchCache;
+    }
+
+    /**
+     * Copy the tree into a compact read-only snapshot, which then serves
+     * search() and select() until the next insertion or deletion. Call again
+     * to rebuild it once the writes are over.
+     * 
+     * @return the snapshot
+     * @complexity O(n) where n is the size of the tree, O(1) if the tree did
+     *             not change since the last call
+     */
+    public WAVLTreeSnapshot freeze() {
+        if (frozen == null) {
+            int[] keys = new int[size()];
+            String[] values = new String[size()];
+            int[] counts = new int[size()];
+            int n = nodesToArrays(keys, values, counts, root);
+            if (n == size()) { // every count is 1
+                frozen = new WAVLTreeSnapshot(keys, values, null);
+            } else {
+                frozen = new WAVLTreeSnapshot(Arrays.copyOf(keys, n), Arrays.copyOf(values, n),
+                        Arrays.copyOf(counts, n));
+            }
+        }
+        return frozen;
+    }
+
+    /**
+     * @return true if reads are served by a snapshot, false otherwise
+     * @complexity O(1)
+     */
+    public boolean isFrozen() {
+        return frozen != null;
+    }
+
+    /**
+     * Enable or disable the multiset mode. While enabled, inserting an
+     * existing key increments its count (keeping its first value) rather than
+     * failing, and deleting a key decrements its count, removing the node only
+     * when the count reaches 0. Sizes, select(), rank() and the exports count
+     * every key as many times as its count.
+     * 
+     * @param enabled
+     *            true to enable the multiset mode, false to disable it
+     * @precondition enabled || every key has a count of 1
+     * @complexity O(1)
+     */
+    public void setMultiset(boolean enabled) {
+        multiset = enabled;
+    }
+
+    /**
+     * @return true if the tree is a multiset, false otherwise
+     * @complexity O(1)
+     */
+    public boolean isMultiset() {
+        return multiset;
+    }
+
+    /**
+     * @param k
+     *            the key
+     * @return the number of times the key is in the tree (at most 1 unless
+     *         in the multiset mode)
+     * @complexity O(log(n)) where n is the size of the tree
+     */
+    public int count(int k) {
+        return search(root, k).count;
+    }
+
+    /**
+     * @param k
+     *            the key
+     * @return the number of keys in the tree which are smaller than k,
+     *         counting every key as many times as its count
+     * @complexity O(log(n)) where n is the size of the tree
+     */
+    public int rank(int k) {
+        if (frozen != null) {
+            return frozen.rank(k);
+        }
+        int r = 0;
+        WAVLNode x = root;
+        while (x != EXT_NODE) {
+            if (k <= x.key) {
+                if (k == x.key) {
+                    return r + x.left.size;
+                }
+                x = x.left;
+            } else {
+                r += x.left.size + x.count;
+                x = x.right;
+            }
+        }
+        return r;
+    }
+
+    /**
+     * Enable or disable finger search. While enabled, searches, insertions and
+     * deletions start from the last accessed node (or from minNode/maxNode
+     * when the key is beyond them) rather than from the root, so accesses
+     * close to the previous one are cheap.
+     * 
+     * @param enabled
+     *            true to enable finger search, false to disable it
+     * @complexity O(1)
+     */
+    public void setFingerSearch(boolean enabled) {
+        fingerSearch = enabled;
+        finger = null;
+    }
+
+    /**
+     * @return true if finger search is enabled, false otherwise
+     * @complexity O(1)
+     */
+    public boolean isFingerSearch() {
+        return fingerSearch;
+    }
+
+    /**
+     * Returns the node associated with the given key in the subtree or the
+     * sentinel if no such node.
      * 
      * @param x
      *            the subtree
      * @param k
      *            the key
-     * @return node associated with the given key in the subtree or null if no
-     *         such node
+     * @return node associated with the given key in the subtree or EXT_NODE if
+     *         no such node
      * @complexity O(log(n)) where n is the size of the tree, as we traverse the
-     *             tree from bottom to top
+     *             tree from top to bottom
      */
     private WAVLNode search(WAVLNode x, int k) {
-
-        if (x == EXT_NODE) {
-            return EXT_NODE;
-        } else if (k < x.key) {
-            return search(x.left, k);
-        } else if (k > x.key) {
-            return search(x.right, k);
-        } else { // must be equal
-            return x;
+        while (x != EXT_NODE && k != x.key) {
+            x = k < x.key ? x.left : x.right;
         }
+        return x;
     }
 
     /**
      * Inserts the specified key-value pair into the tree. Does not change the
-     * tree if the key already exists.
+     * tree if the key already exists, unless in the multiset mode, where the
+     * count of the key is incremented (and its value kept).
      * 
      * @param k
      *            the key
@@ -82,25 +365,45 @@ public class WAVLTree {
      *            the value
      * @return the number of re-balancing operations, 0 if no re-balancing
      *         operations were necessary, -1 if an item with key k already
-     *         exists in the tree
+     *         exists in the tree (and the tree is not a multiset)
      * @complexity O(log(n)) where n is the size of the tree, as treePosition()
      *             and rebalanceAfterInsertion() and updateSizeOfAllParents()
      *             all take O(log(n))
      */
     public int insert(int k, String i) {
-        WAVLNode z = treePosition(root, k);
+        WAVLNode z = position(k);
         if (z == EXT_NODE) {
-            root = new WAVLNode(k, i, null);
+            frozen = null; // the search cache is empty, as the tree was
+            root = newNode(k, i, null);
+            nodes++;
+            valueBytes += MemoryFootprint.stringBytes(i);
             minNode = root;
             maxNode = root;
+            finger = root;
             return 0;
         } else if (k == z.key) {
-            return -1;
-        } else if (k < z.key) {
-            z.left = new WAVLNode(k, i, z);
+            finger = z;
+            if (!multiset) {
+                return -1;
+            }
+            frozen = null; // the value is kept, so the search cache is valid
+            z.count++;
+            updateSizeOfAllParents(z);
+            return 0;
+        }
+        frozen = null;
+        if (searchCache != null) { // only found keys are cached, but stay safe
+            searchCache.invalidate(k);
+        }
+        if (k < z.key) {
+            z.left = newNode(k, i, z);
+            finger = z.left;
         } else {
-            z.right = new WAVLNode(k, i, z);
+            z.right = newNode(k, i, z);
+            finger = z.right;
         }
+        nodes++;
+        valueBytes += MemoryFootprint.stringBytes(i);
         updateSizeOfAllParents(z);
         if (k < minNode.key) {
             minNode = z.left;
@@ -110,6 +413,53 @@ public class WAVLTree {
         return rebalanceAfterInsertion(z);
     }
 
+    /**
+     * Look for a key in the tree, starting from the finger if finger search is
+     * enabled and from the root otherwise.
+     * 
+     * @param k
+     *            the key
+     * @return the last node encountered before the node with key k
+     * @complexity O(log(n)) where n is the size of the tree
+     */
+    private WAVLNode position(int k) {
+        return fingerSearch ? fingerPosition(k) : treePosition(root, k);
+    }
+
+    /**
+     * Look for a key starting from the finger: climb from the finger only
+     * until reaching a subtree whose key range contains k, then descend.
+     * 
+     * @param k
+     *            the key
+     * @return the last node encountered before the node with key k
+     * @complexity O(log(d)) where d is the number of keys between the finger
+     *             and k, unless the path between them crosses a high ancestor
+     *             (O(log(n)) at worst). O(1) for keys beyond minNode/maxNode.
+     */
+    private WAVLNode fingerPosition(int k) {
+        if (root == EXT_NODE) {
+            return EXT_NODE;
+        } else if (k > maxNode.key) {
+            return maxNode;
+        } else if (k < minNode.key) {
+            return minNode;
+        }
+        WAVLNode x = finger == null ? root : finger;
+        if (k > x.key) { // stop below the first ancestor with a greater key
+            while (x.parent != null && x.parent.key <= k) {
+                settle(x);
+                x = x.parent;
+            }
+        } else if (k < x.key) { // stop below the first ancestor with a smaller key
+            while (x.parent != null && x.parent.key >= k) {
+                settle(x);
+                x = x.parent;
+            }
+        }
+        return treePosition(x, k);
+    }
+
     /**
      * Look for a key in a subtree, returns the last node encountered.
      * 
@@ -293,7 +643,9 @@ public class WAVLTree {
         WAVLNode b = x.right;
         WAVLNode p = y.parent;
         y.left = b;
-        b.parent = y;
+        if (b != EXT_NODE) { // the shared sentinel is never written, by any thread
+            b.parent = y;
+        }
         x.right = y;
         x.parent = p;
         y.parent = x;
@@ -304,8 +656,12 @@ public class WAVLTree {
                 p.right = x;
             }
         }
-        x.size = y.size;
-        y.size = y.left.size + y.right.size + 1;
+        update(y);
+        update(x);
+        if (batching) { // the updates are exact, unless a child is stale
+            y.dirty = y.left.dirty || y.right.dirty;
+            x.dirty = x.left.dirty || x.right.dirty;
+        }
         return x;
     }
 
@@ -323,7 +679,9 @@ public class WAVLTree {
         WAVLNode b = x.left;
         WAVLNode p = y.parent;
         y.right = b;
-        b.parent = y;
+        if (b != EXT_NODE) { // the shared sentinel is never written, by any thread
+            b.parent = y;
+        }
         x.left = y;
         x.parent = p;
         y.parent = x;
@@ -334,13 +692,19 @@ public class WAVLTree {
                 p.right = x;
             }
         }
-        x.size = y.size;
-        y.size = y.left.size + y.right.size + 1;
+        update(y);
+        update(x);
+        if (batching) { // the updates are exact, unless a child is stale
+            y.dirty = y.left.dirty || y.right.dirty;
+            x.dirty = x.left.dirty || x.right.dirty;
+        }
         return x;
     }
 
     /**
      * Removes the specified key and its value from the tree, if it is there.
+     * In the multiset mode, removes one occurrence of the key: the node is
+     * removed only with the last one.
      * 
      * @param k
      * @return the number of re-balancing operation, or -1 if a node with a key
@@ -350,10 +714,22 @@ public class WAVLTree {
      *             take O(log(n))
      */
     public int delete(int k) {
-        WAVLNode y = treePosition(root, k);
+        WAVLNode y = position(k);
         if (k != y.key) { // k not in tree
             return -1;
         }
+        frozen = null;
+        if (y.count > 1) { // the value is kept, so the search cache is valid
+            finger = y;
+            y.count--;
+            updateSizeOfAllParents(y);
+            return 0;
+        }
+        if (searchCache != null) {
+            searchCache.invalidate(k);
+        }
+        nodes--;
+        valueBytes -= MemoryFootprint.stringBytes(y.value);
         if (k == minNode.key) {
             minNode = y.right == EXT_NODE ? y.parent : successor(y);
         } else if (k == maxNode.key) {
@@ -368,10 +744,132 @@ public class WAVLTree {
         } else { // y is leaf
             removeLeafNode(y);
         }
+        releaseNode(y);
+        finger = z;
         updateSizeOfAllParents(z);
         return rebalanceAfterDeletion(z);
     }
 
+    /**
+     * Apply a sorted batch of upserts and deletions. A sparse batch is applied
+     * key by key from a finger, so every key starts from the node of the
+     * previous one and neighboring keys share their path. The sizes are not
+     * fixed up to the root for every key: the changed nodes and their
+     * ancestors are marked, neighboring keys sharing the marks of their common
+     * path, and every marked node is fixed once, bottom-up, when the finger
+     * climbs past it or at the end. The ranks are rebalanced key by key,
+     * which is O(1) amortized. A dense batch
+     * (at least DENSE_BATCH_RATIO times the size of the tree) is merged with
+     * the sorted keys of the tree, and the tree is rebuilt in O(n + m). In
+     * the multiset mode, the batch is always applied key by key, an upsert
+     * adding an occurrence.
+     * 
+     * @param keys
+     *            the keys, in a non decreasing order
+     * @param values
+     *            the values of the upserted keys, or null for null values
+     * @param isDelete
+     *            true for the keys to delete, false for the keys to upsert
+     *            (insert, or replace the value of), or null for upserts only
+     * @return the number of keys which were inserted, updated or deleted
+     * @precondition keys is sorted, and the operations on a key are applied
+     *               in their order in it
+     * @complexity O(m * log(n / m + 2) + log(n)) amortized for a sparse batch
+     *             of m keys, as both the finger and the marks cover the union
+     *             of the paths of the keys, O(n + m) for a dense one, where n
+     *             is the size of the tree
+     */
+    public int applyBatch(int[] keys, String[] values, boolean[] isDelete) {
+        int n = size();
+        if (!multiset && keys.length >= (long) DENSE_BATCH_RATIO * n) {
+            return mergeBatch(keys, values, isDelete);
+        }
+        boolean wasFingerSearch = fingerSearch;
+        fingerSearch = true;
+        finger = null;
+        batching = true;
+        int changes = 0;
+        try {
+            for (int j = 0; j < keys.length; j++) {
+                int k = keys[j];
+                if (isDelete != null && isDelete[j]) {
+                    if (delete(k) != -1) {
+                        changes++;
+                    }
+                    continue;
+                }
+                String v = values == null ? null : values[j];
+                changes++;
+                if (insert(k, v) == -1) { // the finger is at k
+                    replaceValue(finger, v);
+                }
+            }
+        } finally {
+            batching = false;
+            fixDirty(root);
+            fingerSearch = wasFingerSearch;
+            finger = null;
+        }
+        return changes;
+    }
+
+    /**
+     * Apply a sorted batch by merging it with the keys of the tree, and
+     * rebuild the tree from the result.
+     * 
+     * @see #applyBatch(int[], String[], boolean[])
+     * @complexity O(n + m) where n is the size of the tree and m the size of
+     *             the batch
+     */
+    private int mergeBatch(int[] keys, String[] values, boolean[] isDelete) {
+        int[] oldKeys = keysToArray();
+        String[] oldValues = infoToArray();
+        int n = oldKeys.length;
+        int m = keys.length;
+        int[] newKeys = new int[n + m];
+        String[] newValues = new String[n + m];
+        int i = 0;
+        int j = 0;
+        int o = 0;
+        int changes = 0;
+        while (i < n || j < m) {
+            if (j == m || (i < n && oldKeys[i] < keys[j])) { // untouched
+                newKeys[o] = oldKeys[i];
+                newValues[o++] = oldValues[i++];
+                continue;
+            }
+            int k = keys[j];
+            boolean present = i < n && oldKeys[i] == k;
+            String v = present ? oldValues[i++] : null;
+            for (; j < m && keys[j] == k; j++) { // the operations on k, in order
+                if (isDelete != null && isDelete[j]) {
+                    changes += present ? 1 : 0;
+                    present = false;
+                } else {
+                    changes++;
+                    present = true;
+                    v = values == null ? null : values[j];
+                }
+            }
+            if (present) {
+                newKeys[o] = k;
+                newValues[o++] = v;
+            }
+        }
+        WAVLTree t = buildSorted(newKeys, newValues, 0, o);
+        root = t.root;
+        minNode = t.minNode;
+        maxNode = t.maxNode;
+        nodes = t.nodes;
+        valueBytes = t.valueBytes;
+        finger = null;
+        frozen = null;
+        if (searchCache != null) {
+            searchCache.clear();
+        }
+        return changes;
+    }
+
     /**
      * Restores the WAVL tree property of the subtree after deletion was made.
      * 
@@ -537,13 +1035,30 @@ public class WAVLTree {
      */
     private WAVLNode replaceWithSuccessorOrPredecessor(WAVLNode y) {
         WAVLNode x = y == maxNode ? predecessor(y) : successor(y);
+        swapContents(x, y);
+        return x;
+    }
+
+    /**
+     * Exchange the contents (everything but the tree links and the rank) of
+     * two nodes.
+     * 
+     * @param x
+     *            a node
+     * @param y
+     *            another node
+     * @complexity O(1)
+     */
+    protected void swapContents(WAVLNode x, WAVLNode y) {
         int k = y.key;
         String i = y.value;
+        int c = y.count;
         y.key = x.key;
         y.value = x.value;
+        y.count = x.count;
         x.key = k;
         x.value = i;
-        return x;
+        x.count = c;
     }
 
     /**
@@ -558,8 +1073,8 @@ public class WAVLTree {
         WAVLNode z = y.parent;
         WAVLNode x = y.left == EXT_NODE ? y.right : y.left;
         x.parent = z;
-        if (z == null) {
-            root = EXT_NODE;
+        if (z == null) { // x is the only node left
+            root = x;
             minNode = root;
             maxNode = root;
         } else {
@@ -647,12 +1162,302 @@ public class WAVLTree {
      * @complexity O(log(n)) where n is the size of the tree
      */
     private void updateSizeOfAllParents(WAVLNode x) {
+        if (batching) {
+            markDirty(x);
+            return;
+        }
         while (x != null && x != EXT_NODE) {
-            x.size = x.left.size + x.right.size + 1;
+            update(x);
+            x = x.parent;
+        }
+    }
+
+    /**
+     * Mark a node and its ancestors as stale, in a batch. Every ancestor of a
+     * dirty node is dirty, so the climb stops at the first dirty one, and the
+     * keys of a batch share the marking of their common path.
+     * 
+     * @param x
+     *            the node
+     * @complexity O(the number of nodes marked)
+     */
+    private void markDirty(WAVLNode x) {
+        while (x != null && x != EXT_NODE && !x.dirty) {
+            x.dirty = true;
             x = x.parent;
         }
     }
 
+    /**
+     * Fix a dirty node whose children are clean, as the finger leaves it in a
+     * batch: it was just visited, so this is cheaper than fixing it at the
+     * end.
+     * 
+     * @param x
+     *            the node
+     * @complexity O(1)
+     */
+    private void settle(WAVLNode x) {
+        if (x.dirty && !x.left.dirty && !x.right.dirty) {
+            update(x);
+            x.dirty = false;
+        }
+    }
+
+    /**
+     * Recompute the derived fields of the dirty nodes of a subtree, bottom-up,
+     * and clear their marks. A clean node has a clean subtree, so it is not
+     * entered.
+     * 
+     * @param x
+     *            the subtree
+     * @complexity O(the number of dirty nodes), with a recursion depth of
+     *             O(log(n))
+     */
+    private void fixDirty(WAVLNode x) {
+        if (x == EXT_NODE || !x.dirty) {
+            return;
+        }
+        fixDirty(x.left);
+        fixDirty(x.right);
+        update(x);
+        x.dirty = false;
+    }
+
+    /**
+     * Recompute the fields of a node which are derived from its subtree (the
+     * size, which counts every key as many times as its count). Subclasses
+     * which augment the nodes with more fields override this to maintain them
+     * as well.
+     * 
+     * @param x
+     *            the node
+     * @precondition the children of x are up to date
+     * @complexity O(1)
+     */
+    protected void update(WAVLNode x) {
+        x.size = x.left.size + x.right.size + x.count;
+    }
+
+    /**
+     * Replace the value of a node in the tree, keeping the snapshot, the
+     * search cache and the payload count right.
+     * 
+     * @param x
+     *            the node
+     * @param i
+     *            the new value
+     * @complexity O(1)
+     */
+    protected void replaceValue(WAVLNode x, String i) {
+        frozen = null;
+        if (searchCache != null) {
+            searchCache.invalidate(x.key);
+        }
+        valueBytes += MemoryFootprint.stringBytes(i) - MemoryFootprint.stringBytes(x.value);
+        x.value = i;
+    }
+
+    /**
+     * Create a new node to be linked into the tree.
+     * 
+     * @param k
+     *            the key
+     * @param i
+     *            the value
+     * @param parent
+     *            the parent of the new node, null for the root
+     * @return the new node
+     * @complexity O(1)
+     */
+    protected WAVLNode newNode(int k, String i, WAVLNode parent) {
+        WAVLNode x;
+        if (nodePooling) {
+            if (freeList == null) {
+                allocateSlab();
+            }
+            x = freeList;
+            freeList = x.parent;
+            freeCount--;
+        } else {
+            x = createNode();
+        }
+        x.reset(k, i, parent);
+        return x;
+    }
+
+    /**
+     * Allocate a node which is not linked into any tree yet. Subclasses which
+     * use their own node class override this.
+     * 
+     * @return the new node
+     * @complexity O(1)
+     */
+    protected WAVLNode createNode() {
+        return new WAVLNode(0, null, null);
+    }
+
+    /**
+     * Copy the contents (everything but the tree links, the rank and the size)
+     * of a node into another node.
+     * 
+     * @param x
+     *            the node to copy from
+     * @param y
+     *            the node to copy to
+     * @complexity O(1)
+     */
+    protected void copyContents(WAVLNode x, WAVLNode y) {
+        y.key = x.key;
+        y.value = x.value;
+        y.count = x.count;
+    }
+
+    /**
+     * Enable or disable node pooling. While enabled, the nodes removed by
+     * delete() are kept in a free list and reused by insert(), and new nodes
+     * are allocated in slabs of consecutive nodes, so steady insert/delete
+     * churn allocates nothing.
+     * 
+     * @param enabled
+     *            true to enable node pooling, false to disable it and drop
+     *            the free list
+     * @complexity O(1)
+     */
+    public void setNodePooling(boolean enabled) {
+        nodePooling = enabled;
+        if (!enabled) {
+            freeList = null;
+            freeCount = 0;
+        }
+    }
+
+    /**
+     * @return the number of nodes in the free list
+     * @complexity O(1)
+     */
+    public int freeNodes() {
+        return freeCount;
+    }
+
+    /**
+     * Report the memory the tree uses: its nodes and keys, the snapshot and
+     * the search cache if any (structural), the values (payload), the nodes
+     * in the free list (slack) and the sentinel (shared).
+     * 
+     * @return the report
+     * @complexity O(1), from counters kept by every update
+     */
+    public MemoryFootprint memoryFootprint() {
+        long structural = MemoryFootprint.objectBytes(7 * MemoryFootprint.REFERENCE + 3 + 2 * 4 + 8)
+                + (long) nodes * nodeBytes();
+        if (frozen != null) {
+            structural += frozen.memoryBytes();
+        }
+        if (searchCache != null) {
+            structural += searchCache.memoryBytes();
+        }
+        return new MemoryFootprint(getClass().getSimpleName(), size(), structural, valueBytes,
+                (long) freeCount * nodeBytes(), nodeBytes());
+    }
+
+    /**
+     * The size of a node, for memoryFootprint(). Subclasses which use their
+     * own node class override this.
+     * 
+     * @return the size of a node in bytes
+     * @complexity O(1)
+     */
+    protected int nodeBytes() {
+        // key, rank, size and count, value, left, right and parent, and dirty
+        return MemoryFootprint.objectBytes(4 * 4 + 4 * MemoryFootprint.REFERENCE + 1);
+    }
+
+    /**
+     * Allocate a slab of nodes into the free list. The nodes are allocated one
+     * after the other, so the allocator lays them out next to each other.
+     * 
+     * @complexity O(SLAB_SIZE)
+     */
+    private void allocateSlab() {
+        WAVLNode[] slab = new WAVLNode[SLAB_SIZE];
+        for (int j = 0; j < SLAB_SIZE; j++) {
+            slab[j] = createNode();
+        }
+        for (int j = SLAB_SIZE - 1; j >= 0; j--) { // hand out in allocation order
+            slab[j].parent = freeList;
+            freeList = slab[j];
+        }
+        freeCount += SLAB_SIZE;
+    }
+
+    /**
+     * Put a node which was removed from the tree into the free list, if node
+     * pooling is enabled.
+     * 
+     * @param y
+     *            the removed node
+     * @complexity O(1)
+     */
+    private void releaseNode(WAVLNode y) {
+        if (!nodePooling) {
+            return;
+        }
+        y.value = null; // don't keep the value reachable
+        y.left = EXT_NODE;
+        y.right = EXT_NODE;
+        y.parent = freeList;
+        freeList = y;
+        freeCount++;
+    }
+
+    /**
+     * Replace every node of the tree by a fresh copy, allocated in the sorted
+     * order of keys, so nodes which are close in the tree are close in memory
+     * again after a long churn. Drops the free list, whose nodes are scattered.
+     * 
+     * @complexity O(n) where n is the size of the tree
+     */
+    public void compact() {
+        freeList = null;
+        freeCount = 0;
+        finger = null;
+        if (root == EXT_NODE) {
+            return;
+        }
+        root = compact(root);
+        root.parent = null;
+        minNode = min(root);
+        maxNode = max(root);
+    }
+
+    /**
+     * @param x
+     *            the subtree
+     * @return a copy of the subtree, whose nodes were allocated by in-order
+     * @complexity O(n) where n is the size of the subtree, with a recursion
+     *             depth of O(log(n))
+     */
+    private WAVLNode compact(WAVLNode x) {
+        if (x == EXT_NODE) {
+            return EXT_NODE;
+        }
+        WAVLNode left = compact(x.left);
+        WAVLNode y = createNode();
+        copyContents(x, y);
+        y.rank = x.rank;
+        y.size = x.size;
+        y.left = left;
+        y.right = compact(x.right);
+        if (y.left != EXT_NODE) {
+            y.left.parent = y;
+        }
+        if (y.right != EXT_NODE) {
+            y.right.parent = y;
+        }
+        return y;
+    }
+
     /**
      * @return the info string of the item with the smallest key in the tree,
      *         null otherwise
@@ -715,22 +1520,31 @@ public class WAVLTree {
     }
 
     /**
+     * Write the keys of a subtree in sorted order into an array.
+     * 
      * @param arr
      *            the array
      * @param x
      *            the subtree
      * @param i
-     *            the index
-     * @return a sorted array which contains all keys in the subtree x
-     * @complexity O(n) where n is the size of the subtree
+     *            the index to write the smallest key at
+     * @return the index following the last key written
+     * @complexity O(n) where n is the size of the subtree, iteratively with an
+     *             explicit stack of O(log(n)) nodes
      */
     public int keysToArray(int[] arr, WAVLNode x, int i) {
-        if (root.left != EXT_NODE) {
-            i = keysToArray(arr, x.left, i);
-        }
-        arr[i] = x.key;
-        if (root.right != EXT_NODE) {
-            i = keysToArray(arr, x.right, i);
+        WAVLNode[] stack = new WAVLNode[x.rank + 1]; // the height is at most the rank
+        int top = 0;
+        while (x != EXT_NODE || top > 0) {
+            while (x != EXT_NODE) {
+                stack[top++] = x;
+                x = x.left;
+            }
+            x = stack[--top];
+            for (int c = x.count; c > 0; c--) {
+                arr[i++] = x.key;
+            }
+            x = x.right;
         }
         return i;
     }
@@ -750,28 +1564,128 @@ public class WAVLTree {
     }
 
     /**
+     * Write the info of the nodes of a subtree, sorted by the respective keys,
+     * into an array.
+     * 
      * @param arr
      *            the array
      * @param x
      *            the subtree
      * @param i
-     *            the index
-     * @return a sorted array which contains all the info in the subtree x
-     * @complexity O(n) where n is the size of the subtree
+     *            the index to write the info of the smallest key at
+     * @return the index following the last info written
+     * @complexity O(n) where n is the size of the subtree, iteratively with an
+     *             explicit stack of O(log(n)) nodes
      */
-    public int infoToArray(String[] arr, WAVLNode node, int i) {
-        if (root.left != EXT_NODE) {
-            i = infoToArray(arr, node.left, i);
+    public int infoToArray(String[] arr, WAVLNode x, int i) {
+        WAVLNode[] stack = new WAVLNode[x.rank + 1]; // the height is at most the rank
+        int top = 0;
+        while (x != EXT_NODE || top > 0) {
+            while (x != EXT_NODE) {
+                stack[top++] = x;
+                x = x.left;
+            }
+            x = stack[--top];
+            for (int c = x.count; c > 0; c--) {
+                arr[i++] = x.value;
+            }
+            x = x.right;
         }
-        arr[i] = node.value;
-        if (root.right != EXT_NODE) {
-            i = infoToArray(arr, node.right, i);
+        return i;
+    }
+
+    /**
+     * Write the nodes of a subtree in sorted order into arrays, once per node
+     * whatever its count.
+     * 
+     * @param keys
+     *            the array of the keys
+     * @param values
+     *            the array of the values
+     * @param counts
+     *            the array of the counts
+     * @param x
+     *            the subtree
+     * @return the number of nodes written
+     * @complexity O(n) where n is the size of the subtree, iteratively with an
+     *             explicit stack of O(log(n)) nodes
+     */
+    private int nodesToArrays(int[] keys, String[] values, int[] counts, WAVLNode x) {
+        WAVLNode[] stack = new WAVLNode[x.rank + 1]; // the height is at most the rank
+        int top = 0;
+        int i = 0;
+        while (x != EXT_NODE || top > 0) {
+            while (x != EXT_NODE) {
+                stack[top++] = x;
+                x = x.left;
+            }
+            x = stack[--top];
+            keys[i] = x.key;
+            values[i] = x.value;
+            counts[i++] = x.count;
+            x = x.right;
         }
         return i;
     }
 
     /**
-     * @return the number of nodes in the tree
+     * Same as keysToArray(), but the subtrees are exported concurrently, each
+     * into the range of the array it owns, which is known from the sizes.
+     * 
+     * @return a sorted array which contains all keys in the tree
+     * @complexity O(n) work where n is the size of the tree, O(n / p + log(n))
+     *             time on p cores
+     */
+    public int[] parallelKeysToArray() {
+        int[] keys = new int[size()];
+        ForkJoinPool.commonPool().invoke(new KeysToArrayTask(keys, root, 0));
+        return keys;
+    }
+
+    /**
+     * @return a spliterator over the keys of the tree, by increasing order,
+     *         which splits into two halves of exact size
+     * @precondition the tree is not modified while the spliterator is used
+     * @complexity O(1), O(log(n)) per split and O(1) amortized per key
+     */
+    public Spliterator.OfInt keySpliterator() {
+        return new KeySpliterator(0, size());
+    }
+
+    /**
+     * @return a spliterator over the nodes (key/value pairs) of the tree, by
+     *         increasing order of keys, which splits into two halves of exact
+     *         size
+     * @precondition the tree is not modified while the spliterator is used
+     * @complexity O(1), O(log(n)) per split and O(1) amortized per node
+     */
+    public Spliterator<IWAVLNode> spliterator() {
+        return new NodeSpliterator(0, size());
+    }
+
+    /**
+     * @param parallel
+     *            true for a parallel stream, false for a sequential one
+     * @return a stream of the keys of the tree, by increasing order
+     * @precondition the tree is not modified while the stream is used
+     */
+    public IntStream keyStream(boolean parallel) {
+        return StreamSupport.intStream(keySpliterator(), parallel);
+    }
+
+    /**
+     * @param parallel
+     *            true for a parallel stream, false for a sequential one
+     * @return a stream of the nodes of the tree, by increasing order of keys
+     * @precondition the tree is not modified while the stream is used
+     */
+    public Stream<IWAVLNode> stream(boolean parallel) {
+        return StreamSupport.stream(spliterator(), parallel);
+    }
+
+    /**
+     * @return the number of keys in the tree, counting every key as many times
+     *         as its count
      * @complexity O(1) clearly
      */
     public int size() {
@@ -800,23 +1714,311 @@ public class WAVLTree {
 
     /**
      * @param i
-     *            the key
-     * @return the value of the i'th smallest key, -1 if the tree is empty
+     *            the rank, starting from 1
+     * @return the value of the i'th smallest key, null if the tree has less
+     *         than i keys (or i < 1)
      * @complexity O(log(n)) where n is the size of the tree
      */
     public String select(int i) {
+        if (frozen != null) {
+            return frozen.select(i);
+        }
         return select(root, i).value;
     }
 
+    /**
+     * @param i
+     *            the rank, starting from 1
+     * @return the i'th smallest key, counting every key as many times as its
+     *         count
+     * @precondition 1 <= i <= size()
+     * @complexity O(log(n)) where n is the size of the tree
+     */
+    public int selectKey(int i) {
+        return select(root, i).key; // the tree is intact while frozen
+    }
+
+    /**
+     * @param x
+     *            the subtree
+     * @param i
+     *            the rank, starting from 1
+     * @return the node with the i'th smallest key in the subtree x, EXT_NODE
+     *         if the subtree has less than i keys (or i < 1)
+     * @complexity O(log(n)) where n is the size of the tree, as we traverse the
+     *             tree from top to bottom
+     */
     private WAVLNode select(WAVLNode x, int i) {
-        int r = x.left == EXT_NODE ? 1 : x.left.size;
-        if (i == r) {
+        if (i < 1 || i > x.size) {
+            return EXT_NODE;
+        }
+        while (true) { // the keys of x have the ranks l+1..l+count
+            int l = x.left.size;
+            if (i <= l) {
+                x = x.left;
+            } else if (i > l + x.count) {
+                i -= l + x.count;
+                x = x.right;
+            } else {
+                return x;
+            }
+        }
+    }
+
+    /**
+     * Exports a subtree into its precomputed range of the array, forking the
+     * left subtree while the subtree is large enough to be worth it.
+     */
+    private class KeysToArrayTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+        private static final int THRESHOLD = 1 << 13;
+
+        private final int[] arr;
+        private final WAVLNode x;
+        private final int i;
+
+        KeysToArrayTask(int[] arr, WAVLNode x, int i) {
+            this.arr = arr;
+            this.x = x;
+            this.i = i;
+        }
+
+        @Override
+        protected void compute() {
+            if (x.size <= THRESHOLD) {
+                keysToArray(arr, x, i);
+                return;
+            }
+            KeysToArrayTask left = new KeysToArrayTask(arr, x.left, i);
+            left.fork();
+            int j = i + x.left.size;
+            for (int c = x.count; c > 0; c--) {
+                arr[j++] = x.key;
+            }
+            new KeysToArrayTask(arr, x.right, j).compute();
+            left.join();
+        }
+
+    }
+
+    /**
+     * Builds the subtree of keys[lo..hi) rooted at the middle key, forking the
+     * left half while the range is large enough to be worth it.
+     */
+    private static class BuildTask extends RecursiveTask<WAVLNode> {
+
+        private static final long serialVersionUID = 1L;
+        private static final int THRESHOLD = 1 << 13;
+
+        private final int[] keys;
+        private final String[] values;
+        private final int lo;
+        private final int hi;
+
+        BuildTask(int[] keys, String[] values, int lo, int hi) {
+            this.keys = keys;
+            this.values = values;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected WAVLNode compute() {
+            if (hi - lo <= THRESHOLD) {
+                return build(lo, hi);
+            }
+            int mid = (lo + hi) >>> 1;
+            BuildTask left = new BuildTask(keys, values, lo, mid);
+            left.fork();
+            WAVLNode right = new BuildTask(keys, values, mid + 1, hi).compute();
+            return link(mid, left.join(), right);
+        }
+
+        /**
+         * @complexity O(n) where n == hi - lo, with a recursion depth of
+         *             O(log(n))
+         */
+        private WAVLNode build(int lo, int hi) {
+            if (lo >= hi) {
+                return EXT_NODE;
+            }
+            int mid = (lo + hi) >>> 1;
+            return link(mid, build(lo, mid), build(mid + 1, hi));
+        }
+
+        /**
+         * @return a node for keys[mid] with the given subtrees
+         * @complexity O(1)
+         */
+        private WAVLNode link(int mid, WAVLNode left, WAVLNode right) {
+            WAVLNode x = new WAVLNode(keys[mid], values == null ? null : values[mid], null);
+            x.left = left;
+            x.right = right;
+            if (left != EXT_NODE) {
+                left.parent = x;
+            }
+            if (right != EXT_NODE) {
+                right.parent = x;
+            }
+            // the halves differ by at most one key, so their heights by at
+            // most one: every rank difference is 1 or 2
+            x.rank = Math.max(left.rank, right.rank) + 1;
+            x.size = left.size + right.size + 1;
             return x;
-        } else if (i < r) {
-            return select(x.left, i);
-        } else {
-            return select(x.right, i - r - 1);
         }
+
+    }
+
+    /**
+     * Base of the tree spliterators: covers the keys whose (0 based) ranks
+     * are in [lo, hi), and splits at the middle rank so both halves have an
+     * exact size. The first node is located lazily with select(), and the
+     * following ones with successor(). A node with a count of c covers c
+     * consecutive ranks.
+     */
+    private abstract class RankSpliterator {
+
+        protected int lo;
+        protected final int hi;
+        protected WAVLNode next; // the node of rank lo, null until located
+        protected int offset; // the number of ranks of next before lo
+
+        RankSpliterator(int lo, int hi) {
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        /**
+         * @return the node of rank lo, or null if the range is exhausted
+         * @complexity O(log(n)) for the first node, O(1) amortized after it
+         */
+        protected WAVLNode advance() {
+            if (lo >= hi) {
+                return null;
+            }
+            if (next == null) {
+                next = select(root, lo + 1);
+                offset = lo - rank(next.key);
+            }
+            WAVLNode x = next;
+            lo++;
+            if (++offset == x.count) {
+                next = lo < hi ? successor(x) : null;
+                offset = 0;
+            }
+            return x;
+        }
+
+        /**
+         * @return the rank to split this range at, -1 if it is too small to
+         *         split
+         */
+        protected int splitPoint() {
+            int mid = (lo + hi) >>> 1;
+            if (mid <= lo) {
+                return -1;
+            }
+            return mid;
+        }
+
+        public long estimateSize() {
+            return hi - lo;
+        }
+
+        public int characteristics() {
+            return Spliterator.ORDERED | Spliterator.SORTED | (multiset ? 0 : Spliterator.DISTINCT)
+                    | Spliterator.SIZED | Spliterator.SUBSIZED | Spliterator.NONNULL;
+        }
+
+    }
+
+    private class KeySpliterator extends RankSpliterator implements Spliterator.OfInt {
+
+        KeySpliterator(int lo, int hi) {
+            super(lo, hi);
+        }
+
+        @Override
+        public boolean tryAdvance(IntConsumer action) {
+            WAVLNode x = advance();
+            if (x == null) {
+                return false;
+            }
+            action.accept(x.key);
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(IntConsumer action) {
+            for (WAVLNode x = advance(); x != null; x = advance()) {
+                action.accept(x.key);
+            }
+        }
+
+        @Override
+        public Spliterator.OfInt trySplit() {
+            int mid = splitPoint();
+            if (mid == -1) {
+                return null;
+            }
+            KeySpliterator prefix = new KeySpliterator(lo, mid);
+            prefix.next = next;
+            prefix.offset = offset;
+            lo = mid;
+            next = null;
+            return prefix;
+        }
+
+        @Override
+        public Comparator<? super Integer> getComparator() {
+            return null; // natural order
+        }
+
+    }
+
+    private class NodeSpliterator extends RankSpliterator implements Spliterator<IWAVLNode> {
+
+        NodeSpliterator(int lo, int hi) {
+            super(lo, hi);
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super IWAVLNode> action) {
+            WAVLNode x = advance();
+            if (x == null) {
+                return false;
+            }
+            action.accept(x);
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super IWAVLNode> action) {
+            for (WAVLNode x = advance(); x != null; x = advance()) {
+                action.accept(x);
+            }
+        }
+
+        @Override
+        public Spliterator<IWAVLNode> trySplit() {
+            int mid = splitPoint();
+            if (mid == -1) {
+                return null;
+            }
+            NodeSpliterator prefix = new NodeSpliterator(lo, mid);
+            prefix.next = next;
+            prefix.offset = offset;
+            lo = mid;
+            next = null;
+            return prefix;
+        }
+
+        @Override
+        public Comparator<? super IWAVLNode> getComparator() {
+            return Comparator.comparingInt(IWAVLNode::getKey);
+        }
+
     }
 
     /**
@@ -851,10 +2053,17 @@ public class WAVLTree {
         public boolean isRealNode();
 
         /**
-         * @return the number of real nodes in this node's subtree
+         * @return the number of keys in this node's subtree, counting every
+         *         key as many times as its count
          */
         public int getSubtreeSize();
 
+        /**
+         * @return the number of times the node's key is in the tree (0 for
+         *         virtual node)
+         */
+        public int getCount();
+
         /**
          * @return the node's rank (-1 for virtual node)
          */
@@ -862,7 +2071,7 @@ public class WAVLTree {
 
     }
 
-    public class WAVLNode implements IWAVLNode {
+    public static class WAVLNode implements IWAVLNode {
 
         public int key;
         public String value;
@@ -871,8 +2080,18 @@ public class WAVLTree {
         public WAVLNode parent;
         public int rank;
         public int size;
+        public int count; // the multiplicity of the key
+        boolean dirty; // the derived fields are stale, in a batch
 
         public WAVLNode(int key, String value, WAVLNode parent) {
+            reset(key, value, parent);
+        }
+
+        /**
+         * Turn the node into a new leaf, so it can be linked into a tree
+         * again.
+         */
+        public void reset(int key, String value, WAVLNode parent) {
             this.key = key;
             this.value = value;
             this.parent = parent;
@@ -880,6 +2099,8 @@ public class WAVLTree {
             this.right = EXT_NODE;
             this.rank = 0;
             this.size = 1;
+            this.count = 1;
+            this.dirty = false;
         }
 
         /**
@@ -890,6 +2111,7 @@ public class WAVLTree {
             value = null;
             rank = -1;
             size = 0;
+            count = 0;
         }
 
         /**
@@ -928,12 +2150,21 @@ public class WAVLTree {
         }
 
         /**
-         * @return the number of real nodes in this node's subtree
+         * @return the number of keys in this node's subtree, counting every
+         *         key as many times as its count
          */
         public int getSubtreeSize() {
             return size;
         }
 
+        /**
+         * @return the number of times the node's key is in the tree (0 for
+         *         virtual node)
+         */
+        public int getCount() {
+            return count;
+        }
+
         /**
          * @return the node's rank (-1 for virtual node)
          */
@@ -0,0 +1,108 @@
+package wavltree;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+import wavltree.WAVLTree.WAVLNode;
+
+/**
+ * Compares the iterative read path of WAVLTree (search, select and the array
+ * exports) with the recursive versions it replaced, and with the frozen
+ * snapshot.
+ */
+public class WAVLTreeReadMeasurements {
+
+    public static int[] N = { 10000, 100000, 1000000, 10000000 };
+    public static int ROUNDS = 10;
+
+    public static void main(String[] args) {
+        for (int n : N) {
+            WAVLTree t = randomTree(n);
+            long[] iterative = new long[3];
+            long[] recursive = new long[3];
+            long frozen = 0;
+            for (int round = 0; round < ROUNDS; round++) { // the first rounds warm up the JIT
+                iterative[0] = time(t, n, 0, false);
+                recursive[0] = time(t, n, 0, true);
+                iterative[1] = time(t, n, 1, false);
+                recursive[1] = time(t, n, 1, true);
+                iterative[2] = time(t, n, 2, false);
+                recursive[2] = time(t, n, 2, true);
+                t.freeze();
+                frozen = time(t, n, 0, false);
+                t.insert(-1, null); // thaw
+                t.delete(-1);
+            }
+            System.out.println("n = " + n);
+            System.out.println("  search (ns/op):      iterative " + iterative[0] / n + ", recursive " + recursive[0] / n
+                    + ", frozen " + frozen / n);
+            System.out.println("  select (ns/op):      iterative " + iterative[1] / n + ", recursive " + recursive[1] / n);
+            System.out.println("  keysToArray (ns/key): iterative " + (double) iterative[2] / n + ", recursive "
+                    + (double) recursive[2] / n);
+        }
+    }
+
+    private static WAVLTree randomTree(int n) {
+        ArrayList<Integer> keys = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            keys.add(i);
+        }
+        Collections.shuffle(keys);
+        WAVLTree t = new WAVLTree();
+        for (int k : keys) {
+            t.insert(k, Integer.toString(k));
+        }
+        return t;
+    }
+
+    private static long time(WAVLTree t, int n, int op, boolean recursive) {
+        long sink = 0;
+        long start = System.nanoTime();
+        if (op == 0) {
+            for (int j = 0; j < n; j++) {
+                int k = (int) (j * 2654435761L % n); // a random looking order
+                sink += (recursive ? search(t.root, k).value : t.search(k)) != null ? 1 : 0;
+            }
+        } else if (op == 1) {
+            for (int i = 1; i <= n; i++) {
+                sink += (recursive ? select(t.root, i).value : t.select(i)) != null ? 1 : 0;
+            }
+        } else {
+            int[] arr = recursive ? new int[n] : t.keysToArray();
+            if (recursive) {
+                keysToArray(arr, t.root, 0);
+            }
+            sink += arr[n - 1];
+        }
+        long time = System.nanoTime() - start;
+        if (sink == 42) {
+            System.out.println(); // keeps the loops from being eliminated
+        }
+        return time;
+    }
+
+    private static WAVLNode search(WAVLNode x, int k) {
+        if (x == WAVLTree.EXT_NODE || k == x.key) {
+            return x;
+        }
+        return k < x.key ? search(x.left, k) : search(x.right, k);
+    }
+
+    private static WAVLNode select(WAVLNode x, int i) {
+        int r = x.left.size + 1;
+        if (i == r) {
+            return x;
+        }
+        return i < r ? select(x.left, i) : select(x.right, i - r);
+    }
+
+    private static int keysToArray(int[] arr, WAVLNode x, int i) {
+        if (x == WAVLTree.EXT_NODE) {
+            return i;
+        }
+        i = keysToArray(arr, x.left, i);
+        arr[i++] = x.key;
+        return keysToArray(arr, x.right, i);
+    }
+
+}
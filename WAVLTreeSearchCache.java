@@ -0,0 +1,248 @@
+package wavltree;
+
+import memory.MemoryFootprint;
+
+/**
+ * A bounded cache of the results of WAVLTree.search(), keyed by primitive
+ * ints. Entries live in an open addressing table with linear probing, and
+ * are evicted by the CLOCK policy: the hand sweeps the table, sparing (once)
+ * the entries which were hit since it last passed, and evicting the first
+ * one which was not.
+ *
+ * The tree invalidates the exact key on every insertion and deletion, so the
+ * cache never returns a stale value.
+ */
+public class WAVLTreeSearchCache {
+
+    private static final byte EMPTY = 0;
+    private static final byte OCCUPIED = 1;
+    private static final byte REFERENCED = 2; // occupied and hit recently
+
+    private final int capacity;
+    private final int shift; // 32 - log2 of the table length
+    private final int mask;
+    private final int[] keys;
+    private final String[] values;
+    private final byte[] state;
+    private int count;
+    private int hand;
+
+    private long hits;
+    private long misses;
+
+    /**
+     * @param capacity
+     *            the maximum number of cached keys
+     * @precondition capacity >= 1
+     */
+    public WAVLTreeSearchCache(int capacity) {
+        this.capacity = capacity;
+        int length = Integer.highestOneBit(Math.max(2, 2 * capacity - 1)) << 1; // load <= 1/2
+        shift = 32 - Integer.numberOfTrailingZeros(length);
+        mask = length - 1;
+        keys = new int[length];
+        values = new String[length];
+        state = new byte[length];
+    }
+
+    /**
+     * @param k
+     *            the key
+     * @return the home slot of the key
+     * @complexity O(1)
+     */
+    private int hash(int k) {
+        return (k * 0x9E3779B9) >>> shift;
+    }
+
+    /**
+     * Look for a key, counting a hit or a miss.
+     *
+     * @param k
+     *            the key
+     * @return the slot of the key, -1 if it is not cached
+     * @complexity O(1) expected
+     */
+    int find(int k) {
+        int s = slot(k);
+        if (s == -1) {
+            misses++;
+        } else {
+            hits++;
+            state[s] = REFERENCED;
+        }
+        return s;
+    }
+
+    /**
+     * @param s
+     *            a slot returned by find()
+     * @return the value cached in the slot
+     * @complexity O(1)
+     */
+    String valueAt(int s) {
+        return values[s];
+    }
+
+    /**
+     * @param k
+     *            the key
+     * @return the slot of the key, -1 if it is not cached
+     * @complexity O(1) expected
+     */
+    private int slot(int k) {
+        for (int s = hash(k); state[s] != EMPTY; s = (s + 1) & mask) {
+            if (keys[s] == k) {
+                return s;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Cache the value of a key, evicting another key if the cache is full.
+     *
+     * @param k
+     *            the key
+     * @param v
+     *            the value
+     * @complexity O(1) amortized, as the hand clears a referenced entry at
+     *             most once per eviction it passes over
+     */
+    void put(int k, String v) {
+        int s = slot(k);
+        if (s == -1) {
+            if (count == capacity) {
+                evict();
+            }
+            for (s = hash(k); state[s] != EMPTY; s = (s + 1) & mask) {
+            }
+            keys[s] = k;
+            state[s] = OCCUPIED;
+            count++;
+        }
+        values[s] = v;
+    }
+
+    /**
+     * Forget a key, if it is cached.
+     *
+     * @param k
+     *            the key
+     * @complexity O(1) expected
+     */
+    void invalidate(int k) {
+        int s = slot(k);
+        if (s != -1) {
+            remove(s);
+        }
+    }
+
+    /**
+     * Forget every key.
+     *
+     * @complexity O(n) where n is the length of the table
+     */
+    public void clear() {
+        for (int s = 0; s <= mask; s++) {
+            state[s] = EMPTY;
+            values[s] = null;
+        }
+        count = 0;
+    }
+
+    /**
+     * Advance the hand until it finds an entry which was not hit since it last
+     * passed, and evict it.
+     */
+    private void evict() {
+        while (true) {
+            int s = hand;
+            hand = (hand + 1) & mask;
+            if (state[s] == REFERENCED) {
+                state[s] = OCCUPIED; // second chance
+            } else if (state[s] == OCCUPIED) {
+                remove(s);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Empty a slot, and shift back the entries of the following probe
+     * sequence which can no longer be reached past it.
+     *
+     * @param i
+     *            the slot
+     * @complexity O(1) expected
+     */
+    private void remove(int i) {
+        count--;
+        for (int j = (i + 1) & mask; state[j] != EMPTY; j = (j + 1) & mask) {
+            int h = hash(keys[j]);
+            // the entry at j may stay iff its home slot is cyclically in (i, j]
+            if (i <= j ? (i < h && h <= j) : (i < h || h <= j)) {
+                continue;
+            }
+            keys[i] = keys[j];
+            values[i] = values[j];
+            state[i] = state[j];
+            i = j;
+        }
+        state[i] = EMPTY;
+        values[i] = null;
+    }
+
+    /**
+     * @return the number of cached keys
+     * @complexity O(1)
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @return the maximum number of cached keys
+     * @complexity O(1)
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the estimated bytes of the table, for WAVLTree.memoryFootprint()
+     * @complexity O(1)
+     */
+    long memoryBytes() {
+        return MemoryFootprint.objectBytes(6 * 4 + 2 * 8 + 3 * MemoryFootprint.REFERENCE)
+                + MemoryFootprint.arrayBytes(keys.length, 4)
+                + MemoryFootprint.arrayBytes(values.length, MemoryFootprint.REFERENCE)
+                + MemoryFootprint.arrayBytes(state.length, 1);
+    }
+
+    /**
+     * @return the number of searches answered by the cache
+     * @complexity O(1)
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of searches which went to the tree
+     * @complexity O(1)
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return the fraction of searches answered by the cache, 0 if there were
+     *         none
+     * @complexity O(1)
+     */
+    public double hitRatio() {
+        return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+    }
+
+}
@@ -0,0 +1,172 @@
+package wavltree;
+
+import memory.MemoryFootprint;
+
+/**
+ * A read-only copy of a WAVLTree in an implicit layout: the keys are stored in
+ * an array in Eytzinger (breadth first) order, so the node i has its children
+ * at 2i and 2i+1. A search touches one array element per level, the top
+ * levels share a few cache lines, and the descent is branch-free.
+ *
+ * Created by WAVLTree.freeze().
+ */
+public class WAVLTreeSnapshot {
+
+    private final int n;
+    private final int[] keys; // Eytzinger order, from index 1
+    private final String[] values; // Eytzinger order, from index 1
+    private final int[] ranks; // the 0 based rank of the key at every index
+    private final int[] indexes; // the index of the key of every 0 based rank
+    private final int[] before; // before[r] counts the keys of the ranks < r, null if all counts are 1
+
+    private int prefetched; // sink for the loads which warm up the cache
+
+    /**
+     * @param sortedKeys
+     *            the keys, strictly increasing
+     * @param sortedValues
+     *            the values of the respective keys
+     * @param counts
+     *            the counts of the respective keys (of a multiset), null if
+     *            they are all 1
+     * @complexity O(n) where n is sortedKeys.length
+     */
+    WAVLTreeSnapshot(int[] sortedKeys, String[] sortedValues, int[] counts) {
+        n = sortedKeys.length;
+        keys = new int[n + 1];
+        values = new String[n + 1];
+        ranks = new int[n + 1];
+        indexes = new int[n];
+        fill(sortedKeys, sortedValues, 0, 1);
+        if (counts == null) {
+            before = null;
+        } else {
+            before = new int[n + 1];
+            for (int i = 0; i < n; i++) {
+                before[i + 1] = before[i] + counts[i];
+            }
+        }
+    }
+
+    /**
+     * Fill the subtree at index j with the sorted keys from index i on.
+     *
+     * @return the index of the first sorted key not used
+     * @complexity O(n) where n is the size of the subtree, with a recursion
+     *             depth of O(log(n))
+     */
+    private int fill(int[] sortedKeys, String[] sortedValues, int i, int j) {
+        if (j <= n) {
+            i = fill(sortedKeys, sortedValues, i, 2 * j);
+            keys[j] = sortedKeys[i];
+            values[j] = sortedValues[i];
+            ranks[j] = i;
+            indexes[i++] = j;
+            i = fill(sortedKeys, sortedValues, i, 2 * j + 1);
+        }
+        return i;
+    }
+
+    /**
+     * @param k
+     *            the key
+     * @return the index of the smallest key which is not smaller than k, 0 if
+     *         there is no such key
+     * @complexity O(log(n)) where n is the size of the snapshot
+     */
+    private int lowerBound(int k) {
+        int j = 1;
+        int sink = 0;
+        while (j <= n) {
+            // the 16 descendants 4 levels down share a cache line: load one of
+            // them now (there is no prefetch in Java), so the miss overlaps
+            // with the next levels rather than stalling the descent later
+            int p = 16 * j;
+            if (p <= n) {
+                sink += keys[p];
+            }
+            j = 2 * j + (keys[j] < k ? 1 : 0); // no branch on the comparison
+        }
+        if (sink == k) { // practically never: keeps the loads without writing
+            prefetched = sink; // a shared field on every search
+        }
+        // the last left turn was taken at the answer: drop the trailing right
+        // turns and that left turn
+        return j >>> (Integer.numberOfTrailingZeros(~j) + 1);
+    }
+
+    /**
+     * @return the number of keys in the snapshot, counting every key as many
+     *         times as its count
+     * @complexity O(1)
+     */
+    public int size() {
+        return before == null ? n : before[n];
+    }
+
+    /**
+     * @return the estimated bytes of the arrays, for WAVLTree.memoryFootprint()
+     *         (the values are the ones of the tree)
+     * @complexity O(1)
+     */
+    long memoryBytes() {
+        return MemoryFootprint.objectBytes(2 * 4 + 5 * MemoryFootprint.REFERENCE)
+                + 3 * MemoryFootprint.arrayBytes(n + 1, 4) // keys, values and ranks
+                + MemoryFootprint.arrayBytes(n, 4)
+                + (before == null ? 0 : MemoryFootprint.arrayBytes(n + 1, 4));
+    }
+
+    /**
+     * @param k
+     *            the key
+     * @return the value associated with the given key if the key is in the
+     *         snapshot, else null
+     * @complexity O(log(n)) where n is the size of the snapshot
+     */
+    public String search(int k) {
+        int j = lowerBound(k);
+        return j != 0 && keys[j] == k ? values[j] : null;
+    }
+
+    /**
+     * @param i
+     *            the rank, starting from 1
+     * @return the value of the i'th smallest key, null if the snapshot has less
+     *         than i keys (or i < 1)
+     * @complexity O(1), O(log(n)) if some count is not 1
+     */
+    public String select(int i) {
+        if (i < 1 || i > size()) {
+            return null;
+        } else if (before == null) {
+            return values[indexes[i - 1]];
+        }
+        int lo = 0; // the last rank r with before[r] < i
+        int hi = n - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (before[mid] < i) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return values[indexes[lo]];
+    }
+
+    /**
+     * @param k
+     *            the key
+     * @return the number of keys in the snapshot which are smaller than k,
+     *         counting every key as many times as its count
+     * @complexity O(log(n)) where n is the size of the snapshot
+     */
+    public int rank(int k) {
+        int j = lowerBound(k);
+        if (j == 0) {
+            return size();
+        }
+        return before == null ? ranks[j] : before[ranks[j]];
+    }
+
+}
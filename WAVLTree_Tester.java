@@ -1,7 +1,10 @@
 package wavltree;
 
+import java.util.Arrays;
 import java.util.Random;
 
+import memory.MemoryFootprint;
+
 import wavltree.WAVLTree.IWAVLNode;
 
 public class WAVLTree_Tester {
@@ -21,14 +24,210 @@ public class WAVLTree_Tester {
         }
         check(t);
         checkMinMax(t);
+        checkFingerSearch();
+        checkBuild();
+        checkMultiset();
+        checkBatch();
+        checkFootprint();
+    }
+
+    public static void checkFootprint() {
+        WAVLTree t = new WAVLTree();
+        t.setNodePooling(true);
+        boolean ok = true;
+        for (int i = 0; i < 4 * NUM_OF_OPERATIONS; i++) {
+            int k = getRandInt(0, NUM_OF_OPERATIONS);
+            if (i % 500 == 499) { // a batch replacing some values
+                t.applyBatch(new int[] { k, k + 1 }, new String[] { "batch" + i, "\u05d0" + i }, null);
+            } else if (i % 3 != 2) {
+                t.insert(k, i % 7 == 0 ? null : Integer.toString(i));
+            } else {
+                t.delete(k);
+            }
+            if (i % 100 == 0) {
+                long payload = 0;
+                for (String info : t.infoToArray()) {
+                    payload += MemoryFootprint.stringBytes(info);
+                }
+                MemoryFootprint footprint = t.memoryFootprint();
+                ok &= footprint.getPayloadBytes() == payload && footprint.getEntries() == t.size();
+                ok &= footprint.getSlackBytes() == (long) t.freeNodes() * t.nodeBytes();
+            }
+        }
+        WAVLTree dense = new WAVLTree();
+        dense.applyBatch(new int[] { 1, 2, 3 }, new String[] { "a", "bb", null }, null); // built, not inserted
+        ok &= dense.memoryFootprint().getPayloadBytes() == MemoryFootprint.stringBytes("a")
+                + MemoryFootprint.stringBytes("bb");
+        if (!ok) {
+            System.out.println("checkFootprint: \t\tfalse");
+        }
+    }
+
+    public static void checkBatch() {
+        WAVLTree t = new WAVLTree();
+        t.setNodePooling(true);
+        t.enableSearchCache(NUM_OF_OPERATIONS / 10);
+        String[] expected = new String[NUM_OF_OPERATIONS]; // brute force copy
+        boolean ok = true;
+        for (int round = 0; round < 20; round++) {
+            // alternately sparse (small, or up to the size of the tree) and dense batches
+            int m = round % 2 == 1 ? getRandInt(2 * t.size() + 1, 2 * t.size() + NUM_OF_OPERATIONS)
+                    : round % 4 == 0 ? getRandInt(1, 20) : getRandInt(1, t.size() + 2);
+            int[] keys = new int[m];
+            String[] values = new String[m];
+            boolean[] isDelete = new boolean[m];
+            for (int j = 0; j < m; j++) {
+                keys[j] = getRandInt(0, NUM_OF_OPERATIONS);
+            }
+            Arrays.sort(keys);
+            int changes = 0;
+            for (int j = 0; j < m; j++) {
+                isDelete[j] = getRandInt(0, 3) == 0;
+                values[j] = round + ":" + j;
+                t.search(keys[j]); // fill the cache with values about to change
+                if (isDelete[j]) {
+                    changes += expected[keys[j]] != null ? 1 : 0;
+                    expected[keys[j]] = null;
+                } else {
+                    changes++;
+                    expected[keys[j]] = values[j];
+                }
+            }
+            ok &= t.applyBatch(keys, values, isDelete) == changes;
+            check(t);
+            checkMinMax(t);
+            for (int k = 0; k < expected.length; k++) {
+                String res = t.search(k);
+                ok &= expected[k] == null ? res == null : expected[k].equals(res);
+            }
+        }
+        if (!ok) {
+            System.out.println("checkBatch: \t\tfalse");
+        }
+    }
+
+    public static void checkMultiset() {
+        WAVLTree t = new WAVLTree();
+        t.setMultiset(true);
+        t.setNodePooling(true);
+        int[] counts = new int[NUM_OF_OPERATIONS / 20]; // many duplicates
+        boolean ok = true;
+        for (int i = 0; i < 4 * NUM_OF_OPERATIONS; i++) {
+            int k = getRandInt(0, counts.length);
+            if (i % 3 != 2) {
+                ok &= t.insert(k, Integer.toString(k)) != -1;
+                counts[k]++;
+            } else if (t.delete(k) != -1) {
+                ok &= counts[k]-- > 0;
+            } else {
+                ok &= counts[k] == 0;
+            }
+            if (i % 100 == 0) {
+                check(t);
+                checkMinMax(t);
+            }
+        }
+        check(t);
+        for (int pass = 0; pass < 2; pass++) { // the tree, then the snapshot
+            int r = 0;
+            for (int k = 0; k < counts.length; k++) {
+                ok &= t.count(k) == counts[k] && t.rank(k) == r;
+                for (int c = 0; c < counts[k]; c++) {
+                    ok &= Integer.toString(k).equals(t.select(++r));
+                }
+            }
+            ok &= t.size() == r && t.select(r + 1) == null && t.rank(counts.length) == r;
+            ok &= t.freeze().size() == r && t.keyStream(true).count() == r;
+        }
+        if (!ok) {
+            System.out.println("checkMultiset: \t\tfalse");
+        }
+    }
+
+    public static void checkBuild() {
+        int[] keys = new int[NUM_OF_OPERATIONS];
+        String[] values = new String[keys.length];
+        WAVLTree expected = new WAVLTree();
+        for (int j = 0; j < keys.length; j++) {
+            keys[j] = getRandInt(-NUM_OF_OPERATIONS, NUM_OF_OPERATIONS);
+            values[j] = Integer.toString(j);
+            expected.insert(keys[j], values[j]);
+        }
+        WAVLTree t = WAVLTree.build(keys, values);
+        check(t);
+        checkMinMax(t);
+        if (!Arrays.equals(t.keysToArray(), expected.keysToArray())
+                || !Arrays.equals(t.infoToArray(), expected.infoToArray())) {
+            System.out.println("checkBuild: \t\tfalse");
+        }
+        checkFreeze(t);
+    }
+
+    public static void checkFreeze(WAVLTree t) {
+        int[] keys = t.keysToArray();
+        WAVLTreeSnapshot snapshot = t.freeze();
+        boolean ok = t.isFrozen() && snapshot.size() == keys.length;
+        for (int i = 0, k = -2 * NUM_OF_OPERATIONS; k < 2 * NUM_OF_OPERATIONS; k++) {
+            while (i < keys.length && keys[i] < k) {
+                i++;
+            }
+            boolean present = i < keys.length && keys[i] == k;
+            ok &= snapshot.rank(k) == i && (t.search(k) != null) == present;
+        }
+        for (int i = 0; i <= keys.length + 1; i++) {
+            String res = t.select(i);
+            ok &= i >= 1 && i <= keys.length ? res.equals(t.search(keys[i - 1])) : res == null;
+        }
+        t.insert(2 * NUM_OF_OPERATIONS, "");
+        ok &= !t.isFrozen();
+        if (!ok) {
+            System.out.println("checkFreeze: \t\tfalse");
+        }
+    }
+
+    public static void checkFingerSearch() {
+        WAVLTree t = new WAVLTree();
+        t.setFingerSearch(true);
+        t.setNodePooling(true);
+        WAVLTreeSearchCache cache = t.enableSearchCache(NUM_OF_OPERATIONS / 10);
+        boolean[] present = new boolean[2 * NUM_OF_OPERATIONS];
+        for (int i = 0; i < NUM_OF_OPERATIONS; i++) { // append-heavy, then local
+            int k = i % 2 == 0 ? i : getRandInt(0, present.length);
+            if (t.insert(k, Integer.toString(k)) != -1) {
+                present[k] = true;
+            }
+        }
+        for (int i = 0; i < NUM_OF_OPERATIONS; i++) {
+            int k = getRandInt(0, present.length);
+            t.search(k); // fill the cache before deleting
+            t.search(getRandInt(0, present.length / 10)); // a few hot keys
+            if (t.delete(k) != -1) {
+                present[k] = false;
+            }
+        }
+        check(t);
+        checkMinMax(t);
+        t.compact();
+        check(t);
+        checkMinMax(t);
+        for (int k = 0; k < present.length; k++) {
+            String res = t.search(k);
+            if ((res != null) != present[k] || (res != null && !res.equals(Integer.toString(k)))) {
+                System.out.println("checkFingerSearch: \t" + k + " -> " + res);
+            }
+        }
+        if (cache.size() > cache.capacity() || cache.getHits() == 0) {
+            System.out.println("checkSearchCache: \t" + cache.size() + " keys, " + cache.getHits() + " hits");
+        }
     }
 
     public static void check(WAVLTree t) {
-        if (!isBST(t) || !isWAVL(t) || !isSizeConsistent(t)) {
+        if (!isBST(t) || !isWAVL(t) || !isSizeConsistent(t) || !isArrayConsistent(t)) {
             System.out.println("isBST: \t\t\t" + isBST(t));
             System.out.println("isAVL: \t\t\t" + isAVL(t));
             System.out.println("isWAVL: \t\t" + isWAVL(t));
             System.out.println("isSizeConsistent: \t" + isSizeConsistent(t));
+            System.out.println("isArrayConsistent: \t" + isArrayConsistent(t));
         }
     }
 
@@ -205,11 +404,39 @@ public class WAVLTree_Tester {
     private static boolean isSizeConsistent(IWAVLNode x) {
         if (x == null || !x.isRealNode())
             return true;
-        if (size(x) != size(x.getLeft()) + size(x.getRight()) + 1)
+        if (size(x) != size(x.getLeft()) + size(x.getRight()) + x.getCount())
             return false;
         return isSizeConsistent(x.getLeft()) && isSizeConsistent(x.getRight());
     }
 
+    /**
+     * Checks if keysToArray(), infoToArray() and select() agree with each
+     * other and with size().
+     * 
+     * @return true if the sorted exports and select are consistent
+     */
+    private static boolean isArrayConsistent(WAVLTree t) {
+        int[] keys = t.keysToArray();
+        String[] infos = t.infoToArray();
+        if (keys.length != t.size() || infos.length != t.size()) {
+            return false;
+        }
+        for (int i = 0; i < keys.length; i++) {
+            if ((i > 0 && (t.isMultiset() ? keys[i - 1] > keys[i] : keys[i - 1] >= keys[i]))
+                    || !infos[i].equals(t.select(i + 1))
+                    || !infos[i].equals(t.search(keys[i]))) {
+                return false;
+            }
+        }
+        long sum = 0;
+        for (int k : keys) {
+            sum += k;
+        }
+        return t.select(0) == null && t.select(keys.length + 1) == null
+                && Arrays.equals(keys, t.parallelKeysToArray()) && t.keyStream(true).count() == keys.length
+                && t.keyStream(true).asLongStream().sum() == sum && t.stream(true).count() == keys.length;
+    }
+
     private static IWAVLNode min(IWAVLNode x) {
         while (x.getLeft() != null && x.isRealNode()) {
             x = x.getLeft();
@@ -0,0 +1,155 @@
+package wavltree;
+
+/**
+ * Quantiles of the last N samples of a stream. The samples of the window are
+ * kept in a ring buffer, and as the keys of a multiset WAVLTree, whose
+ * subtree sizes answer any quantile with a single select in O(log(n)). Every
+ * new sample is inserted, and the sample it pushes out of the window is
+ * deleted.
+ *
+ * The tree recycles its nodes, and a repeated sample only bumps the count of
+ * its node, so once the window is full, adding samples and querying them
+ * allocates nothing.
+ *
+ * In the exact mode the quantiles are samples of the window. With a precision
+ * of p bits, every sample is rounded to the middle of a bucket of the values
+ * which share its p most significant bits, so the quantiles are within a
+ * relative error of 2^-p, and a window of many different samples is held by
+ * few nodes.
+ */
+public class WindowedQuantile {
+
+    private final int[] window; // the keys of the samples, in arrival order from next
+    private int next; // where the next sample goes
+    private int count;
+    private final int precision; // 0 for the exact mode
+    private final WAVLTree tree = new WAVLTree();
+
+    /**
+     * An exact window.
+     *
+     * @param windowSize
+     *            the number of latest samples to keep
+     * @precondition windowSize >= 1
+     */
+    public WindowedQuantile(int windowSize) {
+        this(windowSize, 0);
+    }
+
+    /**
+     * @param windowSize
+     *            the number of latest samples to keep
+     * @param precision
+     *            the number of significant bits kept of every sample, 0 for
+     *            the exact mode
+     * @precondition windowSize >= 1
+     * @precondition 0 <= precision <= 30
+     */
+    public WindowedQuantile(int windowSize, int precision) {
+        window = new int[windowSize];
+        this.precision = precision;
+        tree.setMultiset(true);
+        tree.setNodePooling(true);
+    }
+
+    /**
+     * @return the number of samples in the window
+     * @complexity O(1)
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @return true if the quantiles are exact samples, false if they are
+     *         rounded
+     * @complexity O(1)
+     */
+    public boolean isExact() {
+        return precision == 0;
+    }
+
+    /**
+     * Add a sample, pushing the oldest one out if the window is full.
+     *
+     * @param sample
+     *            the sample
+     * @complexity O(log(n)) where n is the window size
+     */
+    public void add(int sample) {
+        int k = round(sample);
+        if (count == window.length) {
+            tree.delete(window[next]);
+        } else {
+            count++;
+        }
+        window[next] = k;
+        next = next == window.length - 1 ? 0 : next + 1;
+        tree.insert(k, null);
+    }
+
+    /**
+     * @param q
+     *            the quantile, 0.5 for the median
+     * @return the smallest sample which at least a fraction q of the window is
+     *         not greater than (the nearest rank), rounded if not exact
+     * @precondition size() > 0
+     * @precondition 0 <= q <= 1
+     * @complexity O(log(n)) where n is the window size
+     */
+    public int quantile(double q) {
+        int r = (int) Math.ceil(q * count);
+        return tree.selectKey(Math.max(1, Math.min(count, r)));
+    }
+
+    /**
+     * Compute several quantiles at once, without allocating.
+     *
+     * @param qs
+     *            the quantiles
+     * @param out
+     *            where to write quantile(qs[j]) into out[j]
+     * @precondition size() > 0
+     * @precondition out.length >= qs.length
+     * @complexity O(m * log(n)) where m is qs.length and n is the window size
+     */
+    public void quantiles(double[] qs, int[] out) {
+        for (int j = 0; j < qs.length; j++) {
+            out[j] = quantile(qs[j]);
+        }
+    }
+
+    /**
+     * Empty the window.
+     *
+     * @complexity O(n) where n is the window size
+     */
+    public void clear() {
+        for (int j = 0; j < count; j++) {
+            tree.delete(window[j]); // the nodes go back to the pool
+        }
+        count = 0;
+        next = 0;
+    }
+
+    /**
+     * @param v
+     *            a sample
+     * @return v in the exact mode, else the middle of its bucket: the values
+     *         which have the same precision most significant bits
+     * @complexity O(1)
+     */
+    int round(int v) {
+        if (precision == 0) {
+            return v;
+        } else if (v < 0) {
+            return v == Integer.MIN_VALUE ? -round(Integer.MAX_VALUE) : -round(-v);
+        }
+        int shift = 32 - Integer.numberOfLeadingZeros(v) - precision; // the bits below the kept ones
+        if (shift <= 0) {
+            return v;
+        }
+        return (v >>> shift << shift) | (1 << (shift - 1));
+    }
+
+}
@@ -0,0 +1,112 @@
+package wavltree;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compares WindowedQuantile, exact and with a precision of 7 bits, to
+ * recomputing the quantiles by sorting a copy of the window after every
+ * sample, on a stream of lognormal latencies. Reported per sample: the time
+ * to add it and read the p50, p99 and p999, the bytes allocated once the
+ * window is full, and the greatest relative error of the quantiles.
+ *
+ * Sorting costs O(n*log(n)) per sample, so it is timed on fewer samples.
+ */
+public class WindowedQuantileMeasurements {
+
+    public static int[] WINDOW_SIZES = { 1000, 10000, 100000 };
+    public static int SAMPLES = 1000000;
+    public static int SORT_SAMPLES = 2000;
+    public static int PRECISION = 7;
+    public static double[] QS = { 0.5, 0.99, 0.999 };
+
+    public static void main(String[] args) {
+        System.out.println("window\tengine\t\tns/sample\tbytes/sample\tmax error");
+        for (int n : WINDOW_SIZES) {
+            int[] samples = new int[n + SAMPLES];
+            Random rand = new Random(n);
+            for (int i = 0; i < samples.length; i++) {
+                samples[i] = (int) Math.exp(rand.nextGaussian() + 10); // microseconds around 22ms
+            }
+            for (int round = 0; round < 3; round++) { // the first rounds warm up the JIT
+                boolean print = round == 2;
+                measure("exact\t", n, samples, new WindowedQuantile(n), print);
+                measure("7 bits\t", n, samples, new WindowedQuantile(n, PRECISION), print);
+                measureSort(n, samples, print);
+            }
+        }
+    }
+
+    private static void measure(String name, int n, int[] samples, WindowedQuantile w, boolean print) {
+        int[] out = new int[QS.length];
+        for (int i = 0; i < n; i++) { // fill the window
+            w.add(samples[i]);
+        }
+        long sink = 0;
+        long allocated = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = n; i < samples.length; i++) {
+            w.add(samples[i]);
+            w.quantiles(QS, out);
+            sink += out[0];
+        }
+        long time = System.nanoTime() - start;
+        allocated = allocatedBytes() - allocated;
+        double error = 0; // of the last window
+        int[] sorted = Arrays.copyOfRange(samples, samples.length - n, samples.length);
+        Arrays.sort(sorted);
+        for (int j = 0; j < QS.length; j++) {
+            long exact = sorted[(int) Math.ceil(QS[j] * n) - 1];
+            error = Math.max(error, Math.abs(out[j] - exact) / (double) exact);
+        }
+        if (print) {
+            System.out.printf("%d\t%s%d\t\t%.3f\t\t%.5f%n", n, name, time / SAMPLES, (double) allocated / SAMPLES,
+                    error);
+        }
+        if (sink == 42) {
+            System.out.println(); // keeps the loop from being eliminated
+        }
+    }
+
+    private static void measureSort(int n, int[] samples, boolean print) {
+        int[] window = Arrays.copyOf(samples, n);
+        int[] sorted = new int[n];
+        int next = 0;
+        long sink = 0;
+        long allocated = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = n; i < n + SORT_SAMPLES; i++) {
+            window[next] = samples[i];
+            next = next == n - 1 ? 0 : next + 1;
+            System.arraycopy(window, 0, sorted, 0, n);
+            Arrays.sort(sorted);
+            for (double q : QS) {
+                sink += sorted[(int) Math.ceil(q * n) - 1];
+            }
+        }
+        long time = System.nanoTime() - start;
+        allocated = allocatedBytes() - allocated;
+        if (print) {
+            System.out.printf("%d\tsort\t\t%d\t\t%.3f\t\t%.5f%n", n, time / SORT_SAMPLES,
+                    (double) allocated / SORT_SAMPLES, 0.0);
+        }
+        if (sink == 42) {
+            System.out.println();
+        }
+    }
+
+    /**
+     * @return the bytes allocated by the current thread so far, -1 if the JVM
+     *         does not tell
+     */
+    private static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+}
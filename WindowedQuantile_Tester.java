@@ -0,0 +1,97 @@
+package wavltree;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class WindowedQuantile_Tester {
+
+    public static int NUM_OF_SAMPLES = 50000;
+    public static int WINDOW_SIZE = 777;
+    public static double[] QS = { 0, 0.001, 0.25, 0.5, 0.9, 0.99, 1 };
+
+    public static void main(String[] args) {
+        checkExact();
+        checkApproximate(4);
+        checkApproximate(10);
+    }
+
+    /**
+     * Compare the quantiles of the window with those of a sorted copy of the
+     * latest samples.
+     */
+    private static void checkExact() {
+        Random rand = new Random();
+        WindowedQuantile w = new WindowedQuantile(WINDOW_SIZE);
+        int[] samples = new int[NUM_OF_SAMPLES];
+        int[] out = new int[QS.length];
+        for (int i = 0; i < NUM_OF_SAMPLES; i++) {
+            // many repeats, some extremes
+            samples[i] = rand.nextInt(20) == 0 ? rand.nextInt() : rand.nextInt(500) - 250;
+            w.add(samples[i]);
+            if (i % 97 == 0 || i < 3) {
+                int[] sorted = latest(samples, i, WINDOW_SIZE);
+                w.quantiles(QS, out);
+                boolean ok = w.size() == sorted.length;
+                for (int j = 0; j < QS.length; j++) {
+                    ok &= out[j] == sorted[rank(QS[j], sorted.length) - 1];
+                }
+                if (!ok) {
+                    System.out.println("checkExact(" + i + "): \t\tfalse");
+                    return;
+                }
+            }
+        }
+        w.clear();
+        w.add(5);
+        if (w.size() != 1 || w.quantile(0) != 5 || w.quantile(1) != 5) {
+            System.out.println("checkExact clear: \t\tfalse");
+        }
+    }
+
+    /**
+     * The quantiles are within a relative error of 2^-precision of the exact
+     * ones, and in their order.
+     */
+    private static void checkApproximate(int precision) {
+        Random rand = new Random();
+        WindowedQuantile w = new WindowedQuantile(WINDOW_SIZE, precision);
+        int[] samples = new int[NUM_OF_SAMPLES];
+        double bound = Math.scalb(1.0, -precision);
+        for (int i = 0; i < NUM_OF_SAMPLES; i++) {
+            int v = (int) Math.exp(rand.nextGaussian() * 4 + 8);
+            samples[i] = rand.nextInt(4) == 0 ? -v : v;
+            if (i == 1000) {
+                samples[i] = Integer.MIN_VALUE;
+            } else if (i == 1001) {
+                samples[i] = Integer.MAX_VALUE;
+            }
+            w.add(samples[i]);
+            if (i % 101 == 0) {
+                int[] sorted = latest(samples, i, WINDOW_SIZE);
+                boolean ok = !w.isExact();
+                int previous = Integer.MIN_VALUE;
+                for (double q : QS) {
+                    long exact = sorted[rank(q, sorted.length) - 1];
+                    int approx = w.quantile(q);
+                    ok &= Math.abs(approx - exact) <= bound * Math.abs(exact) && approx >= previous;
+                    previous = approx;
+                }
+                if (!ok) {
+                    System.out.println("checkApproximate(" + precision + ", " + i + "): \tfalse");
+                    return;
+                }
+            }
+        }
+    }
+
+    private static int[] latest(int[] samples, int i, int windowSize) {
+        int[] sorted = Arrays.copyOfRange(samples, Math.max(0, i + 1 - windowSize), i + 1);
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    private static int rank(double q, int n) {
+        return Math.max(1, Math.min(n, (int) Math.ceil(q * n)));
+    }
+
+}